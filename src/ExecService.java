@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+/**
+ * Central execution service. Threads for blocking I/O (connections,
+ * devices, periodic loops) are created here. They are virtual threads
+ * unless disabled (exec.vthreads = false). Threads that need a platform
+ * thread (e.g. native device I/O) can ask for one.
+ *
+ * Timers should use the shared scheduler instead of creating their own
+ * executors. Tasks on the scheduler should be short; blocking work should
+ * be started in a thread.
+ *
+ * Live threads are counted by name (without a trailing number or suffix
+ * after '-' or '.'), so that they can be seen through the admin API.
+ */
+public class ExecService
+{
+    private static volatile boolean _vthreads = true;
+    private static int _schedThreads = 2;
+    private static ScheduledThreadPoolExecutor _scheduler;
+
+    private static final Map<String, AtomicInteger> _live = new ConcurrentHashMap<String, AtomicInteger>();
+    private static final AtomicLong _started = new AtomicLong(0);
+
+
+    public record Stats (boolean vthreads, long started, int live, Map<String, Integer> threads,
+                         int schedThreads, int schedActive, int schedQueued, long schedCompleted) {}
+
+
+
+    /**
+     * Configure the service. Should be called at startup, before threads
+     * are started.
+     */
+    public static synchronized void init(AprsServerConfig conf)
+    {
+        _vthreads = conf.getBoolProperty("exec.vthreads", true);
+        _schedThreads = Math.max(1, conf.getIntProperty("exec.scheduler.threads", 2));
+        if (_scheduler != null)
+            _scheduler.setCorePoolSize(_schedThreads);
+        conf.log().info("ExecService", "Virtual threads: "+_vthreads+", scheduler threads: "+_schedThreads);
+    }
+
+
+
+    /**
+     * Named thread factory for platform threads. Threads are numbered
+     * and counted.
+     */
+    public static ThreadFactory factory(String name, boolean daemon)
+    {
+        AtomicInteger n = new AtomicInteger(0);
+        return r -> {
+            Thread t = new Thread(_counted(_group(name), r), name+"-"+n.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        };
+    }
+
+
+
+    /**
+     * Create a thread (not started). It is a virtual thread unless disabled
+     * in configuration. Virtual threads are always daemon threads.
+     */
+    public static Thread thread(String name, Runnable r, boolean daemon)
+    {
+        r = _counted(_group(name), r);
+        if (_vthreads)
+            return Thread.ofVirtual().name(name).unstarted(r);
+        Thread t = new Thread(r, name);
+        t.setDaemon(daemon);
+        return t;
+    }
+
+
+    public static Thread thread(String name, Runnable r)
+        { return thread(name, r, false); }
+
+
+
+    /**
+     * Create and start a thread. It is a virtual thread unless disabled
+     * in configuration.
+     */
+    public static Thread start(String name, Runnable r)
+    {
+        Thread t = thread(name, r);
+        t.start();
+        return t;
+    }
+
+
+
+    /**
+     * Create and start a platform thread. To be used for threads that
+     * block in native code (e.g. serial ports).
+     */
+    public static Thread startPlatform(String name, Runnable r, boolean daemon)
+    {
+        Thread t = new Thread(_counted(_group(name), r), name);
+        t.setDaemon(daemon);
+        t.start();
+        return t;
+    }
+
+
+
+    /**
+     * Shared scheduler for timers.
+     */
+    public static synchronized ScheduledExecutorService scheduler()
+    {
+        if (_scheduler == null) {
+            _scheduler = new ScheduledThreadPoolExecutor(_schedThreads, factory("Scheduler", true));
+            _scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return _scheduler;
+    }
+
+
+
+    public static Stats getStats()
+    {
+        Map<String, Integer> threads = new TreeMap<String, Integer>();
+        int live = 0;
+        for (Map.Entry<String, AtomicInteger> x : _live.entrySet()) {
+            int n = x.getValue().get();
+            if (n > 0) {
+                threads.put(x.getKey(), n);
+                live += n;
+            }
+        }
+        ScheduledThreadPoolExecutor s = (ScheduledThreadPoolExecutor) scheduler();
+        return new Stats(_vthreads, _started.get(), live, threads,
+            s.getPoolSize(), s.getActiveCount(), s.getQueue().size(), s.getCompletedTaskCount());
+    }
+
+
+
+    /* Name without an id or number at the end */
+    private static String _group(String name)
+    {
+        int i = 0;
+        while (i < name.length() && name.charAt(i) != '-' && name.charAt(i) != '.')
+            i++;
+        while (i > 1 && Character.isDigit(name.charAt(i-1)))
+            i--;
+        return name.substring(0, i);
+    }
+
+
+
+    private static Runnable _counted(String group, Runnable r)
+    {
+        AtomicInteger n = _live.computeIfAbsent(group, k -> new AtomicInteger(0));
+        return () -> {
+            _started.incrementAndGet();
+            n.incrementAndGet();
+            try {
+                r.run();
+            }
+            finally {
+                n.decrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Timing wheel for expiry of items. Each slot holds the idents that are due
+ * within one tick. An ident is scheduled at most once. Deadlines beyond the
+ * range of the wheel are put in the last slot, so the caller should check
+ * again when it is due and reschedule it if it has not really expired.
+ */
+public class ExpiryWheel
+{
+    private final long _tick;
+    private final List<Set<String>> _slots;
+    private final ConcurrentHashMap<String, Long> _scheduled = new ConcurrentHashMap<String, Long>();
+    private volatile long _current;
+
+
+
+    /**
+     * Constructor.
+     * @param tick Length of a tick (slot) in milliseconds.
+     * @param nslots Number of slots.
+     */
+    public ExpiryWheel(long tick, int nslots)
+    {
+        _tick = tick;
+        _slots = new ArrayList<Set<String>>(nslots);
+        for (int i=0; i<nslots; i++)
+            _slots.add(ConcurrentHashMap.newKeySet());
+        _current = System.currentTimeMillis() / tick;
+    }
+
+
+
+    private Set<String> _slot(long t)
+        { return _slots.get((int) (t % _slots.size())); }
+
+
+
+    /**
+     * Schedule an ident to be due at the given time, unless it is already scheduled.
+     * This does not lock. If advance passes the slot while the ident is put
+     * there, it is moved to the next slot that is not processed.
+     * @param id Ident.
+     * @param deadline Time (in milliseconds) when it is due.
+     */
+    public void schedule(String id, long deadline)
+    {
+        /* Most calls are for idents that are already scheduled */
+        if (_scheduled.containsKey(id))
+            return;
+
+        long t = deadline / _tick;
+        long cur = _current;
+        if (t <= cur)
+            t = cur + 1;
+        else if (t > cur + _slots.size() - 1)
+            t = cur + _slots.size() - 1;
+
+        if (_scheduled.putIfAbsent(id, t) != null)
+            return;
+        _slot(t).add(id);
+
+        /*
+         * If the slot is passed and the ident is still there, advance did
+         * not take it. If it is not there, advance took it.
+         */
+        while (t <= (cur = _current) && _slot(t).remove(id)) {
+            t = cur + 1;
+            _scheduled.put(id, t);
+            _slot(t).add(id);
+        }
+    }
+
+
+
+    /**
+     * Return true if the ident is scheduled.
+     */
+    public boolean isScheduled(String id)
+        { return _scheduled.containsKey(id); }
+
+
+
+    /**
+     * Advance the wheel to the given time and return the idents that are due.
+     * These are no longer scheduled.
+     * @param now Current time in milliseconds.
+     */
+    public synchronized List<String> advance(long now)
+    {
+        List<String> res = new ArrayList<String>();
+        long t = now / _tick;
+        long cur = _current;
+        if (t <= cur)
+            return res;
+
+        /* Set first, so that schedule does not use the slots processed here */
+        _current = t;
+        long n = Math.min(t - cur, _slots.size());
+        for (long i=1; i <= n; i++) {
+            Set<String> slot = _slot(cur + i);
+            for (String id : slot)
+                if (slot.remove(id)) {
+                    _scheduled.remove(id);
+                    res.add(id);
+                }
+        }
+        return res;
+    }
+
+
+
+    /**
+     * Return the number of scheduled idents.
+     */
+    public int size()
+        { return _scheduled.size(); }
+
+
+    /**
+     * Remove everything.
+     */
+    public synchronized void clear()
+    {
+        for (Set<String> slot : _slots)
+            slot.clear();
+        _scheduled.clear();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+
+
+/**
+ * Spatial index of tracker points, used by StationDBImp for geographical search.
+ * Implementations must be safe to use from multiple threads.
+ */
+public interface GeoIndex
+{
+
+    /**
+     * Add a point to the index at its current position. If it is already
+     * indexed, it is moved.
+     * @param s Point to add.
+     */
+    public void add(TrackerPoint s);
+
+
+    /**
+     * Add a collection of points. This is faster than adding them one by one 
+     * and is used when restoring. 
+     * @param pts Points to add. 
+     */
+    public void load(Collection<TrackerPoint> pts);
+    
+    
+    /**
+     * Move a point in the index from a previous position to its current position.
+     * @param s Point to move.
+     * @param prevpos Previous position. May be null.
+     */
+    public void move(TrackerPoint s, LatLng prevpos);
+
+
+    /**
+     * Remove a point from the index.
+     * @param s Point to remove.
+     * @param pos Position where it was indexed. May be null.
+     */
+    public void remove(TrackerPoint s, LatLng pos);
+
+
+    /**
+     * Return the points within the rectangle defined by uleft (upper left
+     * corner) and lright (lower right corner).
+     * @param uleft Upper left corner.
+     * @param lright Lower right corner.
+     */
+    public List<TrackerPoint> search(LatLng uleft, LatLng lright);
+
+
+    /**
+     * Remove everything.
+     */
+    public void clear();
+
+
+    /**
+     * Return the number of indexed points.
+     */
+    public int size();
+
+
+
+    /**
+     * Create an index of the given type. "rtree" (default) or "grid".
+     */
+    public static GeoIndex create(AprsServerConfig api, String type)
+    {
+        if ("grid".equals(type))
+            return new GridGeoIndex(
+                Double.parseDouble(api.getProperty("stations.index.cellsize", "0.5")));
+        return new RTreeGeoIndex();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Spatial index based on a grid of fixed size cells (in degrees). Each cell
+ * is a concurrent set of points. Adding, moving or removing a point only
+ * locks the cells involved, so updates from different channels do not
+ * contend unless they hit the same cells. Searches do not lock.
+ */
+public class GridGeoIndex implements GeoIndex
+{
+    private final double _cellsize;
+    private final int    _ncols, _nrows;
+
+    /* Cell key -> points in cell */
+    private final ConcurrentHashMap<Long, Set<TrackerPoint>> _cells = new ConcurrentHashMap<Long, Set<TrackerPoint>>();
+
+    /* Point -> key of cell where it is indexed */
+    private final ConcurrentHashMap<TrackerPoint, Long> _cellOf = new ConcurrentHashMap<TrackerPoint, Long>();
+
+
+
+    public GridGeoIndex(double cellsize)
+    {
+        if (cellsize <= 0 || cellsize > 90)
+            cellsize = 0.5;
+        _cellsize = cellsize;
+        _ncols = (int) Math.ceil(360 / cellsize);
+        _nrows = (int) Math.ceil(180 / cellsize);
+    }
+
+
+
+    private int col(double lng) {
+        int c = (int) Math.floor((lng + 180) / _cellsize);
+        return c < 0 ? 0 : (c >= _ncols ? _ncols-1 : c);
+    }
+
+    private int row(double lat) {
+        int r = (int) Math.floor((lat + 90) / _cellsize);
+        return r < 0 ? 0 : (r >= _nrows ? _nrows-1 : r);
+    }
+
+    private static long key(int row, int col)
+        { return ((long) row << 32) | col; }
+
+    private long key(LatLng pos)
+        { return key(row(pos.getLat()), col(pos.getLng())); }
+
+
+
+    private void _addToCell(long key, TrackerPoint s)
+    {
+        _cells.compute(key, (k, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(s);
+            return set;
+        });
+    }
+
+
+    private void _removeFromCell(long key, TrackerPoint s)
+    {
+        _cells.computeIfPresent(key, (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+
+
+    public void add(TrackerPoint s)
+    {
+        LatLng pos = s.getPosition();
+        if (pos == null) {
+            remove(s, null);
+            return;
+        }
+        long newkey = key(pos);
+        /* Per-point atomic move between cells. O(1) */
+        _cellOf.compute(s, (x, oldkey) -> {
+            if (oldkey != null && oldkey == newkey)
+                return oldkey;
+            if (oldkey != null)
+                _removeFromCell(oldkey, s);
+            _addToCell(newkey, s);
+            return newkey;
+        });
+    }
+
+
+
+    public void load(Collection<TrackerPoint> pts)
+        { pts.parallelStream().forEach(s -> add(s)); }
+
+
+
+    /**
+     * Move a point to its current position. The cell where it was indexed is
+     * remembered, so prevpos is not needed here.
+     */
+    public void move(TrackerPoint s, LatLng prevpos)
+        { add(s); }
+
+
+
+    public void remove(TrackerPoint s, LatLng pos)
+    {
+        if (s == null)
+            return;
+        _cellOf.computeIfPresent(s, (x, oldkey) -> {
+            _removeFromCell(oldkey, s);
+            return null;
+        });
+    }
+
+
+
+    public List<TrackerPoint> search(LatLng ul, LatLng lr)
+    {
+        List<TrackerPoint> res = new ArrayList<TrackerPoint>(2000);
+        double minlat = lr.getLat(), maxlat = ul.getLat();
+        double minlng = ul.getLng(), maxlng = lr.getLng();
+        boolean wrap = maxlng < minlng;
+
+        int r1 = row(minlat), r2 = row(maxlat);
+        int c1 = col(minlng), c2 = col(maxlng);
+        int ncols = wrap ? Math.min(_ncols, _ncols - c1 + c2 + 1) : (c2 - c1 + 1);
+        long ncells = (long) (r2 - r1 + 1) * ncols;
+
+        if (ncells > _cells.size()) {
+            /* Large area. Cheaper to look at the non-empty cells */
+            for (Map.Entry<Long, Set<TrackerPoint>> e : _cells.entrySet()) {
+                long k = e.getKey();
+                int r = (int) (k >>> 32), c = (int) k;
+                if (r >= r1 && r <= r2 && (wrap ? (c >= c1 || c <= c2) : (c >= c1 && c <= c2)))
+                    _addInside(e.getValue(), minlat, maxlat, minlng, maxlng, wrap, res);
+            }
+        }
+        else
+            for (int r = r1; r <= r2; r++)
+                for (int i = 0; i < ncols; i++) {
+                    Set<TrackerPoint> set = _cells.get(key(r, (c1 + i) % _ncols));
+                    if (set != null)
+                        _addInside(set, minlat, maxlat, minlng, maxlng, wrap, res);
+                }
+        return res;
+    }
+
+
+
+    private static void _addInside(Set<TrackerPoint> set, double minlat, double maxlat,
+                double minlng, double maxlng, boolean wrap, List<TrackerPoint> res)
+    {
+        for (TrackerPoint s : set) {
+            LatLng pos = s.getPosition();
+            if (pos == null)
+                continue;
+            double lat = pos.getLat(), lng = pos.getLng();
+            if (lat >= minlat && lat <= maxlat &&
+                 (wrap ? (lng >= minlng || lng <= maxlng) : (lng >= minlng && lng <= maxlng)))
+                res.add(s);
+        }
+    }
+
+
+
+    public void clear()
+    {
+        _cellOf.clear();
+        _cells.clear();
+    }
+
+
+    public int size()
+        { return _cellOf.size(); }
+}
@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2017-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2017-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software; you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -32,44 +32,115 @@ import no.polaric.aprsd.filter.*;
 
 /**
  * Map overlay updater using Websockets.  
+ *
+ * Overlays are deltas. For each client we keep the points it has got, with 
+ * a hash of what was sent for each. An update has the points that are new 
+ * or changed since they were sent, and deletes for points that are no longer 
+ * shown. Since the trail and lines are clipped to the client's viewport and 
+ * labels depend on authorization, a point is also sent again when this 
+ * changes what is sent for it. Each update that changes something gets a 
+ * new revision number (see JsOverlay). A full overlay is sent after SUBSCRIBE 
+ * (unless keep is set and the view is the same) and when the client sends 
+ * RESYNC. 
+ *
+ * Overlays are written directly as JSON (see JsonWriter and OverlayJson), 
+ * in the format defined by JsOverlay and JsPoint. OverlayJsonTest checks 
+ * that the output is the same as serializeJson gives. Points are written 
+ * once when computed and the bytes are shared by clients (see OverlayCache). 
  */
 public class JsonMapUpdater extends MapUpdater implements Notifier, JsonPoints
 {
     int _max_ovr_size = 20000;
     StationDB _db; 
     
+    /* Points shared by clients with the same view */
+    private final OverlayCache _cache = new OverlayCache();
+    private boolean _cacheOn = true;
+    
+    /* Buffer for overlays. Reused by each thread */
+    private static final ThreadLocal<JsonWriter> _writer = ThreadLocal.withInitial(() -> new JsonWriter(16384));
+    
+    
+    /** Update statistics for a client. Sizes are in bytes. */
+    public record ClientStats(long rev, long updates, long resyncs, long bytes, long lastbytes, long maxbytes, 
+                              int points, long interval) {}
+    
+    
     public class Client extends MapUpdater.Client 
     {
-        private Set<String> items = new HashSet<String>(1000);
+        /* Points the client has, with the hash of each when sent (see sentHash). 
+         * State is protected by _lock. We don't hold it while computing 
+         * points, since that may signal changes. 
+         */
+        private final Object _lock = new Object();
+        private Map<String, Long> _sent = new HashMap<String, Long>(1000);
+        private Map<String, Integer> _signs = new HashMap<String, Integer>();
+        private long    _rev = 0;
+        private boolean _resync = true;
+        private String  _view = null;
+        private long    _nupdates, _nresyncs, _bytes, _lastBytes, _maxBytes;
        
         public Client(WsContext ctx) 
             {  super(ctx); }
    
           
-        public void subscribe() {
-            /* It is possible to remove only items that move out of the viewport? 
-             * Or could items be expired. Use a LRU cache semantics? 
+        @Override public void subscribe() {
+            /* Start over if not keeping points or if view (filter, scale or tag) 
+             * has changed, since what is shown depends on it. 
              */
-            if (!_keep) 
-                items.clear();
+            String view = _filter+","+_scale+","+_tag;
+            synchronized (_lock) {
+                if (!_keep || !view.equals(_view)) 
+                    _resync = true;
+                _view = view;
+            }
+        }
+        
+        
+        @Override public void resync() 
+            { synchronized (_lock) { _resync = true; } }
+          
+          
+        public ClientStats getStats() {
+            synchronized (_lock) {
+                return new ClientStats(_rev, _nupdates, _nresyncs, _bytes, _lastBytes, _maxBytes, _sent.size(), interval()); 
+            }
         }
           
    
-        /** Returns the overlay. JSON format. */
+        /** Returns the overlay. JSON format (see JsOverlay). */
         @Override public String getOverlayData(boolean metaonly) {
             try {
-                _updates++;
-                JsOverlay mu = new JsOverlay(_filter);
-                if (mu==null) {
-                    _conf.log().error("JsonMapUpdater", "Cannot allocate JsOverlay object.");
-                    return null;
+                _updates.incrementAndGet();
+                OverlayCache.Entry entry = (metaonly ? null : getEntry());
+                boolean overload = (entry != null && entry.overload);
+                if (overload)
+                    resync();
+                    
+                JsonWriter w = _writer.get().reset();
+                String auth = (_auth == null ? null : serializeJson(_auth));
+                OverlayJson.beginOverlay(w, _filter, auth, _conf.getWebserver().nClients(), 
+                    overload, ((AprsServerConfig)_conf).isOffline());
+                 
+                if (entry != null && !overload)
+                    addPoints(w, entry);
+                else {
+                    /* Empty lists if overload. No lists if metaonly */
+                    OverlayJson.noPoints(w, overload);
+                    OverlayJson.endOverlay(w, 0, 0, false);
                 }
-                mu.authorization = _auth;
-                mu.offline = ((AprsServerConfig)_conf).isOffline();
-                mu.nclients = _conf.getWebserver().nClients();
-                if (!metaonly)
-                    addPoints(mu);
-                return serializeJson(mu);
+                
+                if (!metaonly) {
+                    long n = w.size();
+                    _size = n;
+                    synchronized (_lock) {
+                        _nupdates++;
+                        _bytes += n;
+                        _lastBytes = n;
+                        _maxBytes = Math.max(_maxBytes, n);
+                    }
+                }
+                return w.toString();
             }
             catch (Exception e) {
                 _conf.log().error("JsonMapUpdater", "Exception in generating overlay.");
@@ -120,91 +191,230 @@ public class JsonMapUpdater extends MapUpdater implements Notifier, JsonPoints
        
        
        
-        /** Add trackerpoints to overlay */
-        private void addPoints(JsOverlay mu) 
+        /* 
+         * Version of a point. It changes when position, label, icon or trail
+         * changes. For moving points, it also changes with each position update.
+         */
+        private long version(TrackerPoint s) {
+            Date ch = s.getLastChanged();
+            long v = (ch == null ? 0 : ch.getTime());
+            if (s.isChanging() && s.getUpdated() != null)
+                v = Math.max(v, s.getUpdated().getTime());
+            return v; 
+        }
+        
+        
+        
+        /* 
+         * Compute the points for an area (shared with other clients with
+         * the same view, see OverlayCache). 
+         */
+        private void computePoints(OverlayCache.Entry e, RuleSet vfilt, boolean allowed, AuthInfo ai)
+        {
+            List<TrackerPoint> itemlist =  _db.search(e.uleft, e.lright, vfilt);
+            if (itemlist.size() > _max_ovr_size) {
+                e.overload = true;
+                return;
+            }
+            JsonWriter w = new JsonWriter(); 
+            for (TrackerPoint s:itemlist) 
+            {          
+                /* Apply filter. */ 
+                Action action = vfilt.apply(s, _scale); 
+                if ( s.getPosition() == null ||
+                     ( shouldRestrictItem(s) && !action.isPublic() && !allowed) ||
+                       action.hideAll() ||
+                       (_tag != null && !s.hasTag(_tag)) ||
+                       !s.visible()
+                    )
+                  continue; 
+                  
+                OverlayCache.Item it = createItem(w, s, version(s), action, allowed, ai, e.uleft, e.lright);
+                if (it == null)
+                    continue;
+                e.add(it);
+            }
+        }
+        
+        
+        
+        /* 
+         * Key for the view. Clients with the same key get the same points. 
+         * 'area' is the quantized area. 
+         */
+        private String viewKey(LatLng[] area, boolean allowed, AuthInfo ai) {
+            return _filter + "|" + _scale + "|" + _tag + "|" + allowed + "|" 
+                 + (ai == null ? "-" : (ai.admin ? "admin" : ai.tagsAuth)) + "|"
+                 + area[0].getLat() + "," + area[0].getLng() + "," + area[1].getLat() + "," + area[1].getLng();
+        }
+        
+        
+        
+        /* 
+         * Get the points for the client's view (from the cache if on). 
+         * Returns null if there is no database. 
+         */
+        private OverlayCache.Entry getEntry()
         {
-            /* Output APRS objects */
-            if (_db == null)
+            if (_db == null) {
                 _conf.log().error("JsonMapUpdater", "_conf.getDB() returns null");
-            else 
+                return null;
+            }
+            boolean allowed = login(); 
+            AuthInfo ai = authInfo();
+            RuleSet vfilt = ViewFilter.getFilter(_filter, allowed);      
+            if (!_cacheOn) {
+                OverlayCache.Entry entry = new OverlayCache.Entry(_uleft, _lright);
+                computePoints(entry, vfilt, allowed, ai);
+                return entry;
+            }
+            LatLng[] area = OverlayCache.quantize(_uleft, _lright);
+            return _cache.get(viewKey(area, allowed, ai), area, e -> computePoints(e, vfilt, allowed, ai));
+        }
+        
+        
+        
+        /* A sign written as JSON */
+        private record Sign(String ident, byte[] json) {}
+        
+        
+        
+        /** Add trackerpoints to overlay. Only the changes since the last revision. */
+        private void addPoints(JsonWriter w, OverlayCache.Entry entry) 
+        {
+            List<Sign> signlist = new ArrayList<Sign>();
+            JsonWriter sw = new JsonWriter(1024);
+            for (Signs.Item s: Signs.search(userName(), group(), _scale, _uleft, _lright)) {
+                if (!writeSign(sw.reset(), s))
+                    continue;
+                signlist.add(new Sign(s.getIdent(), sw.toBytes()));
+            }
+            synchronized (_lock) {
+                addChanges(w, entry, entry.uleft != _uleft, signlist);
+            }
+        }
+        
+        
+        
+        /* 
+         * Add the points of the entry (and signs) that are new or changed since 
+         * they were sent, and deletes for points not shown anymore. Writes the 
+         * rest of the overlay, from 'points'. 
+         * Must hold _lock. 
+         */
+        private void addChanges(JsonWriter w, OverlayCache.Entry entry, boolean clip, List<Sign> signlist)
+        {
+            boolean resync = _resync;
+            if (_resync) {
+                _sent.clear();
+                _signs.clear();
+                _resync = false;
+                _nresyncs++;
+            }
+            long baserev = _rev;
+            int changes = 0;
+            Set<String> shown = new HashSet<String>(entry.items.size()); 
+            List<byte[]> lines = new ArrayList<byte[]>();
+            
+            w.name("points").beginArray();
+            for (OverlayCache.Item it : entry.items) 
             {
-                mu.points = new ArrayList<JsPoint>();
-                mu.delete = new ArrayList<String>();
-                mu.lines = new ArrayList<JsLine>();
-                boolean allowed = login(); 
-                AuthInfo ai = authInfo();
-                RuleSet vfilt = ViewFilter.getFilter(_filter, allowed);      
-                List<TrackerPoint> itemlist =  _db.search(_uleft, _lright, vfilt);
-                if (itemlist.size() > _max_ovr_size) {
-                    mu.overload = true;
-                    return;
-                }
-                
-                for (TrackerPoint s:itemlist) 
-                {          
-                    if (!s.isChanging() && items.contains(s.getIdent()))
-                        continue;
-                                  
-                    items.add(s.getIdent());
+                /* The entry may cover a larger area than the client's */
+                if (clip && !it.src().isInside(_uleft, _lright))
+                    continue;
+                String id = it.ident(); 
+                shown.add(id);
+                int ntrail = (clip ? it.trailLength(_uleft, _lright) : it.trailLength(null, null));
+                long h = sentHash(it, clip, ntrail);
+                Long sent = _sent.put(id, h);
+                if (sent != null && sent == h)
+                    continue;
                     
-                    /* Apply filter. */ 
-                    Action action = vfilt.apply(s, _scale); 
-                    if ( s.getPosition() == null ||
-                         ( shouldRestrictItem(s) && !action.isPublic() && !allowed) ||
-                           action.hideAll() ||
-                           (_tag != null && !s.hasTag(_tag))
-                        )
-                      continue; 
-
-                    /* Add point to delete-list */
-                    if (!s.visible()) {
-                        if (!_keep) 
-                            continue;
-                        mu.delete.add(s.getIdent());
-                    }
-                    else {  
-                        /* Add item to overlay */
-                        JsPoint p = createPoint(s, action, allowed, ai);
-                        if (p!=null) {
-                            mu.points.add(p);
-                            
-                            /* Add lines (that connect points) to list */
-                            if (action.showPath() && s instanceof Station && ((AprsPoint)s).isInfra())
-                               addLines(mu, (Station) s, s.getPosition(), _uleft, _lright); 
-                        }
-                    }
+                /* Add item to overlay */
+                OverlayJson.item(w, it, ntrail);
+                changes++;
+                if (it.lines() != null)
+                    for (OverlayCache.Line l : it.lines())
+                        if (!clip || l.from().isInside(_uleft, _lright))
+                            lines.add(l.json());
+            }
+            
+            /* Add signs to list */
+            Set<String> signs = new HashSet<String>(); 
+            for (Sign p: signlist) {
+                signs.add(p.ident());
+                int h = Arrays.hashCode(p.json());
+                Integer sent = _signs.put(p.ident(), h);
+                if (sent == null || sent != h) {
+                   w.rawValue(p.json());
+                   changes++;
+                }
+            } 
+            w.endArray();
+            
+            /* Delete points that are not shown anymore (expired, out of view or filtered out) */
+            w.name("delete").beginArray();
+            for (Iterator<String> it = _sent.keySet().iterator(); it.hasNext(); ) {
+                String id = it.next(); 
+                if (!shown.contains(id)) {
+                    w.value(id);
+                    changes++;
+                    it.remove();
+                }
+            }
+            for (Iterator<String> it = _signs.keySet().iterator(); it.hasNext(); ) {
+                String id = it.next(); 
+                if (!signs.contains(id)) {
+                    w.value(id);
+                    changes++;
+                    it.remove();
                 }
-                
-                /* Add signs to list */
-                for (Signs.Item s: Signs.search(userName(), group(), _scale, _uleft, _lright)) {
-                    JsPoint p = createSign(s); 
-                    if (p!=null)
-                       mu.points.add(p);
-                } 
-                
             }
+            w.endArray();
+            
+            w.name("lines").beginArray();
+            for (byte[] l : lines)
+                w.rawValue(l);
+            w.endArray();
+            
+            if (resync || changes > 0)
+                _rev++;
+            OverlayJson.endOverlay(w, _rev, baserev, resync);
         }
         
-
+        
+        
+        /* 
+         * Hash of what is sent for an item: the item and, if it is clipped, the 
+         * number of trail positions and the lines inside the client's viewport. 
+         */
+        private long sentHash(OverlayCache.Item it, boolean clip, int ntrail) {
+            if (!clip)
+                return it.hash();
+            long h = it.hash() * 31 + ntrail;
+            if (it.lines() != null)
+                for (int i=0; i<it.lines().size(); i++)
+                    if (it.lines().get(i).from().isInside(_uleft, _lright))
+                        h = h * 31 + i + 1;
+            return h;
+        }
+        
+        
         
         /**
-         * Convert sign to JSON Point.
+         * Write sign as JSON point. 
+         * Return false if sign has no position. 
          */
-        private JsPoint createSign(Signs.Item s) {
+        private boolean writeSign(JsonWriter w, Signs.Item s) {
             LatLng ref = s.getPosition(); 
             if (ref == null)
-                return null;
-            JsPoint x = new JsPoint(); 
-            
-            x.ident = s.getIdent();
-            x.type  = s.getType();
-            x.pos   = new double[] {ref.getLng(), ref.getLat()};
-            x.title = s.getDescr() == null ? "" : fixText(s.getDescr());
-            x.href  = s.getUrl() == null ? "" : s.getUrl();
-            x.icon  = "/icons/"+ s.getIcon();
+                return false;
             String uname = userName();
-            x.own   = (uname != null && uname.equals(s.getUser()));
-            return x;
+            OverlayJson.sign(w, s.getIdent(), s.getType(), ref.getLng(), ref.getLat(), 
+                s.getDescr() == null ? "" : fixText(s.getDescr()), 
+                uname != null && uname.equals(s.getUser()),
+                "/icons/"+ s.getIcon(), s.getUrl() == null ? "" : s.getUrl());
+            return true;
         }
         
         
@@ -216,81 +426,89 @@ public class JsonMapUpdater extends MapUpdater implements Notifier, JsonPoints
         
         
         
-        /** Convert Tracker point to JSON point. 
-         * Return null if point has no position.  
+        /**
+         * Convert tracker point to an item for the cache. 
+         * The point is written as JSON, except the trail. Trail positions and 
+         * lines are selected for the entry's area and written one by one, so 
+         * they can be clipped to each client's viewport. 
+         * Return null if point has no position. 'w' is used as a buffer. 
          */
-        private JsPoint createPoint(TrackerPoint s, Action action, boolean allowed, AuthInfo ai) {
+        private OverlayCache.Item createItem(JsonWriter w, TrackerPoint s, long version, Action action, 
+                    boolean allowed, AuthInfo ai, LatLng uleft, LatLng lright) {
             LatLng ref = s.getPosition(); 
             if (ref == null) 
                 return null;
-             
-            JsPoint x  = new JsPoint();
-            
-            /* Indicate if user has authorization to change point. */
-            x.sarAuth = (ai != null && itemSarAuth(ai, s)); 
-            
-            x.ident   = s.getIdent();
-            
-            /* Cache trail to avoid calling getTrail() multiple times */
+                
             Trail trail = s.getTrail();
-            x.label   = createLabel(s, action, allowed, trail);
-            x.pos     = new double[] {roundDeg(ref.getLng()), roundDeg(ref.getLat())};
-            x.title   = s.getDescr() == null ? "" : fixText(s.getDescr()); 
-            x.redraw  = s.isChanging();
-            x.own     = (s instanceof AprsObject) 
-                        && _db.getOwnObjects().hasObject(s.getIdent().replaceFirst("@.*",""));
-            x.aprs    = (s instanceof AprsPoint); 
-            x.telemetry = s.hasTag("APRS.telemetry");
-           
             String icon = action.getIcon(s.getIcon()); 
             if (s.iconOverride())  
                icon = s.getIcon(); 
-            x.icon = "/icons/"+ (icon != null ? icon : icon()); 
-            x.trail = createTrail(trail, s, action);
-            return x;
-        }
-       
-       
-       
-        /** Create label or return null if label is to be hidden. */
-        private JsLabel createLabel(TrackerPoint s, Action action, boolean allowed, Trail trail) {
-            boolean showSarInfo = allowed || !action.hideAlias();
+               
+            w.reset().beginMembers();
+            OverlayJson.pointMembers(w, s.getIdent(), null, roundDeg(ref.getLng()), roundDeg(ref.getLat()), 
+                s.getDescr() == null ? "" : fixText(s.getDescr()), 
+                s.isChanging(),
+                (s instanceof AprsObject) && _db.getOwnObjects().hasObject(s.getIdent().replaceFirst("@.*","")),
+                s instanceof AprsPoint, 
+                s.hasTag("APRS.telemetry"),
+                ai != null && itemSarAuth(ai, s),
+                "/icons/"+ (icon != null ? icon : icon()), 
+                null);
+            writeLabel(w, s, action, allowed, trail);
+            byte[] members = w.endMembers().toBytes();
             
-            JsLabel lbl = new JsLabel();
-           
-            lbl.style = (!(trail.isEmpty()) ? "lmoving" : "lstill");
-            if (s instanceof AprsObject)
-                lbl.style = "lobject"; 
-            lbl.style = lbl.style + " " + action.getStyle();
-            lbl.id = s.getDisplayId(showSarInfo);
-            lbl.hidden = (action.hideIdent() || s.isLabelHidden() );
-            return lbl;
-        }
-       
-       
-       
-        private JsTrail createTrail(Trail trail, TrackerPoint s, Action action) {
+            /* Trail */
             Seq<TPoint> h = trail
                .subTrail(action.getTrailTime(), action.getTrailLen(), 
-                  tp -> tp.isInside(_uleft, _lright, 0.7, 0.7) );     
-          
+                  tp -> tp.isInside(uleft, lright, 0.7, 0.7) );  
+            String[] style = null;
+            List<OverlayCache.TrailPoint> tpoints = null;
             if (!action.hideTrail() && !h.isEmpty()) {
-                JsTrail res = new JsTrail(s.getTrailColor()); 
+                style = s.getTrailColor();
+                List<OverlayCache.TrailPoint> tl = tpoints = new ArrayList<OverlayCache.TrailPoint>();
                 h.forEach( it -> {
-                    LatLng pos = (LatLng) it.getPosition();
-                    res.linestring.add(new JsTPoint(it));
-                 });
-                return res;
+                    writeTPoint(w.reset(), it);
+                    tl.add(new OverlayCache.TrailPoint(it, w.toBytes()));
+                });
+            }
+            
+            /* Lines that connect points */
+            List<OverlayCache.Line> lines = null;
+            if (action.showPath() && s instanceof Station && ((AprsPoint)s).isInfra()) {
+                lines = new ArrayList<OverlayCache.Line>();
+                addLines(lines, w, (Station) s, ref, uleft, lright); 
             }
-            else return null;
+            return new OverlayCache.Item(s, s.getIdent(), version, members, style, tpoints, lines);
+        }
+        
+        
+        
+        /** Write label. */
+        private void writeLabel(JsonWriter w, TrackerPoint s, Action action, boolean allowed, Trail trail) {
+            boolean showSarInfo = allowed || !action.hideAlias();
+            String style = (!(trail.isEmpty()) ? "lmoving" : "lstill");
+            if (s instanceof AprsObject)
+                style = "lobject"; 
+            OverlayJson.label(w, s.getDisplayId(showSarInfo), style + " " + action.getStyle(), 
+                action.hideIdent() || s.isLabelHidden());
+        }
+        
+        
+        
+        /** Write trail position (same as JsTPoint). */
+        private void writeTPoint(JsonWriter w, TPoint it) {
+            LatLng pos = (LatLng) it.getPosition();
+            OverlayJson.tpoint(w, pos.getLng(), pos.getLat(), it.getTS(), ServerBase.cleanPath(it.getPath()));
         }
        
        
        
         /**
-         * Display a message path between nodes. 
+         * Display a message path between nodes. Each line is written as JSON 
+         * and added to 'lines'. 'w' is used as a buffer. 
          */
-        protected void addLines(JsOverlay ov, Station s, LatLng spos, LatLng uleft, LatLng lright)
+        protected void addLines(List<OverlayCache.Line> lines, JsonWriter w, Station s, LatLng spos, 
+                    LatLng uleft, LatLng lright)
         {
             Set<String> from = s.getTrafficTo();
             if (from == null || from.isEmpty()) 
@@ -306,13 +524,11 @@ public class JsonMapUpdater extends MapUpdater implements Notifier, JsonPoints
                 RouteInfo.Edge e = _db.getRoutes().getEdge(s.getIdent(), p.getIdent());
                 
                 if (itx != null) { 
-                    JsLine line = new JsLine(
-                       f+"."+s.getIdent(),
-                       new double[] {roundDeg(itx.getLng()), roundDeg(itx.getLat())}, 
-                       new double[] {roundDeg(spos.getLng()), roundDeg(spos.getLat())}, 
-                       (e.primary ? "prim" : "sec") 
-                    );
-                    ov.lines.add(line);
+                    OverlayJson.line(w.reset(), f+"."+s.getIdent(), 
+                        roundDeg(itx.getLng()), roundDeg(itx.getLat()), 
+                        roundDeg(spos.getLng()), roundDeg(spos.getLat()), 
+                        (e.primary ? "prim" : "sec"));
+                    lines.add(new OverlayCache.Line(p, w.toBytes()));
                 }
             }
         }
@@ -329,5 +545,17 @@ public class JsonMapUpdater extends MapUpdater implements Notifier, JsonPoints
    public JsonMapUpdater(AprsServerConfig conf) { 
       super(conf); 
       _db = conf.getDB();
+      _cacheOn = conf.getBoolProperty("mapupdater.cache", true);
    }
+   
+   
+   /** Signal of change from a tracker point. Invalidate cached overlays. */
+   @Override public void signal(TrackerPoint st) {
+      _cache.invalidate(st);
+      super.signal(st);
+   }
+   
+   
+   public OverlayCache.Stats getCacheStats()
+      { return _cache.getStats(); }
 }
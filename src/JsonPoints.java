@@ -18,6 +18,10 @@ import no.polaric.aprsd.filter.*;
 
 /**
  * Define JSON representation of points for use in overlay. 
+ *
+ * JsonMapUpdater writes overlays directly with JsonWriter, in the format 
+ * given by these classes (field order included). Changes here must be 
+ * done there as well. 
  */
 public interface JsonPoints 
 {
@@ -34,6 +38,14 @@ public interface JsonPoints
         public List<String>   delete;
         public List<JsLine>   lines;
         public List<JsTPoint> pcloud;
+        
+        /* Delta protocol. An overlay with points (and deletes) changes the
+         * client's state from revision 'baserev' to 'rev'. If the client is
+         * not at 'baserev' it should send RESYNC. If 'resync' is true the 
+         * overlay has all points and the client should clear its state first.
+         */
+        public long           rev, baserev;
+        public boolean        resync;
       
         public JsOverlay(String v) {
             view = v;
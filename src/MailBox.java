@@ -48,7 +48,7 @@ public abstract class MailBox {
     private static long nextMsgId()
         { return _lastMsgId = (_lastMsgId+1) % 2000000000; }
         
-    private static ScheduledExecutorService gc = Executors.newScheduledThreadPool(5);
+    private static ScheduledExecutorService gc = ExecService.scheduler();
   
   
   
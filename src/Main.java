@@ -338,6 +338,7 @@ public class Main extends ConfigBase implements AprsServerConfig {
         """);
 
         properties().put("API", this);
+        ExecService.init(this);
         msgProc = new MessageProcessor(this);
         parser = new AprsParser(conf, msgProc);
         bullboard = new BullBoard(conf, msgProc);
@@ -416,6 +417,8 @@ public class Main extends ConfigBase implements AprsServerConfig {
          for (ServerConfig.SimpleCb f: _shutdown)
             f.cb(); 
          msgProc.save();
+         if (db != null)
+            db.shutdown();
          if (offlineDetector != null)
             offlineDetector.stop();
     }
@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2017-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2017-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -20,8 +20,8 @@ import no.polaric.aprsd.point.*;
 import io.javalin.*;
 import io.javalin.websocket.*; 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.IOException;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.annotations.*;
@@ -32,6 +32,15 @@ import org.eclipse.jetty.websocket.api.UpgradeRequest;
 
 /**
  * Map overlay updater using Websockets.  
+ *
+ * Clients are marked as pending when a point in their area changes. A
+ * periodic task (every TICK ms) finds the pending clients that are due and
+ * generates and sends their overlays in parallel on a pool of threads. 
+ * A client is due when changes have been collected for a short while 
+ * (coalescing window) and its interval since the last update has passed. 
+ * The interval adapts to the client: it is longer for mobile clients and
+ * grows with the size of the overlays (bytes per second budget) and the
+ * time it takes to generate and send them. 
  */
 public abstract class MapUpdater extends WsNotifier
 {
@@ -40,8 +49,11 @@ public abstract class MapUpdater extends WsNotifier
    public abstract class Client extends WsNotifier.Client 
    {
        private boolean   _subscribe; 
-       private long      _lastSent = 0;
-       private boolean   _pending = false; 
+       private volatile long    _lastSent = 0;
+       private volatile long    _pendingSince = 0;
+       private volatile long    _interval = 0;
+       private volatile boolean _pending = false; 
+       private final AtomicBoolean _busy = new AtomicBoolean(false);
        private String    _baseLayer = "none";
        
        protected LatLng  _uleft;     /* Area of interest: upper left */
@@ -50,6 +62,9 @@ public abstract class MapUpdater extends WsNotifier
        protected String  _tag;
        protected boolean _keep = false;
        protected long    _scale = 0;
+       
+       /* Size (bytes) of the last overlay returned by getOverlayData */
+       protected volatile long _size = 0;
               
               
        public Client(WsContext ctx) 
@@ -58,23 +73,60 @@ public abstract class MapUpdater extends WsNotifier
        
        /**
         * Returns true if point is inside the client's area of interest 
-        * and client wants to be updated, but not more often than once per 5 seconds. 
+        * and client wants to be updated. The client is then marked as 
+        * pending, to be updated when due. 
         */
-       public boolean isInside(TrackerPoint st, boolean postpone ) {
-          _pending = _pending || (_subscribe && st != null && st.isInside(_uleft, _lright));
-          if (!postpone && _pending) {
-             _pending = false; 
-             return true; 
+       public boolean isInside(TrackerPoint st) {
+          if (_subscribe && st != null && st.isInside(_uleft, _lright)) {
+             setPending();
+             return true;
           }
           return false; 
        }
        
        
+       /** Mark client as pending. It is updated when due. */
+       protected void setPending() {
+          if (!_pending) {
+             _pendingSince = System.currentTimeMillis();
+             _pending = true; 
+             _dirty.add(this);
+          }
+       }
+       
+       
+       /** Current interval between updates (ms). */
+       public long interval() {
+          long min = isMobile() ? _minIntervalMobile : _minInterval;
+          return Math.max(min, _interval);
+       }
+       
+       
+       /* Time when the client should be updated. */
+       private long due() 
+          { return Math.max(_pendingSince + _coalesce, _lastSent + interval()); }
+          
+          
+       /* 
+        * Adapt the interval after an update of the given size (bytes) that took 
+        * the given time (ms) to generate and send. 
+        */
+       private void updated(long bytes, long time) {
+          long bw = isMobile() ? _bwMobile : _bw;
+          _lastSent = System.currentTimeMillis();
+          _interval = Math.min(MAX_INTERVAL, Math.max(bytes * 1000 / bw, time * 4));
+       }
+       
+       
        /** Returns the overlay. */
        public abstract String getOverlayData(boolean metaonly);
 
        
        public void subscribe() {}
+       
+       
+       /** Client asks for all points. The next overlay is a full one. */
+       public void resync() {}
       
        
        
@@ -110,6 +162,7 @@ public abstract class MapUpdater extends WsNotifier
                         _tag = parms[8].trim();
                  }
                  _subscribe = true;
+                 _viewports.put(this, _uleft, _lright);
                  subscribe(); 
                  
                  send(getOverlayData(false) ); 
@@ -118,6 +171,15 @@ public abstract class MapUpdater extends WsNotifier
               else
                  _conf.log().warn("MapUpdater", "SUBSCRIBE command with too few parameters. uid="+sesId(_ctx)); 
            }
+           else if (parms[0].equals("RESYNC")) {
+              /* RESYNC
+               * Client has lost track of revisions. Send a full overlay. 
+               */
+              if (_subscribe) {
+                 resync(); 
+                 send(getOverlayData(false) );
+              }
+           }
            else if (parms[0].equals("BASELAYER")) {
                   _baseLayer = parms[1];
            }
@@ -129,23 +191,97 @@ public abstract class MapUpdater extends WsNotifier
    
    
    
+   public static final long TICK = 250;
+   public static final long MAX_INTERVAL = 60000;
+   
    private MapUpdater _link;  
-   private Timer hb = new Timer();
-   protected long    _updates = 0;
+   protected final AtomicLong _updates = new AtomicLong(0);
+   
+   /* Scheduling of updates */
+   private final Set<Client> _dirty = ConcurrentHashMap.newKeySet();
+   private ThreadPoolExecutor _exec;
+   private long _minInterval, _minIntervalMobile, _coalesce, _bw, _bwMobile;
+   private long _cleaned = 0;
+   
+   /* Areas of interest of subscribed clients */
+   private final ViewportIndex<Client> _viewports = new ViewportIndex<Client>();
    
           
           
    public MapUpdater(ServerConfig conf) { 
         super(conf); 
+        _minInterval       = conf.getIntProperty("mapupdater.interval", 2000);
+        _minIntervalMobile = conf.getIntProperty("mapupdater.interval.mobile", 10000);
+        _coalesce          = conf.getIntProperty("mapupdater.coalesce", 500);
+        _bw                = Math.max(1, conf.getIntProperty("mapupdater.bandwidth", 100000));
+        _bwMobile          = Math.max(1, conf.getIntProperty("mapupdater.bandwidth.mobile", 10000));
+        int threads        = Math.max(1, conf.getIntProperty("mapupdater.threads", 4));
+        
+        _exec = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+            new LinkedBlockingQueue<Runnable>(), ExecService.factory("MapUpdater", true));
+        _exec.allowCoreThreadTimeOut(true);
       
         /* Periodic task to send updates to clients */
-        hb.schedule( new TimerTask() 
-            { public void run() {       
-                postText( x -> ((Client)x).getOverlayData(false), 
-                          x -> ((Client)x).isInside(null, false) ); 
-            } 
-        } , 10000, 5000); 
+        ExecService.scheduler().scheduleWithFixedDelay(
+            () -> {
+                try { _tick(); }
+                catch (Exception e) {
+                    _conf.log().warn("MapUpdater", "Exception in scheduler: "+e);
+                }
+            }, 10000, TICK, TimeUnit.MILLISECONDS);
    }  
+   
+   
+   
+   /* 
+    * Start updates of pending clients that are due. At most one update 
+    * per client is running at a time. 
+    */
+   private void _tick() {
+        long now = System.currentTimeMillis();
+        for (Client c : _dirty) {
+            if (now < c.due() || !c._busy.compareAndSet(false, true))
+                continue;
+            /* Changes after this point are included in the update or make it pending again */
+            _dirty.remove(c);
+            c._pending = false; 
+            try {
+                _exec.execute( () -> _update(c) );
+            }
+            catch (RejectedExecutionException e) {
+                c._busy.set(false);
+            }
+        }
+        
+        /* Remove clients that are gone from the index */
+        if (now - _cleaned > 5000) {
+            _cleaned = now; 
+            Set<Client> live = new HashSet<Client>();
+            for (WsNotifier.Client x : clients())
+                live.add((Client) x);
+            _viewports.retain(live);
+            _dirty.retainAll(live);
+        }
+   }
+   
+   
+   
+   /* Generate and send overlay to a client */
+   private void _update(Client c) {
+        try {
+            long t = System.currentTimeMillis();
+            String text = c.getOverlayData(false);
+            if (text != null)
+                c.send(text);
+            c.updated(text == null ? 0 : c._size, System.currentTimeMillis() - t);
+        }
+        catch (Exception e) {
+            _conf.log().warn("MapUpdater", "Cannot update client: "+e);
+        }
+        finally {
+            c._busy.set(false);
+        }
+   }
     
           
 
@@ -172,11 +308,14 @@ public abstract class MapUpdater extends WsNotifier
    /** Signal of change from a tracker point. */
    public void signal(TrackerPoint st) {
       /* 
-       * postText will not generate and send text here. 
-       * This is postponed to a periodic task to avoid 
-       * deadlock problems and to avoid sending too often. 
+       * Mark clients with the point in their area as pending. Only 
+       * clients found in the index (near the point) are tested.
+       * Text is not generated and sent here. This is postponed to a 
+       * periodic task to avoid deadlock problems and to avoid sending 
+       * too often. 
        */
-      postText( "", x -> ((Client)x).isInside(st, true) );
+      if (st != null)
+         _viewports.lookup(st.getPosition(), c -> c.isInside(st));
       if (_link != null) 
          _link.signal(st);
    }
@@ -189,6 +328,12 @@ public abstract class MapUpdater extends WsNotifier
    
    
    public long nUpdates() {
-     return _updates; 
+     return _updates.get(); 
+   }
+   
+   
+   /** Number of clients in the index of areas of interest. */
+   public int nSubscribers() {
+     return _viewports.size();
    }
 }
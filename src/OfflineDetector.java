@@ -83,11 +83,7 @@ public class OfflineDetector {
             .connectTimeout(Duration.ofMillis(_timeout))
             .build();
         
-        _scheduler = Executors.newScheduledThreadPool(1, r -> {
-            Thread t = new Thread(r, "OfflineDetector");
-            t.setDaemon(true);
-            return t;
-        });
+        _scheduler = ExecService.scheduler();
     }
     
     /**
@@ -115,18 +111,10 @@ public class OfflineDetector {
      * Stop the periodic checking.
      */
     public void stop() {
+        /* The scheduler is shared. Just cancel the task */
         if (_checkTask != null) {
             _checkTask.cancel(false);
         }
-        _scheduler.shutdown();
-        try {
-            if (!_scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                _scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            _scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
     }
     
     /**
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+
+
+/**
+ * Cache of map overlay points shared by clients with the same view.
+ *
+ * Clients that look at about the same area, with the same filter, scale,
+ * tag and authorization get the same points. The area of a client is
+ * quantized (expanded to a grid with a cell size of about 1/8 of the
+ * viewport) so that clients with slightly different viewports share an
+ * entry. The points are computed once for the quantized area and each
+ * client picks the ones inside its own viewport.
+ *
+ * An entry is invalidated when a point inside its area (or a point it has)
+ * changes, and it is never used for longer than MAX_AGE, since some
+ * changes (e.g. expiry) are not signalled. Entries are indexed on their
+ * area (see ViewportIndex), so that a change is only checked against the
+ * entries near the point.
+ */
+public class OverlayCache
+{
+    /** 
+     * A point in an entry. 'members' are the members of the JSON point except 
+     * the trail. The trail positions (null if no trail) and the lines from the 
+     * point (or null) are selected for the entry's area, and each client takes 
+     * the ones for its own viewport. 'hash' is computed from the version and 
+     * the JSON of the point. It is used to decide if clients need it again. 
+     */
+    public record Item(TrackerPoint src, String ident, long version, byte[] members, 
+                       String[] trailStyle, List<TrailPoint> trail, List<Line> lines, long hash) 
+    {
+        public Item(TrackerPoint src, String ident, long version, byte[] members, 
+                    String[] trailStyle, List<TrailPoint> trail, List<Line> lines) {
+            this(src, ident, version, members, trailStyle, trail, lines, 
+                 _hash(version, members, trailStyle, trail, lines));
+        }
+        
+        /** 
+         * Number of trail positions inside an area: up to the first one that 
+         * is outside (same as subTrail). All if uleft is null. 
+         */
+        public int trailLength(LatLng uleft, LatLng lright) {
+            if (trail == null)
+                return 0;
+            if (uleft == null)
+                return trail.size();
+            int n = 0;
+            for (TrailPoint tp : trail) {
+                if (!tp.src().isInside(uleft, lright, 0.7, 0.7))
+                    break;
+                n++;
+            }
+            return n;
+        }
+    }
+    
+    /** Trail position, written as JSON. */
+    public record TrailPoint(TPoint src, byte[] json) {}
+    
+    /** Line, written as JSON. 'from' is the point at the other end. */
+    public record Line(TrackerPoint from, byte[] json) {}
+
+    public record Stats(int entries, long hits, long misses, long invalidated) {}
+
+
+    /** Points computed for a key and a (quantized) area. */
+    public static class Entry
+    {
+        public final LatLng uleft, lright;
+        public final List<Item> items = new ArrayList<Item>();
+        public boolean overload = false;
+
+        private final long _time = System.currentTimeMillis();
+        private final Set<String> _idents = new HashSet<String>();
+        private volatile boolean _valid = true;
+
+        Entry(LatLng ul, LatLng lr)
+            { uleft = ul; lright = lr; }
+
+        public void add(Item it) {
+            items.add(it);
+            _idents.add(it.ident());
+        }
+
+        boolean fresh(long now)
+            { return _valid && now - _time < MAX_AGE; }
+    }
+
+
+    /* The area of a slot is given by its key, so it is indexed once */
+    private static class Slot {
+        volatile Entry entry;
+        final AtomicBoolean busy = new AtomicBoolean(false);
+        final long created = System.currentTimeMillis();
+    }
+
+
+    public static final long MAX_AGE = 4000;
+    private static final long CLEANUP = 60000;
+
+    private final Map<String, Slot> _slots = new ConcurrentHashMap<String, Slot>();
+    private final ViewportIndex<Slot> _index = new ViewportIndex<Slot>();
+    private final AtomicLong _hits = new AtomicLong(0);
+    private final AtomicLong _misses = new AtomicLong(0);
+    private final AtomicLong _invalidated = new AtomicLong(0);
+    private volatile long _cleaned = System.currentTimeMillis();
+
+
+
+    /**
+     * Quantize an area. Returns {uleft, lright} expanded to the grid.
+     * Areas that cross the 180th meridian are not quantized.
+     */
+    public static LatLng[] quantize(LatLng uleft, LatLng lright)
+    {
+        if (lright.getLng() < uleft.getLng())
+            return new LatLng[] { uleft, lright };
+        double span = Math.max(lright.getLng() - uleft.getLng(), uleft.getLat() - lright.getLat());
+        double step = Math.pow(2, Math.floor(Math.log(Math.max(span / 8, 1.0/4096)) / Math.log(2)));
+        double x1 = Math.max(-180, Math.floor(uleft.getLng() / step) * step);
+        double x2 = Math.min(180,  Math.ceil(lright.getLng() / step) * step);
+        double y1 = Math.min(90,   Math.ceil(uleft.getLat() / step) * step);
+        double y2 = Math.max(-90,  Math.floor(lright.getLat() / step) * step);
+        return new LatLng[] { new LatLng(y1, x1), new LatLng(y2, x2) };
+    }
+
+
+
+    /**
+     * Get the entry for a key. If there is no fresh entry, it is computed.
+     * If another thread is computing it, we don't wait (computing may signal
+     * changes, and waiting could deadlock), but compute a private entry.
+     *
+     * @param key Identifies the view (including the quantized area).
+     * @param area Quantized area (see quantize).
+     * @param compute Function that adds points to a new entry.
+     */
+    public Entry get(String key, LatLng[] area, Consumer<Entry> compute)
+    {
+        long now = System.currentTimeMillis();
+        if (now - _cleaned > CLEANUP)
+            _cleanup(now);
+
+        Slot s = _slots.computeIfAbsent(key, k -> new Slot());
+        Entry e = s.entry;
+        if (e != null && e.fresh(now)) {
+            _hits.incrementAndGet();
+            return e;
+        }
+        if (!s.busy.compareAndSet(false, true)) {
+            _misses.incrementAndGet();
+            e = new Entry(area[0], area[1]);
+            compute.accept(e);
+            return e;
+        }
+        try {
+            /* Another thread may have computed it in the meantime */
+            e = s.entry;
+            if (e != null && e.fresh(now)) {
+                _hits.incrementAndGet();
+                return e;
+            }
+            _misses.incrementAndGet();
+            e = new Entry(area[0], area[1]);
+            compute.accept(e);
+            if (s.entry == null)
+                _index.put(s, e.uleft, e.lright);
+            s.entry = e;
+            return e;
+        }
+        finally {
+            s.busy.set(false);
+        }
+    }
+
+
+
+    /**
+     * Invalidate entries affected by a change of a point. Only the entries
+     * near the point are checked (see ViewportIndex). A point that an entry
+     * has, but that has moved far away, may not invalidate it. The entry
+     * is then used until it is MAX_AGE old.
+     */
+    public void invalidate(TrackerPoint st)
+    {
+        if (st == null)
+            return;
+        if (st.getPosition() == null)
+            _slots.values().forEach(s -> _invalidate(s, st));
+        else
+            _index.lookup(st.getPosition(), s -> _invalidate(s, st));
+    }
+
+
+
+    private void _invalidate(Slot s, TrackerPoint st)
+    {
+        Entry e = s.entry;
+        if (e != null && e._valid && (st.isInside(e.uleft, e.lright) || e._idents.contains(st.getIdent()))) {
+            e._valid = false;
+            _invalidated.incrementAndGet();
+        }
+    }
+
+
+
+    /* 64 bit FNV-1a hash of bytes */
+    private static long _hash(long h, byte[] b)
+    {
+        for (byte x : b)
+            h = (h ^ (x & 0xff)) * 0x100000001b3L;
+        return h;
+    }
+
+
+    private static long _hash(long version, byte[] members, String[] style, List<TrailPoint> trail, List<Line> lines)
+    {
+        long h = _hash(0xcbf29ce484222325L ^ version, members);
+        h = h * 31 + Arrays.hashCode(style);
+        if (trail != null)
+            for (TrailPoint tp : trail)
+                h = _hash(h * 31 + 1, tp.json());
+        if (lines != null)
+            for (Line l : lines)
+                h = _hash(h * 31 + 2, l.json());
+        return h;
+    }
+
+
+
+    public Stats getStats()
+        { return new Stats(_slots.size(), _hits.get(), _misses.get(), _invalidated.get()); }
+
+
+
+    /* Remove entries that are not used anymore, and slots that never got one */
+    private void _cleanup(long now)
+    {
+        _cleaned = now;
+        _slots.values().removeIf(s -> {
+            Entry e = s.entry;
+            return now - (e == null ? s.created : e._time) > CLEANUP;
+        });
+        _index.retain(new HashSet<Slot>(_slots.values()));
+    }
+}
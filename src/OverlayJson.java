@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.util.*;
+import java.util.*;
+
+
+
+/**
+ * Writes the JSON format of map overlays (see JsonPoints) with a JsonWriter,
+ * without creating JsOverlay and JsPoint objects. Fields are written in the
+ * order they are declared in JsonPoints, so the output is the same as when
+ * the objects are serialized. This is checked by OverlayJsonTest.
+ */
+final class OverlayJson
+{
+    private OverlayJson() {}
+
+
+
+    /**
+     * Start of overlay (JsOverlay), up to and including 'offline'.
+     * @param auth Authorization, already serialized (or null).
+     */
+    static JsonWriter beginOverlay(JsonWriter w, String view, String auth, int nclients,
+                boolean overload, boolean offline)
+    {
+        return w.beginObject()
+            .name("view").value(view)
+            .name("authorization").rawValue(auth)
+            .name("nclients").value(nclients)
+            .name("overload").value(overload)
+            .name("offline").value(offline);
+    }
+
+
+
+    /**
+     * The lists of an overlay without points: empty if 'empty' is true
+     * (overload), otherwise null (metadata only).
+     */
+    static JsonWriter noPoints(JsonWriter w, boolean empty)
+    {
+        for (String f : new String[] {"points", "delete", "lines"}) {
+            w.name(f);
+            if (empty)
+                w.beginArray().endArray();
+            else
+                w.nullValue();
+        }
+        return w;
+    }
+
+
+
+    /** End of overlay, from 'pcloud'. */
+    static JsonWriter endOverlay(JsonWriter w, long rev, long baserev, boolean resync)
+    {
+        return w.name("pcloud").nullValue()
+            .name("rev").value(rev)
+            .name("baserev").value(baserev)
+            .name("resync").value(resync)
+            .endObject();
+    }
+
+
+
+    /**
+     * Members of a point (JsPoint) up to and including 'href'. To be followed
+     * by label and trail (see below).
+     */
+    static JsonWriter pointMembers(JsonWriter w, String ident, String type, double lng, double lat,
+                String title, boolean redraw, boolean own, boolean aprs, boolean telemetry, boolean sarAuth,
+                String icon, String href)
+    {
+        return w.name("ident").value(ident)
+            .name("type").value(type)
+            .name("pos").beginArray().value(lng).value(lat).endArray()
+            .name("title").value(title)
+            .name("redraw").value(redraw)
+            .name("own").value(own)
+            .name("aprs").value(aprs)
+            .name("telemetry").value(telemetry)
+            .name("sarAuth").value(sarAuth)
+            .name("icon").value(icon)
+            .name("href").value(href);
+    }
+
+
+
+    /** Label member of a point (JsLabel). */
+    static JsonWriter label(JsonWriter w, String id, String style, boolean hidden)
+    {
+        return w.name("label").beginObject()
+            .name("id").value(id)
+            .name("style").value(style)
+            .name("hidden").value(hidden)
+            .endObject();
+    }
+
+
+
+    /**
+     * Start of trail member of a point (JsTrail). Positions are then written
+     * with tpoint and the trail is ended with endTrail.
+     */
+    static JsonWriter beginTrail(JsonWriter w, String[] style)
+    {
+        return w.name("trail").beginObject()
+            .name("style").value(style)
+            .name("linestring").beginArray();
+    }
+
+
+    /** Trail member of a point without trail. */
+    static JsonWriter noTrail(JsonWriter w)
+        { return w.name("trail").nullValue(); }
+
+
+    static JsonWriter endTrail(JsonWriter w)
+        { return w.endArray().endObject(); }
+
+
+
+    /**
+     * Point of an overlay cache entry (see OverlayCache.Item), with the first
+     * ntrail trail positions. The trail is clipped to a client's viewport
+     * with Item.trailLength. If there are no positions, it is null (as when
+     * JsPoint has no trail).
+     */
+    static JsonWriter item(JsonWriter w, OverlayCache.Item it, int ntrail)
+    {
+        w.beginObject().rawMembers(it.members());
+        if (ntrail == 0)
+            noTrail(w);
+        else {
+            beginTrail(w, it.trailStyle());
+            for (int i=0; i<ntrail; i++)
+                w.rawValue(it.trail().get(i).json());
+            endTrail(w);
+        }
+        return w.endObject();
+    }
+
+
+
+    /** Trail position (JsTPoint). */
+    static JsonWriter tpoint(JsonWriter w, double lng, double lat, Date time, String path)
+    {
+        w.beginObject()
+         .name("pos").beginArray().value(lng).value(lat).endArray()
+         .name("time");
+        if (time == null)
+            w.nullValue();
+        else
+            w.value(time.getTime());
+        return w.name("path").value(path).endObject();
+    }
+
+
+
+    /** Sign. A point (JsPoint) without label and trail. */
+    static JsonWriter sign(JsonWriter w, String ident, String type, double lng, double lat,
+                String title, boolean own, String icon, String href)
+    {
+        w.beginObject();
+        pointMembers(w, ident, type, lng, lat, title, false, own, false, false, false, icon, href);
+        w.name("label").nullValue();
+        return noTrail(w).endObject();
+    }
+
+
+
+    /** Line between points (JsLine). */
+    static JsonWriter line(JsonWriter w, String ident, double flng, double flat,
+                double tlng, double tlat, String type)
+    {
+        return w.beginObject()
+            .name("ident").value(ident)
+            .name("from").beginArray().value(flng).value(flat).endArray()
+            .name("to").beginArray().value(tlng).value(tlat).endArray()
+            .name("type").value(type)
+            .endObject();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import com.github.davidmoten.rtree2.*;
+import com.github.davidmoten.rtree2.geometry.Point;
+import com.github.davidmoten.rtree2.geometry.Geometries;
+
+
+/**
+ * Spatial index based on an immutable R-tree (rtree2). Updates are
+ * serialized on the index; searches run on a snapshot without locking.
+ */
+public class RTreeGeoIndex implements GeoIndex
+{
+    private volatile RTree<TrackerPoint, Point> _tree = RTree.star().maxChildren(6).create();
+
+
+    private static Point point(LatLng pos)
+        { return Geometries.pointGeographic(pos.getLng(), pos.getLat()); }
+
+
+
+    public synchronized void add(TrackerPoint s)
+    {
+        LatLng pos = s.getPosition();
+        if (pos == null)
+            return;
+        var pt = point(pos);
+        _tree = _tree.delete(s, pt, true).add(s, pt);
+    }
+
+
+
+    /**
+     * Add a collection of points. If the index is empty, the tree is bulk loaded
+     * (STR packing), which gives a better tree than adding one by one.
+     */
+    public synchronized void load(Collection<TrackerPoint> pts)
+    {
+        List<Entry<TrackerPoint, Point>> entries = new ArrayList<Entry<TrackerPoint, Point>>(pts.size());
+        for (TrackerPoint s : pts) {
+            LatLng pos = s.getPosition();
+            if (pos != null)
+                entries.add(Entries.entry(s, point(pos)));
+        }
+        if (_tree.isEmpty())
+            _tree = RTree.star().maxChildren(6).create(entries);
+        else
+            _tree = _tree.add(entries);
+    }
+
+
+
+    public synchronized void move(TrackerPoint s, LatLng prevpos)
+    {
+        remove(s, prevpos);
+        add(s);
+    }
+
+
+
+    public synchronized void remove(TrackerPoint s, LatLng pos)
+    {
+        if (s != null && pos != null)
+            _tree = _tree.delete(s, point(pos), true);
+    }
+
+
+
+    public List<TrackerPoint> search(LatLng ul, LatLng lr)
+    {
+        List<TrackerPoint> res = new ArrayList<TrackerPoint>(2000);
+        Iterable<Entry<TrackerPoint, Point>> entries =
+            _tree.search(Geometries.rectangleGeographic(ul.getLng(), lr.getLat(), lr.getLng(), ul.getLat()));
+
+        for (Entry<TrackerPoint, Point> pt : entries)
+            res.add(pt.value());
+        return res;
+    }
+
+
+
+    public synchronized void clear()
+        { _tree = RTree.star().maxChildren(6).create(); }
+
+
+    public int size()
+        { return _tree.size(); }
+}
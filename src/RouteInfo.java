@@ -14,7 +14,7 @@
  
 package no.polaric.aprsd;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
   
   
     /** 
@@ -58,6 +58,54 @@ public class RouteInfo implements Serializable
        { return nEdges; }
 
     
+    /**
+     * Write graph to binary snapshot. 
+     */
+    public synchronized void writeSnapshot(DataOutput out) throws IOException
+    {
+        out.writeInt(_nodes.size());
+        for (String id : _nodes.keySet())
+            out.writeUTF(id);
+        
+        int n = 0; 
+        for (Node x : _nodes.values())
+            n += x.from.size();
+        out.writeInt(n);
+        for (Map.Entry<String, Node> x : _nodes.entrySet())
+            for (Map.Entry<String, Edge> e : x.getValue().from.entrySet()) {
+                out.writeUTF(x.getKey());
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().ts == null ? 0 : e.getValue().ts.getTime());
+                out.writeBoolean(e.getValue().primary);
+            }
+    }
+    
+    
+    /**
+     * Read graph from binary snapshot. 
+     */
+    public synchronized void readSnapshot(DataInput in) throws IOException
+    {
+        clear();
+        int n = in.readInt();
+        for (int i=0; i<n; i++)
+            _nodes.put(in.readUTF(), new Node());
+        
+        n = in.readInt();
+        for (int i=0; i<n; i++) {
+            String from = in.readUTF(); 
+            String to = in.readUTF();
+            Edge e = new Edge();
+            e.ts = new Date(in.readLong());
+            e.primary = in.readBoolean();
+            _nodes.computeIfAbsent(from, k -> new Node()).addFrom(to, e);
+            _nodes.computeIfAbsent(to, k -> new Node()).addTo(from, e);
+            nEdges++;
+        }
+    }
+    
+    
+    
     public synchronized void clear()
         { _nodes.clear(); nEdges = 0; } 
         
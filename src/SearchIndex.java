@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+
+/**
+ * Inverted index of search tokens for free-text search of tracker points.
+ * Tokens are the ident, the display id and the words of the description, in
+ * upper case. Tokens are kept in a sorted map, so that a prefix can be looked
+ * up with a range scan. The index is updated incrementally when points are
+ * added or removed, or when alias or description changes.
+ *
+ * The index gives candidates. Results are checked against the search
+ * expression, so they are the same as from scanning all points.
+ */
+public class SearchIndex implements StationDB.Indexer
+{
+    private ConcurrentSkipListMap<String, Set<TrackerPoint>> _tokens = new ConcurrentSkipListMap<String, Set<TrackerPoint>>();
+    private ConcurrentHashMap<TrackerPoint, String[]> _tokensOf = new ConcurrentHashMap<TrackerPoint, String[]>();
+
+    /* Characters that make a wildcard expression a regex. */
+    private static final String REGEX_CHARS = "\\[](){}?+^$|";
+    
+    private static final Pattern SPACE = Pattern.compile("\\s");
+
+
+    /**
+     * Compiled search expression.
+     */
+    public static class Query {
+        private Pattern _ident, _descr;
+        private String  _prefix;   // Literal prefix. null if index cannot be used.
+
+        /**
+         * Compile search expression. If it is prefixed with "REG:", it is regarded
+         * as a regular expression, otherwise it is a simple wildcard expression.
+         */
+        public Query(String srch)
+        {
+            srch = srch.toUpperCase();
+            if (srch.startsWith("REG:"))
+               srch = srch.substring(4);
+            else {
+               int i = srch.indexOf('*');
+               String pfx = (i < 0 ? srch : srch.substring(0, i));
+               
+               /* Tokens are single words. If the expression has more, the first word is the prefix */
+               Matcher m = SPACE.matcher(pfx);
+               if (m.find())
+                   pfx = pfx.substring(0, m.start());
+               if (!pfx.isEmpty() && !_hasRegexChars(pfx))
+                   _prefix = pfx;
+               srch = srch.replaceAll("\\.", Matcher.quoteReplacement("\\."));
+               srch = srch.replaceAll("\\*", Matcher.quoteReplacement("(\\S*)"));
+            }
+            _ident = Pattern.compile(srch);
+            _descr = Pattern.compile("(.*\\s+)?\\(?("+srch+")\\)?\\,?(\\s+.*)?");
+        }
+
+
+        private static boolean _hasRegexChars(String s) {
+            for (int i=0; i<s.length(); i++)
+                if (REGEX_CHARS.indexOf(s.charAt(i)) >= 0)
+                    return true;
+            return false;
+        }
+
+
+        /** Return true if point matches the expression. */
+        public boolean matches(TrackerPoint s) {
+            return _ident.matcher(s.getIdent().toUpperCase()).matches() ||
+                   _ident.matcher(s.getDisplayId().toUpperCase()).matches() ||
+                   _descr.matcher(s.getDescr().toUpperCase()).matches();
+        }
+    }
+
+
+
+    /**
+     * Get search tokens of a point.
+     */
+    public static String[] tokens(TrackerPoint s)
+    {
+        Set<String> res = new HashSet<String>();
+        res.add(s.getIdent().toUpperCase());
+        res.add(s.getDisplayId().toUpperCase());
+        for (String w : s.getDescr().toUpperCase().split("\\s+")) {
+            /* A word may be in parentheses. Trailing characters are kept, a prefix lookup finds it */
+            if (w.startsWith("("))
+                w = w.substring(1);
+            if (!w.isEmpty())
+                res.add(w);
+        }
+        String[] tok = res.toArray(new String[res.size()]);
+        Arrays.sort(tok);
+        return tok;
+    }
+
+
+
+    /**
+     * Add point to the index or update its entries.
+     */
+    public void add(TrackerPoint s)
+    {
+        String[] tok = tokens(s);
+        _tokensOf.compute(s, (k, old) -> {
+            if (old != null && Arrays.equals(old, tok))
+                return old;
+            if (old != null)
+                _removeTokens(k, old);
+            for (String t : tok)
+                _tokens.compute(t, (x, set) -> {
+                    if (set == null)
+                        set = ConcurrentHashMap.newKeySet();
+                    set.add(k);
+                    return set;
+                });
+            return tok;
+        });
+    }
+
+
+
+    /**
+     * Update index entries of a point if it is in the index.
+     */
+    public void reindex(TrackerPoint s)
+    {
+        if (_tokensOf.containsKey(s))
+            add(s);
+    }
+
+
+
+    public void remove(TrackerPoint s)
+    {
+        _tokensOf.computeIfPresent(s, (k, old) -> {
+            _removeTokens(k, old);
+            return null;
+        });
+    }
+
+
+
+    private void _removeTokens(TrackerPoint s, String[] tok)
+    {
+        for (String t : tok)
+            _tokens.computeIfPresent(t, (x, set) -> {
+                set.remove(s);
+                return set.isEmpty() ? null : set;
+            });
+    }
+
+
+
+    public void clear()
+    {
+        _tokensOf.clear();
+        _tokens.clear();
+    }
+
+
+
+    /**
+     * Return the points that may match the query, or null if the query
+     * cannot use the index (no literal prefix).
+     */
+    public Collection<TrackerPoint> candidates(Query q)
+    {
+        if (q._prefix == null)
+            return null;
+        Set<TrackerPoint> res = new HashSet<TrackerPoint>();
+        for (Set<TrackerPoint> set : _tokens.subMap(q._prefix, q._prefix + Character.MAX_VALUE).values())
+            res.addAll(set);
+        return res;
+    }
+}
@@ -17,15 +17,12 @@ import no.polaric.aprsd.point.*;
 import no.polaric.aprsd.aprs.*;
 import java.util.*;
 import java.io.*;
+import java.nio.file.*;
 import java.util.concurrent.*;
 import java.util.regex.*;
+import java.util.function.*;
 import java.util.stream.*;
 import no.polaric.aprsd.filter.*;
-import com.github.davidmoten.rtree2.*;
-import static com.github.davidmoten.rtree2.geometry.Geometries.point;
-import com.github.davidmoten.rtree2.geometry.Point;
-import com.github.davidmoten.rtree2.geometry.Geometries;
-import static com.github.davidmoten.rtree2.Entries.entry;
 
 
 /**
@@ -36,27 +33,66 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
 {
     private SortedMap<String, TrackerPoint> _map = new ConcurrentSkipListMap<String,TrackerPoint>();
     private String     _file;
-    private String     _stnsave;
+    private Pattern    _stnsave;
+    private Object     _saveLock = new Object();
     private boolean    _kill = false; 
-    private volatile RTree<TrackerPoint, Point> _geoindex = RTree.star().maxChildren(6).create();
+    private GeoIndex   _geoindex;
+    private SearchIndex _srchindex = new SearchIndex();
+    
+    /* Items sorted on normalized ident, see _key() */
+    private ConcurrentSkipListMap<String, TrackerPoint> _sorted = new ConcurrentSkipListMap<String, TrackerPoint>();
+    private ExpiryWheel _expiry = new ExpiryWheel(1000 * 60, 256);   // 1 minute ticks
+    private StationJournal _journal = null;
+    private Thread     _trailLoader = null;
+    private boolean    _hasTrails = false;
+    
+    private static final int RESTORE_BATCH = 512;
+    
+    /* 
+     * Locks for updates of the map and the indexes, striped by ident, so that 
+     * the updates for one ident are atomic. Clearing or loading all takes all locks. 
+     */
+    private final Object[] _locks = new Object[64];
     
     
     public StationDBImp(AprsServerConfig api)
     {
         super(api);
+        for (int i=0; i<_locks.length; i++)
+            _locks[i] = new Object();
         _file = api.getProperty("stations.file", "stations.dat");
-        _stnsave = api.getProperty("stations.save", ".*");
+        String stnsave = api.getProperty("stations.save", ".*");
+        _stnsave = Pattern.compile("("+stnsave+")|.*\\@("+stnsave+")");
+        _geoindex = GeoIndex.create(api, api.getProperty("stations.index", "rtree"));
         if (_file.charAt(0) != '/')
            _file = System.getProperties().getProperty("datadir", ".")+"/"+_file;   
-        restore();
-        Thread t = new Thread(this, "StationDBImp");
-        t.start(); 
+        
+        StationJournal journal = null;
+        if (api.getBoolProperty("stations.journal.on", true))
+            journal = new StationJournal(api, _file+".journal");
+        restore(journal);
+        TrackerPoint.setIndexer(_srchindex);
+        if (journal != null) 
+            try {
+                journal.open();
+                _journal = journal; 
+                PointObject.setJournal(journal);
+            }
+            catch (IOException e) 
+                { api.log().warn("StationDBImp", "Cannot open journal: "+e); }
+                
+        ExecService.start("StationDBImp", this); 
     }
     
         
     
     public void kill() {
         _kill = true; 
+        TrackerPoint.setIndexer(null);
+        if (_journal != null) {
+            PointObject.setJournal(null);
+            _journal.close();
+        }
     }
     
     
@@ -77,20 +113,35 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
     }
         
      
-    @Override protected synchronized void _addRtItem(TrackerPoint s) {
+    private Object _lock(String id)
+        { return _locks[(id.hashCode() & 0x7fffffff) % _locks.length]; }
+    
+    
+    /* Run with all locks held */
+    private void _lockAll(int i, Runnable r) {
+        if (i == _locks.length)
+            r.run();
+        else synchronized (_locks[i]) 
+            { _lockAll(i+1, r); }
+    }
+    
+    
+     
+    @Override protected void _addRtItem(TrackerPoint s) {
         if (s == null || s.getIdent() == null)
             return;
         
-        _map.remove(s.getIdent());
-        _map.put(s.getIdent(), s);
-
-        if (s.getPosition() == null)
-            return;
-
-        LatLng pos = s.getPosition();
-        var point = Geometries.pointGeographic(pos.getLng(), pos.getLat());
-        _geoindex = _geoindex.delete(s, point, true)
-                             .add(s, point);
+        synchronized (_lock(s.getIdent())) {
+            TrackerPoint old = _map.put(s.getIdent(), s);
+            if (old != null && old != s) {
+                _geoindex.remove(old, old.getPosition());
+                _srchindex.remove(old);
+            }
+            _geoindex.add(s);
+            _srchindex.add(s);
+            _sorted.put(_key(s.getIdent()), s);
+        }
+        _scheduleExpiry(s);
     }
     
     
@@ -98,36 +149,83 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
      * Update an existing tracker point. 
      * @param s existing station
      */
-    public synchronized void updateItem(TrackerPoint s, LatLng prevpos) {
-        /* Remove existing point in r-tree index */
-        _removeGItem(s, prevpos);
+    public void updateItem(TrackerPoint s, LatLng prevpos) {
+        if (s == null || s.getIdent() == null)
+            return;
+        synchronized (_lock(s.getIdent())) {
+            TrackerPoint old = _map.put(s.getIdent(), s);
+            if (old != s) {
+                /* Replaced, or removed (expired) since it was looked up */
+                if (old != null) {
+                    _geoindex.remove(old, old.getPosition());
+                    _srchindex.remove(old);
+                }
+                _srchindex.add(s);
+                _sorted.put(_key(s.getIdent()), s);
+            }
         
-        /* Add it with new position */
-        _addRtItem(s);
-    }
-
-    
-    private void _removeGItem(TrackerPoint s, LatLng pos) {
-        if (s != null && pos != null) {
-            var point = Geometries.pointGeographic(pos.getLng(), pos.getLat());
-            _geoindex = _geoindex.delete(s, point, true);
+            /* Move it to the new position in the geo index */
+            _geoindex.move(s, prevpos);
         }
+        _scheduleExpiry(s);
+        
+        if (_journal != null && s instanceof AprsPoint p)
+            _journal.position(p, (p instanceof Station st ? st.getPathInfo() : null));
     }
     
     
+    /* 
+     * Schedule expiry check of item. If it is already scheduled,
+     * it is rescheduled when it is due, if it has not expired by then.
+     */
+    private void _scheduleExpiry(TrackerPoint s) 
+        { _scheduleExpiry(s, false); }
+        
+        
+    /*
+     * If recheck is true, the item was due but did not expire (it may be timeless
+     * or be an own object). Then wait at least a full expire time before next check. 
+     */
+    private void _scheduleExpiry(TrackerPoint s, boolean recheck) {
+        Date upd = s.getUpdated();
+        long now = System.currentTimeMillis();
+        long t = (upd == null ? now : upd.getTime()) + TrackerPoint.getExpiretime(); 
+        if (recheck && t <= now)
+            t = now + TrackerPoint.getExpiretime();
+        _expiry.schedule(s.getIdent(), t);
+    }
+
+    
     
-    @Override protected synchronized void _removeRtItem(String id) {
-        TrackerPoint pt = _getRtItem(id);
-        if (pt.getPosition() != null)
-            _removeGItem(pt, pt.getPosition());
-        _map.remove(id);
+    @Override protected void _removeRtItem(String id) {
+        synchronized (_lock(id)) {
+            TrackerPoint pt = _map.remove(id);
+            if (pt != null) {
+                _geoindex.remove(pt, pt.getPosition());
+                _srchindex.remove(pt);
+                _sorted.remove(_key(id), pt);
+                if (_journal != null)
+                    _journal.remove(pt);
+            }
+        }
     }    
         
         
     
-    public synchronized void clearItems() {
-        _map.clear();
-        _geoindex = RTree.star().maxChildren(6).create();
+    public void clearItems() 
+        { _clearIndexes(); }
+    
+    
+    
+    /* Remove all points, from the map and all indexes */
+    private void _clearIndexes() {
+        _lockAll(0, () -> {
+            _map.clear();
+            _geoindex.clear();
+            _srchindex.clear();
+            _sorted.clear();
+            _expiry.clear();
+        });
     }
     
     
@@ -142,11 +240,72 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
      * @param srch Prefix 
      */
     public List<TrackerPoint> searchPrefix(String srch)
+        { return searchPrefix(srch, null, -1, null); }
+    
+    
+    
+    /* 
+     * Normalized key of ident. Keys are sorted case-insensitively, the 
+     * ident itself is appended to make keys unique.
+     */
+    private static String _key(String ident)
+        { return ident.toUpperCase() + '\u0000' + ident; }
+     
+     
+     
+    /**
+     * Return a page of trackerpoints where the ident has the given prefix, ordered
+     * by ident (case-insensitive). This is a range scan of the sorted keys, 
+     * O(log n + k). 
+     * @param prefix Prefix (case-insensitive). 
+     * @param after Ident of the last item of the previous page. null for the first page. 
+     * @param limit Max number of items to return. Negative means no limit. 
+     * @param filter Only items accepted by the filter are returned (and counted). Null is allowed. 
+     */
+    public List<TrackerPoint> searchPrefix(String prefix, String after, int limit, Predicate<TrackerPoint> filter)
     {
-        if (srch == null)
+        if (prefix == null)
            return new LinkedList<TrackerPoint>();
-        return _map.values().stream().filter( s ->
-           ( s.getIdent().toUpperCase().startsWith(srch) )).collect(Collectors.toList());
+        String from = prefix.toUpperCase();
+        String to = from + Character.MAX_VALUE; 
+        NavigableMap<String, TrackerPoint> range = 
+            (after != null && _key(after).compareTo(from) > 0 
+                ? _sorted.subMap(_key(after), false, to, false) 
+                : _sorted.subMap(from, true, to, false));
+        return _collect(range, limit, filter);
+    }
+    
+    
+    
+    /**
+     * Return trackerpoints where the ident is in the given range, ordered 
+     * by ident (case-insensitive). 
+     * @param from Lower bound (inclusive, case-insensitive). null means no lower bound. 
+     * @param to Upper bound (exclusive, case-insensitive). null means no upper bound. 
+     * @param limit Max number of items to return. Negative means no limit. 
+     */
+    public List<TrackerPoint> searchRange(String from, String to, int limit)
+    {
+        NavigableMap<String, TrackerPoint> range = _sorted;
+        if (from != null) 
+            range = range.tailMap(from.toUpperCase(), true);
+        if (to != null)
+            range = range.headMap(to.toUpperCase(), false);
+        return _collect(range, limit, null);
+    }
+    
+    
+    
+    private List<TrackerPoint> _collect(NavigableMap<String, TrackerPoint> range, int limit, Predicate<TrackerPoint> filter)
+    {
+        List<TrackerPoint> res = new ArrayList<TrackerPoint>(limit < 0 ? 16 : Math.min(limit, 1000));
+        for (TrackerPoint s : range.values()) {
+            if (limit >= 0 && res.size() >= limit)
+                break;
+            if (filter == null || filter.test(s))
+                res.add(s);
+        }
+        return res;
     }
      
      
@@ -163,25 +322,33 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
      */
     public List<TrackerPoint> search(String srch, String[] tags)
     {
-        srch = srch.toUpperCase();
-        if (srch.matches("REG:.*"))
-           srch = srch.substring(4);
-        else {
-           srch = srch.replaceAll("\\.", Matcher.quoteReplacement("\\."));
-           srch = srch.replaceAll("\\*", Matcher.quoteReplacement("(\\S*)"));
-        }
-         
-        final String _srch = srch;
-        List<TrackerPoint> result = _map.values().stream().filter( s -> 
-            ( s.getIdent().toUpperCase().matches(_srch) ||
-                s.getDisplayId().toUpperCase().matches(_srch) ||
-                s.getDescr().toUpperCase().matches("(.*\\s+)?\\(?("+_srch+")\\)?\\,?(\\s+.*)?") ) &&
-            ( tags==null ? true : 
-                (Arrays.stream(tags).map(x -> s.tagIsOn(x))
-                                    .reduce((x,y) -> (x && y))).get())
-        ).collect(Collectors.toList());
+        SearchIndex.Query q = new SearchIndex.Query(srch);
+        
+        /* Use the index if expression has a literal prefix, otherwise scan all points */
+        Collection<TrackerPoint> cand = _srchindex.candidates(q);
+        boolean sorted = (cand == null);
+        if (cand == null)
+            cand = _map.values();
+            
+        List<TrackerPoint> result = new ArrayList<TrackerPoint>();
+        for (TrackerPoint s : cand)
+            if (q.matches(s) && _hasTags(s, tags) && _map.get(s.getIdent()) == s)
+                result.add(s);
+                
+        /* Same order as a scan of the map */
+        if (!sorted)
+            result.sort(Comparator.comparing(TrackerPoint::getIdent));
         return result;
     } 
+    
+    
+    private static boolean _hasTags(TrackerPoint s, String[] tags) {
+        if (tags != null)
+            for (String t : tags)
+                if (!s.tagIsOn(t))
+                    return false;
+        return true;
+    }
      
      
      
@@ -196,16 +363,7 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
      */
     public List<TrackerPoint>
         search(LatLng ul, LatLng lr, RuleSet filter)
-    { 
-        List<TrackerPoint> res = new ArrayList<TrackerPoint>(2000);
-        Iterable<Entry<TrackerPoint, Point>> entries =
-            _geoindex.search(Geometries.rectangleGeographic(ul.getLng(), lr.getLat(), lr.getLng(), ul.getLat()));  
-
-        for (Entry<TrackerPoint, Point> pt : entries) 
-            res.add(pt.value());
-            
-        return res;
-    }
+        { return _geoindex.search(ul, lr); }
     
     
     
@@ -233,8 +391,11 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
     /**
      * Shutdown. May save state, etc.. 
      */
-    public void shutdown()
-       { save(); }
+    public void shutdown() { 
+        save(); 
+        if (_journal != null)
+            _journal.close();
+    }
     
     
     
@@ -244,112 +405,417 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
      ******************************/
     
     /** 
-     * Save (checkpoint) station data to disk file. 
+     * Save (checkpoint) station data to disk file. This does not lock the
+     * database. Each point is copied while holding its own lock. Data is 
+     * written to a temporary file which replaces the previous file when complete. 
      */
-    private synchronized void save()
+    private void save()
     {
-        if (_hasChanged)
-          try {
+        if (!_hasChanged && (_journal == null || !_journal.isDirty()))
+            return;
+        waitForTrails();
+        synchronized (_saveLock) {
+          _hasChanged = false; 
+          File tmp = new File(_file+".tmp");
+          try (DataOutputStream out = new DataOutputStream(
+                   new BufferedOutputStream(new FileOutputStream(tmp), 65536))) 
+          {
              _api.log().info("StationDBImp", "Saving data...");
-             FileOutputStream fs = new FileOutputStream(_file);
-             ObjectOutputStream ofs = new ObjectOutputStream(fs);
              
-             ofs.writeObject(_routes);
+             /* Changes from now on are kept in the journal after the checkpoint */
+             if (_journal != null)
+                 _journal.rotate();
+             StationSnapshot.writeHeader(out);
+             _routes.writeSnapshot(out);
              _api.getMsgProcessor().save();
-             _ownobj.save(ofs);
-             PointObject.saveTags(ofs);
-             ofs.writeInt(_map.size());
+             _ownobj.writeSnapshot(out);
+             PointObject.writeTags(out);
              
              /* Save all points that matches regex */
+             ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
              for (TrackerPoint s: _map.values()) { 
                 if (!(s instanceof OwnPosition)
-                       && (s.hasUserTags() || s.getIdent().matches("("+_stnsave+")|.*\\@("+_stnsave+")")))
-                    ofs.writeObject(s); 
+                       && (s.hasUserTags() || _stnsave.matcher(s.getIdent()).matches()))
+                    StationSnapshot.writePoint(out, s, buf); 
              }
              
-             
-           }
-           catch (Exception e) {
-               _api.log().warn("StationDBImp", "Cannot save data: "+e);
-               e.printStackTrace();
-           } 
-         _hasChanged = false; 
+             /* Trails are written after the points so they can be loaded in the background */
+             for (TrackerPoint s: _map.values()) { 
+                if (!(s instanceof OwnPosition)
+                       && (s.hasUserTags() || _stnsave.matcher(s.getIdent()).matches()))
+                    StationSnapshot.writeTrail(out, s, buf); 
+             }
+             out.writeByte(StationSnapshot.END);
+             out.close();
+             Files.move(tmp.toPath(), Paths.get(_file), 
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+             if (_journal != null)
+                 _journal.truncate();
+          }
+          catch (Exception e) {
+             _api.log().warn("StationDBImp", "Cannot save data: "+e);
+             e.printStackTrace();
+             _hasChanged = true; 
+          } 
+        }
     }
     
     
     
     /**
-     * Restore station data from disk file. 
+     * Restore station data from disk file. The file may be a binary snapshot
+     * or (from earlier versions) a Java serialization stream. If a journal is
+     * given, it is replayed on top of it.
      */
-    private synchronized void restore()
+    private synchronized void restore(StationJournal journal)
     {
-        ObjectInputStream ifs = null; 
+        BufferedInputStream fs = null;
         try {
+          fs = new BufferedInputStream(new FileInputStream(_file), 65536);
           _api.log().info("StationDBImp", "Restoring point data...");
-          FileInputStream fs = new FileInputStream(_file);
-          ifs = new ObjectInputStream(fs);
-          
-          _api.log().debug("StationDBImp", "Restoring routes...");
-          _routes = (RouteInfo) ifs.readObject();
-          _api.log().debug("StationDBImp", "Restoring msgproc and ownobj...");    
-          _api.getMsgProcessor().restore();
-          _ownobj.restore(ifs);
-          _api.log().debug("StationDBImp", "Restoring tags...");
-          PointObject.restoreTags(ifs);
-          _api.log().debug("StationDBImp", "Restoring points...");
-          int size = ifs.readInt();
-          for (int i=1; i<size; i++)
-          { 
-            try {
-                TrackerPoint st = (TrackerPoint) ifs.readObject(); 
-                _addRtItem(st);
-            }
-            catch (EOFException e) { }
+          long t = System.currentTimeMillis();
+          int n; 
+          if (StationSnapshot.isSnapshot(fs)) {
+             DataInputStream in = new DataInputStream(fs);
+             n = restoreSnapshot(in);
+             
+             /* The trail loader thread takes over the stream */
+             loadTrails(in);
+             fs = null;
           }
+          else 
+             n = restoreSerialized(new ObjectInputStream(fs));
+          t = System.currentTimeMillis() - t;
+          _api.log().info("StationDBImp", "Restored "+n+" points in "+t+" ms"
+              + (t > 0 ? " ("+(n * 1000L / t)+" points/sec)" : ""));
         }
         catch (Exception e) {
             _api.log().warn("StationDBImp", "Cannot restore data: "+e);
-            _map.clear();
+            _clearIndexes();
             _routes = new RouteInfo();
         } 
-        
         finally {
             try {
-                if (ifs != null)
-                    ifs.close();
-            } catch (Exception e) {}
+                if (fs != null)
+                    fs.close();
+            }
+            catch (IOException e) {}
+        }
+        
+        if (journal != null) {
+            int n = journal.replay(new Replay());
+            _api.log().info("StationDBImp", "Replayed "+n+" journal records");
+            if (n > 0)
+                _hasChanged = true;
         }
     }
     
     
     
-    private synchronized void rebuildIndex() {
-        _geoindex = RTree.star().maxChildren(6).create();
-        for (TrackerPoint s: _map.values()) { 
-            if (s.getPosition() == null)
-                continue;
-            LatLng pos = s.getPosition();
-            var point = Geometries.pointGeographic(pos.getLng(), pos.getLat());
-            _geoindex = _geoindex.add(s, point);
+    /**
+     * Apply records from journal. 
+     */
+    private class Replay implements StationJournal.Handler
+    {
+        private Map<String, Station> _owners = new HashMap<String, Station>();
+        
+        
+        public void position(byte kind, String ident, String owner, Date ts, LatLng pos, int speed, int course,
+                  int altitude, char sym, char symtab, int ambiguity, String descr, String path)
+        {
+            TrackerPoint x = _map.get(ident);
+            AprsPoint st;
+            if (x instanceof AprsPoint p)
+                st = p; 
+            else if (x != null)
+                return;
+            else if (kind == StationJournal.OBJECT) {
+                if (owner == null || !ident.endsWith("@"+owner))
+                    return;
+                TrackerPoint o = _map.get(owner);
+                Station ost = (o instanceof Station os ? os : 
+                    _owners.computeIfAbsent(owner, id -> new Station(id)));
+                st = new AprsObject(ost, ident.substring(0, ident.length() - owner.length() - 1));
+                st.setUpdated(new Date(0));
+            }
+            else {
+                st = new Station(ident);
+                st.setUpdated(new Date(0));
+            }
+            if (x == null) {
+                if (st.replayUpdate(ts, pos, speed, course, altitude, sym, symtab, ambiguity, descr, path))
+                    _addRtItem(st);
+                return;
+            }
+            
+            /* The description may change, so the point is indexed again */
+            LatLng prevpos = st.getPosition();
+            _srchindex.remove(st);
+            if (st.replayUpdate(ts, pos, speed, course, altitude, sym, symtab, ambiguity, descr, path))
+                updateItem(st, prevpos);
+            _srchindex.add(st);
+        }
+        
+        
+        public void tag(String ident, String tag, String data, boolean delete) {
+            TrackerPoint x = _map.get(ident);
+            if (x == null) 
+                return;
+            if (delete)
+                x.removeTag(tag);
+            else
+                x.setTag(tag, data);
+        }
+        
+        
+        public void alias(String ident, String alias) {
+            TrackerPoint x = _map.get(ident);
+            if (x != null)
+                x.setAlias(alias);
+        }
+        
+        
+        public void icon(String ident, String icon) {
+            TrackerPoint x = _map.get(ident);
+            if (x != null)
+                x.setIcon(icon);
         }
+        
+        
+        public void remove(String ident) 
+            { _removeRtItem(ident); }
     }
     
     
     
     /**
-     * Garbage collection.
-     * Removes expired objects and tries to to a little more
-     * agressive JVM garbage collection. 
+     * Restore station data from binary snapshot. Point records are read 
+     * sequentially and decoded in parallel, in batches. The spatial index 
+     * is loaded in one operation when all points are read. Trail records are
+     * left in the stream, see loadTrails(). 
+     * @return number of points restored. 
      */
-    private void garbageCollect()
+    private int restoreSnapshot(DataInputStream in) 
+        throws IOException
+    {
+        StationSnapshot.readHeader(in);
+        _api.log().debug("StationDBImp", "Restoring routes...");
+        RouteInfo routes = new RouteInfo();
+        routes.readSnapshot(in);
+        _routes = routes;
+        _api.log().debug("StationDBImp", "Restoring msgproc and ownobj...");    
+        _api.getMsgProcessor().restore();
+        _ownobj.readSnapshot(in);
+        _api.log().debug("StationDBImp", "Restoring tags...");
+        PointObject.readTags(in);
+        
+        _api.log().debug("StationDBImp", "Restoring points...");
+        int nthreads = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        ExecutorService decoder = Executors.newFixedThreadPool(nthreads, ExecService.factory("StationDBImp-restore", true));
+        List<Future<List<TrackerPoint>>> batches = new ArrayList<Future<List<TrackerPoint>>>();
+        try {
+            List<byte[]> payloads = new ArrayList<byte[]>(RESTORE_BATCH);
+            List<Byte> kinds = new ArrayList<Byte>(RESTORE_BATCH);
+            byte kind;
+            while ((kind = in.readByte()) != StationSnapshot.END && kind != StationSnapshot.TRAIL) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                kinds.add(kind);
+                payloads.add(payload);
+                if (payloads.size() >= RESTORE_BATCH) {
+                    batches.add(decoder.submit(new Decoder(kinds, payloads)));
+                    payloads = new ArrayList<byte[]>(RESTORE_BATCH);
+                    kinds = new ArrayList<Byte>(RESTORE_BATCH);
+                }
+            }
+            if (!payloads.isEmpty())
+                batches.add(decoder.submit(new Decoder(kinds, payloads)));
+            
+            /* The kind byte of the first trail record is consumed here */
+            _hasTrails = (kind == StationSnapshot.TRAIL);
+                
+            List<TrackerPoint> points = new ArrayList<TrackerPoint>(batches.size() * RESTORE_BATCH);
+            List<AprsObject> objects = new ArrayList<AprsObject>();
+            for (Future<List<TrackerPoint>> b : batches) 
+                for (TrackerPoint st : b.get()) {
+                    if (st instanceof AprsObject obj && obj.getSnapshotOwnerId() != null)
+                        objects.add(obj);
+                    else 
+                        points.add(st);
+                }
+            
+            /* 
+             * Objects are added when their owners are known. If the owner is not 
+             * saved, a station is created for it (but not added to the database).
+             */
+            for (TrackerPoint st : points)
+                _map.put(st.getIdent(), st);
+            Map<String, Station> owners = new HashMap<String, Station>();
+            for (AprsObject obj : objects) {
+                TrackerPoint owner = _map.get(obj.getSnapshotOwnerId());
+                obj.setOwner(owner instanceof Station ? (Station) owner : 
+                    owners.computeIfAbsent(obj.getSnapshotOwnerId(), id -> new Station(id)));
+                _map.put(obj.getIdent(), obj);
+                points.add(obj);
+            }
+            _loadItems(points);
+            return points.size();
+        }
+        catch (InterruptedException e) 
+            { throw new IOException("Restore interrupted"); }
+        catch (ExecutionException e) { 
+            throw (e.getCause() instanceof IOException ioe ? ioe : 
+                new IOException("Cannot decode point: "+e.getCause()));
+        }
+        finally
+            { decoder.shutdown(); }
+    }
+    
+    
+    
+    /** 
+     * Decode a batch of point records. 
+     */
+    private static class Decoder implements Callable<List<TrackerPoint>>
+    {
+        private List<Byte> _kinds;
+        private List<byte[]> _payloads;
+        
+        Decoder(List<Byte> kinds, List<byte[]> payloads)
+            { _kinds = kinds; _payloads = payloads; }
+            
+        public List<TrackerPoint> call() throws IOException {
+            List<TrackerPoint> res = new ArrayList<TrackerPoint>(_payloads.size());
+            for (int i=0; i<_payloads.size(); i++) {
+                TrackerPoint st = StationSnapshot.readPoint(_kinds.get(i), _payloads.get(i));
+                if (st != null && st.getIdent() != null)
+                    res.add(st);
+            }
+            return res;
+        }
+    }
+    
+    
+    
+    /* 
+     * Add restored points to the map and the spatial index. The index is 
+     * loaded in one operation. 
+     */
+    private void _loadItems(List<TrackerPoint> points)
+    {
+        _lockAll(0, () -> {
+            for (TrackerPoint st : points) {
+                _map.put(st.getIdent(), st);
+                _srchindex.add(st);
+                _sorted.put(_key(st.getIdent()), st);
+            }
+            _geoindex.load(points);
+        });
+        for (TrackerPoint st : points)
+            _scheduleExpiry(st);
+    }
+    
+    
+    
+    /**
+     * Load trails in a separate thread. Trail records follow the point records in 
+     * the snapshot. The database is in use while trails are loading, so the 
+     * items are merged with what is added to the trails since. The thread closes 
+     * the stream when done. 
+     */
+    private void loadTrails(DataInputStream in)
+    {
+        if (!_hasTrails) {
+            try { in.close(); } catch (IOException e) {}
+            return;
+        }
+        _trailLoader = ExecService.thread("StationDBImp-trails", () -> {
+            long t = System.currentTimeMillis();
+            int n = 0;
+            try (in) {
+                byte kind = StationSnapshot.TRAIL;
+                do {
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    if (kind != StationSnapshot.TRAIL)
+                        continue;
+                    DataInputStream pin = new DataInputStream(new ByteArrayInputStream(payload));
+                    TrackerPoint st = _map.get(pin.readUTF());
+                    if (st != null) {
+                        st.readTrail(pin);
+                        n++;
+                    }
+                } while ((kind = in.readByte()) != StationSnapshot.END);
+            }
+            catch (Exception e) 
+                { _api.log().warn("StationDBImp", "Cannot restore trails: "+e); }
+            _api.log().info("StationDBImp", "Restored "+n+" trails in "+(System.currentTimeMillis()-t)+" ms");
+        }, true);
+        _trailLoader.start();
+    }
+    
+    
+    
+    /* Wait until trails are loaded, if loading. */
+    private void waitForTrails()
+    {
+        Thread t = _trailLoader;
+        if (t == null)
+            return;
+        try { 
+            t.join();
+            _trailLoader = null;
+        }
+        catch (InterruptedException e) {}
+    }
+    
+    
+    
+    /**
+     * Restore station data from Java serialization stream (previous file format).
+     */
+    private int restoreSerialized(ObjectInputStream ifs) 
+        throws IOException, ClassNotFoundException
+    {
+        _api.log().info("StationDBImp", "Reading data in old format...");
+        _api.log().debug("StationDBImp", "Restoring routes...");
+        _routes = (RouteInfo) ifs.readObject();
+        _api.log().debug("StationDBImp", "Restoring msgproc and ownobj...");    
+        _api.getMsgProcessor().restore();
+        _ownobj.restore(ifs);
+        _api.log().debug("StationDBImp", "Restoring tags...");
+        PointObject.restoreTags(ifs);
+        _api.log().debug("StationDBImp", "Restoring points...");
+        int size = ifs.readInt();
+        List<TrackerPoint> points = new ArrayList<TrackerPoint>(size);
+        for (int i=1; i<size; i++)
+        { 
+            try {
+                TrackerPoint st = (TrackerPoint) ifs.readObject(); 
+                if (st != null && st.getIdent() != null)
+                    points.add(st);
+            }
+            catch (EOFException e) { }
+        }
+        _loadItems(points);
+        return points.size();
+    }
+    
+    
+    
+    /**
+     * Remove items that are due for expiry. Items are found in the expiry
+     * wheel, so only items that may have expired since last time are checked.
+     * If an item has been updated since it was scheduled, it is rescheduled.
+     */
+    private void expireItems()
     {
-         Date now = new Date();  
-         _api.log().debug("StationDBImp", "Garbage collection...");
-         Iterator<TrackerPoint> stn = _map.values().iterator();
          int n=0;
-         while (stn.hasNext()) 
+         for (String id : _expiry.advance(System.currentTimeMillis())) 
          {
-             TrackerPoint st = stn.next();
+             TrackerPoint st = _map.get(id);
+             if (st == null)
+                 continue;
              if (st.expired()) {
                  /* 
                   * If managed and a backing database is present, save it there. 
@@ -367,19 +833,29 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
                  }
              } 
              else
-                 st.autoTag();
+                 _scheduleExpiry(st, true);
          }
-         _api.log().info("StationDBImp", "GC Removed: "+n+" items"); 
+         if (n > 0)
+            _api.log().debug("StationDBImp", "Expired: "+n+" items");
+    }
+    
+    
+    
+    /**
+     * Periodic maintenance. Apply tag rules and remove old edges
+     * in route info. Items are expired by expireItems(). 
+     */
+    private void garbageCollect()
+    {
+         _api.log().debug("StationDBImp", "Maintenance...");
+         for (TrackerPoint st : _map.values())
+             if (!st.expired())
+                 st.autoTag();
+         
          Calendar t = Calendar.getInstance();
          t.add(Calendar.DAY_OF_YEAR, -1);
          _routes.removeOldEdges(t.getTime());
-                    
-         _api.log().info("StationDBImp", "rebuilding index");
-         rebuildIndex();
-         
-         s_runtime.gc ();
-         Thread.currentThread ().yield ();
-         _api.log().debug("StationDBImp", "Garbage collection finished");
+         _api.log().debug("StationDBImp", "Maintenance finished");
     }
     
         
@@ -410,6 +886,7 @@ public class StationDBImp extends StationDBBase implements StationDB, Runnable
               {
                   Thread.sleep(period); 
                   checkMoving(); 
+                  expireItems();
               } 
               garbageCollect();            
               save();
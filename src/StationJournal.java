@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import no.polaric.aprsd.util.*;
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+
+/**
+ * Write-ahead journal of changes to station data since the last checkpoint
+ * (snapshot). Records are collected in memory and appended to the journal
+ * file in batches (group commit) by a separate thread, or when the buffer
+ * is full.
+ *
+ * At checkpoint, the journal is rotated before the snapshot is written and the
+ * rotated part is deleted when the snapshot is complete. At startup, the
+ * rotated part (if any) and the journal are replayed on top of the snapshot.
+ *
+ * Each record is: length (int), CRC32 of payload (int), type (byte), payload.
+ * Replay stops at the first incomplete or corrupt record.
+ */
+public class StationJournal implements StationDB.Journal, Runnable
+{
+    public static final byte POSITION = 1;
+    public static final byte TAG      = 2;
+    public static final byte ALIAS    = 3;
+    public static final byte ICON     = 4;
+    public static final byte REMOVE   = 5;
+
+    public static final byte STATION  = 1;
+    public static final byte OBJECT   = 2;
+
+
+    /**
+     * Receiver of replayed records.
+     */
+    public interface Handler {
+        public void position(byte kind, String ident, String owner, Date ts, LatLng pos, int speed, int course,
+                  int altitude, char sym, char symtab, int ambiguity, String descr, String path);
+        public void tag(String ident, String tag, String data, boolean delete);
+        public void alias(String ident, String alias);
+        public void icon(String ident, String icon);
+        public void remove(String ident);
+    }
+
+
+    private static final int MAX_BUFFER = 256 * 1024;
+
+    private AprsServerConfig _api;
+    private Path        _path, _oldpath;
+    private FileChannel _chan;
+    private long        _interval;
+    private boolean     _fsync;
+    private boolean     _kill = false;
+    private long        _nRecords = 0, _nCommits = 0, _sinceRotate = 0;
+
+    private ByteArrayOutputStream _buf = new ByteArrayOutputStream(64 * 1024);
+    private ByteArrayOutputStream _rec = new ByteArrayOutputStream(256);
+    private DataOutputStream      _recOut = new DataOutputStream(_rec);
+    private CRC32                 _crc = new CRC32();
+    private Object                _ioLock = new Object();
+
+
+
+    /**
+     * Constructor.
+     * @param api Server config.
+     * @param file Path of journal file.
+     */
+    public StationJournal(AprsServerConfig api, String file)
+    {
+        _api = api;
+        _path = Paths.get(file);
+        _oldpath = Paths.get(file+".1");
+        _interval = api.getIntProperty("stations.journal.interval", 2) * 1000;
+        _fsync = api.getBoolProperty("stations.journal.fsync", false);
+    }
+
+
+
+    /**
+     * Open journal for writing and start the commit thread.
+     */
+    public void open() throws IOException
+    {
+        _chan = FileChannel.open(_path, StandardOpenOption.CREATE,
+                   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        ExecService.thread("StationJournal", this, true).start();
+    }
+
+
+
+    public long nRecords()
+        { return _nRecords; }
+
+    public long nCommits()
+        { return _nCommits; }
+
+    /** Return true if records are written since last rotate. */
+    public boolean isDirty()
+        { return _sinceRotate > 0; }
+
+
+
+    /************************************************
+     * Writing records
+     ************************************************/
+
+    private static boolean isJournaled(PointObject p)
+        { return p.getClass() == Station.class || p.getClass() == AprsObject.class; }
+
+
+
+    /**
+     * Log a position update.
+     */
+    public void position(AprsPoint p, String path)
+    {
+        if (!isJournaled(p) || p.getPosition() == null)
+            return;
+        synchronized(this) {
+            try {
+                _recOut.writeByte(POSITION);
+                if (p instanceof AprsObject obj) {
+                    _recOut.writeByte(OBJECT);
+                    _recOut.writeUTF(p.getIdent());
+                    DataIO.writeStr(_recOut, obj.getOwner() == null ? null : obj.getOwner().getIdent());
+                }
+                else {
+                    _recOut.writeByte(STATION);
+                    _recOut.writeUTF(p.getIdent());
+                    DataIO.writeStr(_recOut, null);
+                }
+                DataIO.writeDate(_recOut, p.getUpdated());
+                DataIO.writePos(_recOut, p.getPosition());
+                _recOut.writeInt(p.getSpeed());
+                _recOut.writeInt(p.getCourse());
+                _recOut.writeInt(p.getAltitude());
+                _recOut.writeChar(p.getSymbol());
+                _recOut.writeChar(p.getSymtab());
+                _recOut.writeInt(p.getAmbiguity());
+                DataIO.writeStr(_recOut, p.hasDescr() ? p.getDescr() : null);
+                DataIO.writeStr(_recOut, path);
+                _endRecord();
+            }
+            catch (IOException e)
+                { _rec.reset(); }
+        }
+    }
+
+
+
+    public void setTag(PointObject p, String tag, String data, boolean delete)
+    {
+        if (!isJournaled(p))
+            return;
+        synchronized(this) {
+            try {
+                _recOut.writeByte(TAG);
+                _recOut.writeUTF(p.getIdent());
+                _recOut.writeUTF(tag);
+                DataIO.writeStr(_recOut, data);
+                _recOut.writeBoolean(delete);
+                _endRecord();
+            }
+            catch (IOException e)
+                { _rec.reset(); }
+        }
+    }
+
+
+
+    public void setAlias(TrackerPoint p, String alias)
+        { _identRecord(ALIAS, p, alias); }
+
+
+    public void setIcon(TrackerPoint p, String icon)
+        { _identRecord(ICON, p, icon); }
+
+
+    /**
+     * Log removal of an item.
+     */
+    public void remove(TrackerPoint p)
+        { _identRecord(REMOVE, p, null); }
+
+
+
+    private synchronized void _identRecord(byte type, TrackerPoint p, String arg)
+    {
+        if (!isJournaled(p))
+            return;
+        try {
+            _recOut.writeByte(type);
+            _recOut.writeUTF(p.getIdent());
+            DataIO.writeStr(_recOut, arg);
+            _endRecord();
+        }
+        catch (IOException e)
+            { _rec.reset(); }
+    }
+
+
+
+    /* Move current record to the buffer. Commit if buffer is full. */
+    private void _endRecord() throws IOException
+    {
+        _recOut.flush();
+        _crc.reset();
+        _crc.update(_rec.toByteArray(), 0, _rec.size());
+        DataOutputStream out = new DataOutputStream(_buf);
+        out.writeInt(_rec.size());
+        out.writeInt((int) _crc.getValue());
+        _rec.writeTo(out);
+        out.flush();
+        _rec.reset();
+        _nRecords++;
+        _sinceRotate++;
+        if (_buf.size() > MAX_BUFFER)
+            commit();
+    }
+
+
+
+    /**
+     * Write buffered records to the journal file.
+     */
+    public void commit()
+    {
+        byte[] data;
+        synchronized(this) {
+            if (_buf.size() == 0)
+                return;
+            data = _buf.toByteArray();
+            _buf.reset();
+        }
+        synchronized(_ioLock) {
+            try {
+                if (_chan == null)
+                    return;
+                ByteBuffer bb = ByteBuffer.wrap(data);
+                while (bb.hasRemaining())
+                    _chan.write(bb);
+                if (_fsync)
+                    _chan.force(false);
+                _nCommits++;
+            }
+            catch (IOException e)
+                { _api.log().warn("StationJournal", "Cannot write journal: "+e); }
+        }
+    }
+
+
+
+    /**
+     * Rotate journal. To be called before a checkpoint. Records written from now on
+     * are not removed by the following truncate(). If a rotated part exists
+     * already (previous checkpoint failed), the journal is appended to it.
+     */
+    public void rotate() throws IOException
+    {
+        synchronized(this) {
+            commit();
+            _sinceRotate = 0;
+        }
+        synchronized(_ioLock) {
+            if (_chan != null)
+                _chan.close();
+            if (Files.exists(_oldpath)) {
+                try (FileChannel old = FileChannel.open(_oldpath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                     FileChannel cur = FileChannel.open(_path, StandardOpenOption.READ)) {
+                    long pos = 0, size = cur.size();
+                    while (pos < size)
+                        pos += cur.transferTo(pos, size - pos, old);
+                }
+                Files.delete(_path);
+            }
+            else
+                Files.move(_path, _oldpath, StandardCopyOption.ATOMIC_MOVE);
+            _chan = FileChannel.open(_path, StandardOpenOption.CREATE,
+                       StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+
+
+    /**
+     * Remove the rotated part of the journal. To be called after a successful checkpoint.
+     */
+    public void truncate() throws IOException
+    {
+        synchronized(_ioLock) {
+            Files.deleteIfExists(_oldpath);
+        }
+    }
+
+
+
+    public void close()
+    {
+        _kill = true;
+        commit();
+        synchronized(_ioLock) {
+            try {
+                if (_chan != null)
+                    _chan.close();
+            }
+            catch (IOException e) {}
+            _chan = null;
+        }
+    }
+
+
+
+    /**
+     * Commit thread.
+     */
+    public void run()
+    {
+        while (!_kill) {
+            try {
+                Thread.sleep(_interval);
+                commit();
+            }
+            catch (InterruptedException e) {}
+            catch (Exception e)
+                { _api.log().warn("StationJournal", "Commit thread: "+e); }
+        }
+    }
+
+
+
+    /************************************************
+     * Replay
+     ************************************************/
+
+    /**
+     * Replay the rotated part (if any) and the journal. Must be called before open().
+     * @return number of records replayed.
+     */
+    public int replay(Handler h)
+    {
+        return _replay(_oldpath, h) + _replay(_path, h);
+    }
+
+
+
+    private int _replay(Path file, Handler h)
+    {
+        if (!Files.exists(file))
+            return 0;
+        int n = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            while (true) {
+                int len, sum;
+                byte[] rec;
+                try {
+                    len = in.readInt();
+                    sum = in.readInt();
+                    if (len <= 0 || len > MAX_BUFFER)
+                        break;
+                    rec = new byte[len];
+                    in.readFully(rec);
+                }
+                catch (EOFException e)
+                    { break; }
+                crc.reset();
+                crc.update(rec, 0, len);
+                if ((int) crc.getValue() != sum) {
+                    _api.log().warn("StationJournal", "Corrupt record in "+file+" - stopping replay");
+                    break;
+                }
+                _apply(new DataInputStream(new ByteArrayInputStream(rec)), h);
+                n++;
+            }
+        }
+        catch (Exception e)
+            { _api.log().warn("StationJournal", "Cannot replay "+file+": "+e); }
+        return n;
+    }
+
+
+
+    private void _apply(DataInputStream in, Handler h) throws IOException
+    {
+        byte type = in.readByte();
+        switch (type) {
+            case POSITION:
+                byte kind = in.readByte();
+                String ident = in.readUTF();
+                String owner = DataIO.readStr(in);
+                h.position(kind, ident, owner, DataIO.readDate(in), DataIO.readPos(in),
+                    in.readInt(), in.readInt(), in.readInt(), in.readChar(), in.readChar(), in.readInt(),
+                    DataIO.readStr(in), DataIO.readStr(in));
+                break;
+            case TAG:
+                h.tag(in.readUTF(), in.readUTF(), DataIO.readStr(in), in.readBoolean());
+                break;
+            case ALIAS:
+                h.alias(in.readUTF(), DataIO.readStr(in));
+                break;
+            case ICON:
+                h.icon(in.readUTF(), DataIO.readStr(in));
+                break;
+            case REMOVE:
+                h.remove(in.readUTF());
+                break;
+            default:
+                /* Unknown record type. Ignore */
+        }
+    }
+}
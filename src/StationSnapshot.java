@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import no.polaric.aprsd.util.*;
+import java.io.*;
+
+
+/**
+ * Binary snapshot format for station data.
+ *
+ * A snapshot file starts with a magic number and a version, followed by
+ * route info, own objects, tag use counts and a sequence of point records.
+ * Each point record is a kind byte, a length and a payload written by the
+ * point's writeSnapshot method. Trail items are written in TRAIL records
+ * after all the points, so that they can be loaded in the background. The
+ * sequence ends with a record of kind END. Records of unknown kinds are skipped.
+ *
+ * Points of other classes than Station and AprsObject (e.g. from plugins)
+ * are written using Java serialization inside the record.
+ */
+public class StationSnapshot
+{
+    public static final int   MAGIC   = 0x50534e50;   // "PSNP"
+    public static final short VERSION = 1;
+
+    public static final byte END        = 0;
+    public static final byte STATION    = 1;
+    public static final byte OBJECT     = 2;
+    public static final byte SERIALIZED = 3;
+    public static final byte TRAIL      = 4;
+
+
+
+    /**
+     * Return true if the stream starts with a snapshot header.
+     * The stream is reset to where it was.
+     */
+    public static boolean isSnapshot(BufferedInputStream in) throws IOException
+    {
+        in.mark(8);
+        try {
+            return new DataInputStream(in).readInt() == MAGIC;
+        }
+        catch (EOFException e)
+            { return false; }
+        finally
+            { in.reset(); }
+    }
+
+
+
+    public static void writeHeader(DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+    }
+
+
+
+    /**
+     * Read header. Throws IOException if file is not a snapshot or if
+     * it has a newer version than we can read.
+     */
+    public static short readHeader(DataInput in) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a station snapshot");
+        short v = in.readShort();
+        if (v > VERSION)
+            throw new IOException("Unsupported snapshot version: "+v);
+        return v;
+    }
+
+
+
+    /**
+     * Write a point record. The point is copied to buf while holding its lock,
+     * so that the record is consistent, and then written to out.
+     */
+    public static void writePoint(DataOutputStream out, TrackerPoint s, ByteArrayOutputStream buf)
+        throws IOException
+    {
+        byte kind = (s.getClass() == Station.class ? STATION :
+                     (s.getClass() == AprsObject.class ? OBJECT : SERIALIZED));
+        buf.reset();
+        DataOutputStream bout = new DataOutputStream(buf);
+        synchronized(s) {
+            if (kind == SERIALIZED)
+                DataIO.writeObject(bout, s);
+            else
+                s.writeSnapshot(bout);
+        }
+        bout.flush();
+        out.writeByte(kind);
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+    }
+
+
+
+    /**
+     * Write a trail record for a point (ident and trail items). 
+     * Nothing is written if trail is empty. 
+     */
+    public static void writeTrail(DataOutputStream out, TrackerPoint s, ByteArrayOutputStream buf)
+        throws IOException
+    {
+        if (s.getClass() != Station.class && s.getClass() != AprsObject.class)
+            return;
+        if (s.getTrail() == null || s.getTrail().isEmpty())
+            return;
+        buf.reset();
+        DataOutputStream bout = new DataOutputStream(buf);
+        bout.writeUTF(s.getIdent());
+        s.writeTrail(bout);
+        bout.flush();
+        out.writeByte(TRAIL);
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+    }
+
+
+
+    /**
+     * Create a point from a record payload. Return null if kind is unknown.
+     * Owners of AprsObjects must be resolved by the caller.
+     */
+    public static TrackerPoint readPoint(byte kind, byte[] payload) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        TrackerPoint s;
+        switch (kind) {
+            case STATION:    s = new Station(null); break;
+            case OBJECT:     s = new AprsObject(null, null); break;
+            case SERIALIZED: return (TrackerPoint) DataIO.readObject(in);
+            default:         return null;
+        }
+        s.readSnapshot(in);
+        return s;
+    }
+}
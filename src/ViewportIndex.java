@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+
+
+/**
+ * Spatial index of viewports (areas of interest of map clients), to find
+ * the clients that may be interested in a position.
+ *
+ * Each viewport is registered in the cells (1x1 degree) of a grid that
+ * overlap it. The area is extended by its own width and height in each
+ * direction, since a point is also of interest if it is that close and has
+ * a trail inside the viewport (see TrackerPoint.isInside). A lookup returns
+ * candidates; the caller must do the exact test. Large viewports (and
+ * those crossing the 180th meridian) are kept in a separate set and are
+ * always candidates.
+ *
+ * Lookups do not lock. Changes are synchronized.
+ */
+public class ViewportIndex<T>
+{
+    private static final int MAX_CELLS = 256;
+
+    private final Map<Long, Set<T>> _cells = new ConcurrentHashMap<Long, Set<T>>();
+    private final Set<T> _wide = ConcurrentHashMap.newKeySet();
+    private final Map<T, long[]> _cellsOf = new ConcurrentHashMap<T, long[]>();
+
+
+
+    private static long _key(int ilat, int ilng)
+        { return ((long) ilat << 32) | (Math.floorMod(ilng, 360) & 0xffffffffL); }
+
+
+
+    /* Keys of the cells overlapped by the extended area, or null if too many */
+    private static long[] _cells(LatLng uleft, LatLng lright)
+    {
+        double w = lright.getLng() - uleft.getLng();
+        double h = uleft.getLat() - lright.getLat();
+        if (w < 0 || h < 0)
+            return null;
+        int lat0 = (int) Math.floor(Math.max(-90, lright.getLat() - h));
+        int lat1 = (int) Math.floor(Math.min(90, uleft.getLat() + h));
+        int lng0 = (int) Math.floor(uleft.getLng() - w);
+        int lng1 = (int) Math.floor(lright.getLng() + w);
+        if (lng1 - lng0 + 1 >= 360 || (long) (lat1-lat0+1) * (lng1-lng0+1) > MAX_CELLS)
+            return null;
+
+        long[] keys = new long[(lat1-lat0+1) * (lng1-lng0+1)];
+        int i = 0;
+        for (int y=lat0; y<=lat1; y++)
+            for (int x=lng0; x<=lng1; x++)
+                keys[i++] = _key(y, x);
+        return keys;
+    }
+
+
+
+    /**
+     * Register (or move) a viewport.
+     */
+    public synchronized void put(T x, LatLng uleft, LatLng lright)
+    {
+        remove(x);
+        if (uleft == null || lright == null)
+            return;
+        long[] keys = _cells(uleft, lright);
+        if (keys == null)
+            _wide.add(x);
+        else
+            for (long k : keys)
+                _cells.computeIfAbsent(k, c -> ConcurrentHashMap.newKeySet()).add(x);
+        _cellsOf.put(x, (keys == null ? new long[0] : keys));
+    }
+
+
+
+    /**
+     * Remove a viewport.
+     */
+    public synchronized void remove(T x)
+    {
+        long[] keys = _cellsOf.remove(x);
+        if (keys == null)
+            return;
+        _wide.remove(x);
+        for (long k : keys)
+            _cells.computeIfPresent(k, (c, set) -> {
+                set.remove(x);
+                return set.isEmpty() ? null : set;
+            });
+    }
+
+
+
+    /**
+     * Remove viewports that are not in the given set.
+     */
+    public synchronized void retain(Set<T> live)
+    {
+        for (T x : new ArrayList<T>(_cellsOf.keySet()))
+            if (!live.contains(x))
+                remove(x);
+    }
+
+
+
+    /**
+     * Call f for each viewport that may be interested in the position.
+     */
+    public void lookup(LatLng pos, Consumer<T> f)
+    {
+        if (pos == null)
+            return;
+        Set<T> cell = _cells.get(_key((int) Math.floor(pos.getLat()), (int) Math.floor(pos.getLng())));
+        if (cell != null)
+            cell.forEach(f);
+        _wide.forEach(f);
+    }
+
+
+
+    /** Number of viewports. */
+    public int size()
+        { return _cellsOf.size(); }
+}
@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2015-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2015-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -14,8 +14,9 @@
 
 package no.polaric.aprsd.aprs;
 import no.polaric.aprsd.point.*;
-import java.util.regex.*;
 import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.*;
 
 
 /**
@@ -23,15 +24,10 @@ import java.util.Date;
  */ 
 public class AprsPacket implements Cloneable {
     
-    private static Pattern _ppat = Pattern.compile
-       ("([\\w\\-]+)>([\\w\\-]+)(((,[\\w\\-]+\\*?))*):(.*)");
-       
-       
     /* If packet is gated or routed elsewhere, the original via
      * can be saved in via_orig. If it is a thirdparty packet, more
      * info about source packet is in from_orig and to_orig.
      */
-    public Date time; 
     public Source source;
     public char type;
     public String from, to, msgto, via, report; 
@@ -39,9 +35,51 @@ public class AprsPacket implements Cloneable {
     public boolean thirdparty = false; 
     public boolean encrypted = false; 
     
+    /* Time when the packet was received or created. Public for plugins */
+    public Date time; 
+    
+    /* Path elements. Split when first asked for, and again if via is changed */
+    private record Path(String via, String[] elems) {}
+    private Path _path;
+    
+    private static final Pattern _pathSep = Pattern.compile(",(\\s)*");
+    
+    /* Decoded position. Decoded when first asked for (or set by the parser), 
+     * and again if report, type or to is changed. 
+     */
+    private record Decoded(String report, char type, String to, ReportHandler.PosData pd, Point pos) {}
+    private Decoded _decoded;
+    
+    
     public AprsPacket() 
        { time = new Date(); }
     
+    
+    /** 
+     * Get time of packet (when it was received or created). Same as the field 'time'. 
+     */
+    public Date getTime() 
+       { return time; }
+    
+    public void setTime(Date t) 
+       { time = t; }
+    
+    
+    /**
+     * Get elements of path (via). The array is shared and must not be modified. 
+     */
+    public String[] getPath() {
+        String v = via; 
+        if (v == null)
+            return new String[0];
+        Path p = _path;
+        if (p == null || p.via() != v) {
+            p = new Path(v, _pathSep.split(v));
+            _path = p;
+        }
+        return p.elems();
+    }
+    
 
     
     @Override public AprsPacket clone() 
@@ -57,27 +95,92 @@ public class AprsPacket implements Cloneable {
      */
     public static AprsPacket fromString(String packet)
     {
-        packet = packet.replace('\uffff', ' ');
-        if (packet == null || packet.length() < 10)
+        if (packet == null)
            return null;
-        Matcher m = _ppat.matcher(packet);
-        if (m.matches())
-        {
-            AprsPacket p = new AprsPacket();
-            p.from_orig = p.from = m.group(1).trim().toUpperCase();
-            p.to_orig = p.to = m.group(2).trim().toUpperCase();
-            
-            p.via  = m.group(3);
-            p.report  = m.group(m.groupCount());
-                
-            /* Remove first comma in path */
-            if (p.via != null) 
-                  p.via = p.via.trim();
-            while (p.via != null && p.via.length() > 0 && p.via.charAt(0) == ',')
-                  p.via = p.via.substring(1);
-            return p;
+        return parse(packet, 0, packet.length());
+    }
+    
+    
+    
+    /* Characters allowed in callsigns and path elements (regex [\w\-]) */
+    private static boolean isCallChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || 
+               (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+    
+    
+    /* Line terminators. These are not matched by '.' in a regex */
+    private static boolean isLineTerm(char c)
+        { return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'; }
+    
+    
+    
+    /**
+     * Convert a part of a character sequence to packet structure. This is a single 
+     * pass over the text. Only the fields are copied. The syntax is: 
+     * FROM>TO{,VIA[*]}:REPORT, where FROM, TO and VIA consist of letters, digits, 
+     * '_' and '-'. The report cannot contain line terminators. 
+     *
+     * @param buf Text
+     * @param start Start index (inclusive)
+     * @param end End index (exclusive)
+     * @return packet or null if syntax is not valid.
+     */
+    public static AprsPacket parse(CharSequence buf, int start, int end)
+    {
+        if (end - start < 10)
+           return null;
+        
+        /* Source callsign */
+        int i = start;
+        while (i < end && isCallChar(buf.charAt(i)))
+            i++;
+        if (i == start || i >= end || buf.charAt(i) != '>')
+            return null;
+        int fromEnd = i++;
+        
+        /* Destination */
+        int toStart = i;
+        while (i < end && isCallChar(buf.charAt(i)))
+            i++;
+        if (i == toStart)
+            return null;
+        int toEnd = i;
+        
+        /* Path */
+        while (i < end && buf.charAt(i) == ',') {
+            int elem = ++i;
+            while (i < end && isCallChar(buf.charAt(i)))
+                i++;
+            if (i == elem)
+                return null;
+            if (i < end && buf.charAt(i) == '*')
+                i++;
         }
-        return null;
+        if (i >= end || buf.charAt(i) != ':')
+            return null;
+        int viaEnd = i++;
+        
+        /* Report */
+        boolean uffff = false;
+        for (int j = i; j < end; j++) {
+            char c = buf.charAt(j);
+            if (isLineTerm(c))
+                return null;
+            if (c == '\uffff')
+                uffff = true;
+        }
+        
+        AprsPacket p = new AprsPacket();
+        p.from_orig = p.from = buf.subSequence(start, fromEnd).toString().toUpperCase();
+        p.to_orig = p.to = buf.subSequence(toStart, toEnd).toString().toUpperCase();
+        
+        /* Path without the first comma */
+        p.via = (viaEnd > toEnd ? buf.subSequence(toEnd + 1, viaEnd).toString() : "");
+        p.report = buf.subSequence(i, end).toString();
+        if (uffff)
+            p.report = p.report.replace('\uffff', ' ');
+        return p;
     }
 
     
@@ -99,23 +202,130 @@ public class AprsPacket implements Cloneable {
     }
     
     
+    private Decoded _decoded() {
+        Decoded d = _decoded;
+        if (d == null || d.report() != report || d.type() != type || d.to() != to) {
+            ReportHandler.PosData pd = null;
+            try {
+                if (report != null)
+                    pd = AprsUtil.decodePosData(this);
+            }
+            catch (RuntimeException e) {}  /* Malformed report. No position */
+            d = _setDecoded(pd);
+        }
+        return d;
+    }
+    
+    
+    private Decoded _setDecoded(ReportHandler.PosData pd) {
+        Decoded d = new Decoded(report, type, to, pd, 
+            (pd == null || pd.pos == null ? null : new Point(pd.pos)));
+        _decoded = d;
+        return d;
+    }
+    
+    
+    /**
+     * Get position data (position, symbol, course, etc.). The report is decoded 
+     * only once. The object is shared and must not be modified. 
+     * Returns null if the packet has no position. 
+     */
+    public ReportHandler.PosData getPosData() {
+        return _decoded().pd(); 
+    }
+    
+    
     /**
-     * Get position as point. 
+     * Set decoded position data. Used by the parser, so that the 
+     * report doesn't need to be decoded again. 
+     */
+    public void setPosData(ReportHandler.PosData pd) {
+        _setDecoded(pd);
+    }
+    
+    
+    /**
+     * Get position as point. The report is decoded only once. 
      */
     public Point getPos() {
-        return AprsUtil.getPos(this); 
+        return _decoded().pos(); 
     }
     
     
+    /**
+     * Get type of packet as used in filters (p, o, i, m, q, s, t, w, u or X).  
+     * This does not need to decode the report.
+     */
+    public char getFType() {
+        return AprsUtil.toFType(type); 
+    }
+    
+    
+    /* Text of packet. Built when first asked for, and again if a field is changed */
+    private record Text(String from, String to, String via, String report, boolean thirdparty,
+                        String from_orig, String to_orig, String via_orig, String line, String text) {}
+    private Text _text;
+    
+    /* Encoded text with line separator */
+    private record Wire(String text, byte[] bytes) {}
+    private Wire _wire;
+    
+    private static final String _lineSep = System.lineSeparator();
+    
+    
+    private Text _text() {
+        Text t = _text;
+        if (t == null || t.from() != from || t.to() != to || t.via() != via || t.report() != report 
+              || t.thirdparty() != thirdparty || t.from_orig() != from_orig 
+              || t.to_orig() != to_orig || t.via_orig() != via_orig) 
+        {
+            String line = from+">"+to +
+                ((via != null && via.length()>0) ? ","+via : "") + ":" + report;
+            String text = line;
+            if (thirdparty)
+                text = from_orig+">"+to_orig +
+                   ((via_orig != null && via_orig.length()>0) ? ","+via_orig : "") + ":}" + line;
+            t = new Text(from, to, via, report, thirdparty, from_orig, to_orig, via_orig, line, text);
+            _text = t;
+        }
+        return t;
+    }
+    
+    
+    /**
+     * Get the packet as a TNC2 line, FROM>TO,VIA:REPORT. If it is a third party 
+     * packet, this is the inner packet, without the third party header. 
+     */
+    public String toLine() {
+        return _text().line();
+    }
+    
+    
+    /**
+     * Get the packet on the wire form used on APRS-IS: text encoded in UTF-8,
+     * followed by a line separator. It is encoded once and shared by all 
+     * channels and clients that send it. The array must not be modified. 
+     *
+     * @param wrapped If true, the text is as from toString() (with third party 
+     *   header if it is a third party packet), otherwise as from toLine(). 
+     */
+    public byte[] getWire(boolean wrapped) {
+        String s = (wrapped ? toString() : toLine());
+        Wire w = _wire;
+        if (w == null || w.text() != s) {
+            w = new Wire(s, (s + _lineSep).getBytes(StandardCharsets.UTF_8));
+            _wire = w;
+        }
+        return w.bytes();
+    }
+    
+    
+    /**
+     * Get the packet as text. If it is a third party packet, it includes the 
+     * third party header. The text is built once. 
+     */
     public String toString() {  
-        String msg = from+">"+to +
-            ((via != null && via.length()>0) ? ","+via : "") + ":" + report;
-                  
-        if (thirdparty)
-            return from_orig+">"+to_orig +
-               ((via_orig != null && via_orig.length()>0) ? ","+via_orig : "") + ":}" + msg;
-        else     
-            return msg; 
+        return _text().text();
     }
 }
     
@@ -61,6 +61,10 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
     private List<ReportHandler> _subscribers = new LinkedList<ReportHandler>();
     private String _key;
     private AesGcmSivEncryption _encr;
+    
+    /* Parallel parsing. Packets are sharded on sender, one worker per lane */
+    private PipelineLanes<Received> _lanes = null;
+    private record Received(AprsPacket p, boolean dup) {}
 
 
     
@@ -71,10 +75,29 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
         _hmsFormat.setTimeZone(TimeZone.getTimeZone("GMT")); 
         _key = a.getProperty("message.auth.key", "NOKEY");
         _encr = new AesGcmSivEncryption(_key, Main.SALT_APRSPOS);
+        
+        int nlanes = a.getIntProperty("aprsparser.workers", 0);
+        if (nlanes > 0) {
+            int qsize = a.getIntProperty("aprsparser.queue", 1000);
+            _lanes = new PipelineLanes<Received>(a, "parser", nlanes, qsize, 
+                x -> x.p().from, x -> _receivePacket(x.p(), x.dup()));
+            a.log().info("AprsParser", "Parallel parsing with "+nlanes+" workers");
+        }
     }  
     
     
     
+    /**
+     * Return statistics of parser workers. Empty if parsing is not parallel.
+     */
+    public List<PipelineStage.Stats> getLaneStats() {
+        if (_lanes == null)
+            return new ArrayList<PipelineStage.Stats>();
+        return _lanes.getStats();
+    }
+    
+    
+    
     public void subscribe(ReportHandler subscriber)
       { _subscribers.add(subscriber); }
       
@@ -86,8 +109,22 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
     /**
      * Receive APRS packet. 
      * Duplicate packets are only parsed wrt. path (infrastructure analysis)
+     *
+     * If parsing is parallel, the packet is queued for the worker given by 
+     * the sender callsign, so packets from the same station (and its objects) 
+     * are parsed in order.  
      */
     public void receivePacket(AprsPacket p, boolean duplicate)
+    {
+        if (_lanes != null && p.from != null) 
+            _lanes.put(new Received(p, duplicate));
+        else
+            _receivePacket(p, duplicate);
+    }
+    
+    
+    
+    private void _receivePacket(AprsPacket p, boolean duplicate)
     {
         if (_conf.getDB() == null)
            return; 
@@ -193,7 +230,7 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
         int plen = pp.length;
         int tindex = -1, i=0;
         for (String x: pp) {
-           if (x.matches(".*\\*")) { 
+           if (x.endsWith("*")) { 
               tindex=i; 
               pp[i] = x.substring(0, x.length()-1); 
               break; 
@@ -222,7 +259,7 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
         /* Has packet been gated through APRS-IS?
          * The last node in path is igate
          */
-        if ((plen >= 2) && pp[plen-2].matches("qA.")) 
+        if ((plen >= 2) && pp[plen-2].length() == 3 && pp[plen-2].startsWith("qA")) 
         {
            if (tindex == -1) {
                Station to = _conf.getDB().getStation(pp[plen-1], null);
@@ -254,7 +291,8 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
         String msg = p.report;
         if (msg.matches("\\{\\{\\:.+") ) {
             AprsPacket pp = AprsChannel.decrypt(p, station.getIdent());
-            receivePacket(pp, false);
+            if (pp != null)
+                _receivePacket(pp, false);
         }
     }
     
@@ -405,6 +443,7 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
         ReportHandler.PosData pd = parseMicEPos(p, cm);
         if (pd == null || !pd.isValid())
             return;
+        p.setPosData(pd);
         
         String comment = cm[0];
         comment = parseComment(comment, new Date(), station, pd, p);
@@ -578,7 +617,7 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
      */
     private void parseStdAprs(AprsPacket p, String data, AprsPoint station, boolean timestamp, String pathinfo)
     {
-         Date time = p.time;
+         Date time = p.getTime();
          if (timestamp) {
             if (data.substring(1).matches("[0-9]{6}h.*")) 
                 time = parseTimestamp(data.substring(1), false);   
@@ -611,6 +650,7 @@ public class AprsParser extends AprsUtil implements AprsChannel.Receiver
          }
          if (pd==null || !pd.isValid())
             return;
+         p.setPosData(pd);
          if (pd.symbol == '_')
             comment = parseWX(comment);
               
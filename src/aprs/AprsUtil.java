@@ -114,10 +114,10 @@ public class AprsUtil
     
    /* Consider Moving this to AprsPacket */ 
    public static String[] getQcode(AprsPacket p) {
-      String[] vias = p.via.split(",(\\s)*");
+      String[] vias = p.getPath();
       
       for (int i=0; i<vias.length; i++) 
-         if (vias[i].charAt(0) == 'q') {
+         if (vias[i].length() > 0 && vias[i].charAt(0) == 'q') {
             String[] ret = new String[vias.length];
             int k=0;
             for (int j=i; j<vias.length; j++)
@@ -129,22 +129,28 @@ public class AprsUtil
     
     
     
-   /* Consider moving this to AprsPacket */
+   /**
+    * Get position from APRS packet. It is decoded once and cached on the packet. 
+    */
    public static Point getPos(AprsPacket p) 
-   {
-      ReportHandler.PosData pd = getPosData(p);
-      if (pd==null)
-         return null;
-      return new Point(pd.pos);
-   }
+      { return p.getPos(); }
    
    
    
    /**
     * Get position data including symbol information from APRS packet.
     * Returns full PosData with position, symbol, symtab, speed, course, etc.
+    * It is decoded once and cached on the packet. 
     */
    public static ReportHandler.PosData getPosData(AprsPacket p)
+      { return p.getPosData(); }
+   
+   
+   
+   /**
+    * Decode position data from APRS packet. 
+    */
+   public static ReportHandler.PosData decodePosData(AprsPacket p)
    {
       ReportHandler.PosData pd = 
          switch(p.type) {
@@ -160,6 +166,26 @@ public class AprsUtil
    
    
    
+   /**
+    * Type of packet as used in filters. 
+    */
+   public static char toFType(char type) {
+      return switch (type) {
+         case '!', '=','@', '/', '\'', '`'  -> 'p';
+         case ';' -> 'o';
+         case ')' -> 'i';
+         case ':' -> 'm';
+         case '?' -> 'q'; 
+         case '>' -> 's';
+         case 'T' -> 't';
+         case '_', '#', '*' -> 'w';
+         case '{' -> 'u';
+         default -> 'X';
+      };
+   }
+   
+   
+   
    /* Get position from object report */
    private static ReportHandler.PosData parseObjPos(AprsPacket p) {
       String msg = p.report; 
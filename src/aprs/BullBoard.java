@@ -208,9 +208,7 @@ public class BullBoard implements MessageProcessor.MessageHandler {
     public static Calendar utcTime = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.getDefault());
        
     
-    // FIXME: Move this to ServerConfig
-    private final ScheduledExecutorService scheduler =
-       Executors.newScheduledThreadPool(1);
+    private final ScheduledExecutorService scheduler = ExecService.scheduler();
   
   
   
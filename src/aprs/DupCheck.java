@@ -13,6 +13,7 @@
  */
  
 package no.polaric.aprsd.aprs;
+import no.polaric.aprsd.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
@@ -29,12 +30,14 @@ import java.time.format.DateTimeFormatter;
  * putIfAbsent() provides atomic check-and-insert semantics.  Cleanup of
  * the short-term realtime map is amortised: a full scan is triggered only
  * every CLEANUP_INTERVAL new insertions rather than on every call.
+ *
+ * See HashedDupCheck for an alternative with a fixed memory budget. 
  */
 public class DupCheck 
 {
-     private static final long RT_TIMEOUT      = 1000 * 30; /* 30 seconds */
-     private static final int  CLEANUP_INTERVAL = 200;      /* clean _realtime every N new entries */
-     private static final int  MAX_TIMESTAMPED  = 75000;    /* max entries in _timestamped */
+     protected static final long RT_TIMEOUT      = 1000 * 30; /* 30 seconds */
+     private static final int    CLEANUP_INTERVAL = 200;      /* clean _realtime every N new entries */
+     protected static final int  MAX_TIMESTAMPED  = 75000;    /* max entries in _timestamped */
 
      /* composed-key → first-seen time (ms); short-term window */
      private final ConcurrentHashMap<String, Long> _realtime = new ConcurrentHashMap<>();
@@ -45,11 +48,42 @@ public class DupCheck
      /* counts new insertions into _realtime to amortise cleanup */
      private final AtomicLong _insertions = new AtomicLong(0);
 
+     /* Statistics */
+     protected final AtomicLong _checked = new AtomicLong(0);
+     protected final AtomicLong _duplicates = new AtomicLong(0);
+
      /* Thread-safe date formatter – replaces SimpleDateFormat */
      private static final DateTimeFormatter _dhmsFormatter =
          DateTimeFormatter.ofPattern("ddHHmmss").withZone(ZoneOffset.UTC);
 
 
+     /**
+      * Statistics for admin interface. 
+      * collisions is the number of hash collisions detected (false positives 
+      * that were avoided) and overflows is the number of packets that were not 
+      * registered because the table was full. 
+      */
+     public record Stats (String type, long checked, long duplicates, long collisions, long overflows, int size) {}
+
+
+     /**
+      * Create duplicate checker. Type is given by the 'aprs.dupcheck' property: 
+      * 'map' (default) or 'hashed'. 
+      */
+     public static DupCheck create(AprsServerConfig conf)
+     {
+         if (conf != null && "hashed".equals(conf.getProperty("aprs.dupcheck", "map")))
+             return new HashedDupCheck(conf.getIntProperty("aprs.dupcheck.size", 32768));
+         return new DupCheck();
+     }
+
+
+     public Stats getStats() {
+         return new Stats("map", _checked.get(), _duplicates.get(), 0, 0,
+             _realtime.size() + _timestamped.size());
+     }
+
+
      /** Remove entries older than RT_TIMEOUT from _realtime. */
      private void cleanupRealtime()
      {
@@ -87,6 +121,17 @@ public class DupCheck
      {
          if (report == null || report.isEmpty())
              return false;
+         _checked.incrementAndGet();
+         if (_checkPacket(from, to, report)) {
+             _duplicates.incrementAndGet();
+             return true;
+         }
+         return false;
+     }
+
+
+     private boolean _checkPacket(String from, String to, String report)
+     {
 
          String composed = from + to + report;
          long   now      = System.currentTimeMillis();
@@ -1,6 +1,6 @@
  
 /* 
- * Copyright (C) 2016-2023 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2016-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -33,16 +33,25 @@ public class GpsPosition extends OwnPosition
     public static SimpleDateFormat linuxtimeformat = new SimpleDateFormat("MMddHHmmyy.ss");
 
     
-    public class GpsParser extends Thread {
+    public class GpsParser implements Runnable {
         private  SerialPort     _serialPort;
         private  BufferedReader _in;
-        private  boolean        _running = true;
+        private  volatile boolean _running = true;
+        private  Thread         _thread;
 
         
+        /* Serial port reads block in native code, so this is a platform thread */
+        public void start() {
+            _thread = ExecService.startPlatform("GpsParser", this, false);
+        }
+        
+        
         public void deactivate() {
             _running = false;
-            interrupt();
-            try { join(); } catch(Exception e) {} ; 
+            if (_thread == null)
+                return;
+            _thread.interrupt();
+            try { _thread.join(); } catch(Exception e) {} ; 
         }
         
         
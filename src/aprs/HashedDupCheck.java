@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.aprs;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.time.LocalDate;
+
+
+
+/**
+ * Duplicate checking with a fixed memory budget.
+ *
+ * Packets are identified by a 64-bit hash of from, to and report, with a
+ * 32-bit check value to detect hash collisions. No strings are composed or
+ * stored. Entries are kept in primitive open-addressing tables, in two
+ * generations: the current and the previous. New entries go into the
+ * current generation. When it is rotated, the previous is cleared and
+ * reused.
+ *
+ * For the short-term window, generations are rotated by time (at least
+ * RT_TIMEOUT apart), so an entry is kept for at least RT_TIMEOUT and the
+ * window is exact. For timestamped reports, generations are rotated by count,
+ * so the oldest entries are dropped first.
+ *
+ * Tables are split in segments with a lock each. If a table is full, the
+ * packet is not registered (counted as overflow).
+ */
+public class HashedDupCheck extends DupCheck
+{
+     private static final int SEGMENTS = 16;     /* Must be a power of 2 */
+
+     private final Segment[] _realtime = new Segment[SEGMENTS];
+     private final Segment[] _timestamped = new Segment[SEGMENTS];
+     private final AtomicLong _collisions = new AtomicLong(0);
+     private final AtomicLong _overflows = new AtomicLong(0);
+
+
+
+     /**
+      * Table of 64-bit keys with a check value and a time. Key 0 means empty.
+      */
+     private static class Table
+     {
+         final long[] keys;
+         final int[]  check;
+         final long[] time;
+         final int    mask;
+         int          size = 0;
+
+         Table(int cap) {
+             keys = new long[cap];
+             check = new int[cap];
+             time = new long[cap];
+             mask = cap - 1;
+         }
+
+         /* Return index of key, or -(index of free slot)-1 if not found */
+         int find(long key) {
+             int i = (int) key & mask;
+             while (keys[i] != 0) {
+                 if (keys[i] == key)
+                     return i;
+                 i = (i + 1) & mask;
+             }
+             return -i - 1;
+         }
+
+         void put(int free, long key, int chk, long t) {
+             keys[free] = key;
+             check[free] = chk;
+             time[free] = t;
+             size++;
+         }
+
+         void clear() {
+             Arrays.fill(keys, 0);
+             size = 0;
+         }
+     }
+
+
+
+     /**
+      * Segment with two generations.
+      */
+     private class Segment
+     {
+         Table cur, prev;
+         final int max;       /* Max entries in a generation */
+         long rotated = 0;
+
+         Segment(int max) {
+             this.max = max;
+             int cap = Integer.highestOneBit(Math.max(4, max * 4 / 3)) * 2;
+             cur = new Table(cap);
+             prev = new Table(cap);
+         }
+
+         void rotate() {
+             Table t = prev;
+             t.clear();
+             prev = cur;
+             cur = t;
+         }
+
+
+         /*
+          * Return true if key is registered and was registered less than 'window' ms ago.
+          * If not, register it with the given time.
+          */
+         synchronized boolean check(long key, int chk, long now, long window)
+         {
+             int i = cur.find(key);
+             if (i >= 0) {
+                 if (cur.check[i] != chk)
+                     _collisions.incrementAndGet();
+                 else if (now - cur.time[i] < window)
+                     return true;
+                 cur.check[i] = chk;
+                 cur.time[i] = now;
+                 return false;
+             }
+             int j = prev.find(key);
+             if (j >= 0) {
+                 if (prev.check[j] != chk)
+                     _collisions.incrementAndGet();
+                 else if (now - prev.time[j] < window)
+                     return true;
+             }
+             if (cur.size >= max) {
+                 _overflows.incrementAndGet();
+                 return false;
+             }
+             cur.put(-i - 1, key, chk, now);
+             return false;
+         }
+
+
+         /* Check in the short-term window. Rotate generations by time */
+         synchronized boolean checkRealtime(long key, int chk, long now)
+         {
+             if (now - rotated >= 2 * RT_TIMEOUT) {
+                 cur.clear();
+                 prev.clear();
+                 rotated = now;
+             }
+             else if (now - rotated >= RT_TIMEOUT) {
+                 rotate();
+                 rotated = now;
+             }
+             return check(key, chk, now, RT_TIMEOUT);
+         }
+
+
+         /* Check for any earlier instance. Rotate generations by count */
+         synchronized boolean checkPermanent(long key, int chk)
+         {
+             if (cur.size >= max)
+                 rotate();
+             return check(key, chk, 0, 1);
+         }
+
+
+         synchronized int size()
+             { return cur.size + prev.size; }
+     }
+
+
+
+     /**
+      * Constructor.
+      * @param rtsize Max number of entries registered in the short-term window.
+      */
+     public HashedDupCheck(int rtsize)
+     {
+         for (int i=0; i<SEGMENTS; i++) {
+             _realtime[i] = new Segment(Math.max(16, rtsize / SEGMENTS));
+             _timestamped[i] = new Segment(Math.max(16, MAX_TIMESTAMPED / 2 / SEGMENTS));
+         }
+     }
+
+
+
+     /* FNV-1a over the characters of a string, followed by a separator. */
+     private static long _fnv(long h, String s)
+     {
+         for (int i=0; i<s.length(); i++) {
+             h ^= s.charAt(i);
+             h *= 0x100000001b3L;
+         }
+         h ^= 0xffff;
+         return h * 0x100000001b3L;
+     }
+
+
+     /* Final mix (from MurmurHash3). Key is never 0 */
+     private static long _mix(long h)
+     {
+         h ^= h >>> 33;
+         h *= 0xff51afd7ed558ccdL;
+         h ^= h >>> 33;
+         h *= 0xc4ceb9fe1a85ec53L;
+         h ^= h >>> 33;
+         return (h == 0 ? 1 : h);
+     }
+
+
+     private static Segment _segment(Segment[] s, long key)
+         { return s[(int) (key >>> 59) & (SEGMENTS-1)]; }
+
+
+
+     /**
+      * Timestamp-based duplicate check (used for extra position reports).
+      * Returns true if the (callsign, timestamp) pair has been seen before.
+      * Time is compared at second resolution (day of month, hour, minute,
+      * second in UTC), like DupCheck.
+      */
+     @Override public boolean checkTS(String from, Date ts)
+     {
+         long secs = Math.floorDiv(ts.getTime(), 1000L);
+         long day = LocalDate.ofEpochDay(Math.floorDiv(secs, 86400L)).getDayOfMonth();
+         long dhms = day * 86400L + Math.floorMod(secs, 86400L);
+
+         long key = _mix((_fnv(0xcbf29ce484222325L, from) ^ dhms) * 0x100000001b3L);
+         int chk = from.hashCode() * 31 + (int) dhms;
+         return _segment(_timestamped, key).checkPermanent(key, chk);
+     }
+
+
+
+     /**
+      * Returns true if the packet is a duplicate.
+      */
+     @Override public boolean checkPacket(String from, String to, String report)
+     {
+         if (report == null || report.isEmpty())
+             return false;
+         _checked.incrementAndGet();
+
+         long h = _fnv(_fnv(_fnv(0xcbf29ce484222325L, from), to), report);
+         long key = _mix(h);
+         int chk = (from.hashCode() * 31 + to.hashCode()) * 31 + report.hashCode();
+
+         /* Timestamped position reports are unique; any repeat seen before
+          * can therefore be regarded as a duplicate. They are also registered
+          * in the short-term window.
+          */
+         char type = report.charAt(0);
+         boolean dup = ((type == '@' || type == '/') && _segment(_timestamped, key).checkPermanent(key, chk))
+                     || _segment(_realtime, key).checkRealtime(key, chk, System.currentTimeMillis());
+         if (dup)
+             _duplicates.incrementAndGet();
+         return dup;
+     }
+
+
+
+     @Override public Stats getStats() {
+         int size = 0;
+         for (int i=0; i<SEGMENTS; i++)
+             size += _realtime[i].size() + _timestamped[i].size();
+         return new Stats("hashed", _checked.get(), _duplicates.get(),
+             _collisions.get(), _overflows.get(), size);
+     }
+}
@@ -39,6 +39,10 @@ public class Igate implements AprsChannel.Receiver, ManagedObject
     private Logfile  _log;
     private AprsServerConfig _conf;
     
+    /* Path elements that prevent gating */
+    private static final Pattern _noInet = Pattern.compile("(TCP[A-Z0-9]{2})|NOGATE|RFONLY|NO_TX");
+    private static final Pattern _noRf = Pattern.compile("(TCPXX)|NOGATE|RFONLY|NO_TX");
+    
     
     public Igate(AprsServerConfig conf) 
     {
@@ -133,7 +137,7 @@ public class Igate implements AprsChannel.Receiver, ManagedObject
         * by the channel-implementation.  
         */
        if ( p.type == '?' /* QUERY */ ||
-            (p.via != null && p.via.matches(".*((TCP[A-Z0-9]{2})|NOGATE|RFONLY|NO_TX).*") ) )
+            (p.via != null && _noInet.matcher(p.via).find()) )
            return;
             
        _msgcnt++;
@@ -171,7 +175,7 @@ public class Igate implements AprsChannel.Receiver, ManagedObject
                ! _rfChan.heard(p.from)
                       
           && /* AND No TCPXX, NOGATE, or RFONLY in header */
-               ! p.via.matches(".*((TCPXX)|NOGATE|RFONLY|NO_TX).*") 
+               ! _noRf.matcher(p.via).find() 
           
           && /* Not encrypted */
                ! p.to.equals(Main.toaddrE)
@@ -210,13 +214,18 @@ public class Igate implements AprsChannel.Receiver, ManagedObject
     
     private boolean object_in_range(AprsPacket p, int range)
     {
-       /* We assume that object's position is already parsed and in database. */
        if (_conf.getOwnPos() == null || _conf.getOwnPos().getPosition() == null)
             return false;
-       AprsPoint obj = (AprsPoint) _conf.getDB().getItem(p.msgto, null);
-       if (obj == null)
+            
+       /* Use the position in the report (decoded once per packet). If it 
+        * cannot be decoded, use the object's position in the database.
+        */
+       Point pos = p.getPos();
+       if (pos == null)
+            pos = (AprsPoint) _conf.getDB().getItem(p.msgto, null);
+       if (pos == null)
             return false;
-       return (obj.distance(_conf.getOwnPos()) < range*1000);
+       return (pos.distance(_conf.getOwnPos()) < range*1000);
     }
          
 
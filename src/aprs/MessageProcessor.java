@@ -163,7 +163,7 @@ public class MessageProcessor implements Runnable, Serializable
        _key         = _conf.getProperty("message.auth.key", "NOKEY");
        _defaultPath = _conf.getProperty("message.rfpath", "WIDE1-1");
        _alwaysRf    = _conf.getProperty("message.alwaysRf", "");
-       _thread      = new Thread(this, "MessageProcessor-"+(threadid++));
+       _thread      = ExecService.thread("MessageProcessor-"+(threadid++), this);
        _encr        = new AesGcmSivEncryption(_key, Main.SALT_APRSMESSAGE);
    }
    
@@ -50,8 +50,7 @@ public class OwnObjects implements Runnable
         _conf = conf;
         /* Should not expire as long as we have objects */        
          if (_txPeriod > 0) {
-            _thread = new Thread(this, "OwnObjects-"+(_tid++));
-            _thread.start();
+            _thread = ExecService.start("OwnObjects-"+(_tid++), this);
          }
     }  
        
@@ -247,6 +246,25 @@ public class OwnObjects implements Runnable
     }
 
 
+    public void writeSnapshot(DataOutput out) throws IOException
+    { 
+       synchronized(this) {
+          out.writeInt(_ownObjects.size());
+          for (String s: _ownObjects) 
+              out.writeUTF(s); 
+       }
+    }
+    
+    
+    public void readSnapshot(DataInput in) throws IOException
+    {
+       int n = in.readInt(); 
+       for (int i=0; i<n; i++)
+          _ownObjects.add(in.readUTF()); 
+    }
+    
+    
+
     public void restore(ObjectInput ifs)
      {
         try { 
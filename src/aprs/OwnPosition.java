@@ -61,8 +61,7 @@ public class OwnPosition extends Station implements Runnable
         init();
         
         if (_txOn) {
-           _thread = new Thread(this, "OwnPosition-"+(_tid++));
-           _thread.start();
+           _thread = ExecService.start("OwnPosition-"+(_tid++), this);
         }
     }
     
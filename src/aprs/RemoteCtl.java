@@ -75,7 +75,6 @@ public class RemoteCtl implements Runnable, MessageProcessor.Notification
    private boolean _parentCon = false; 
    private int     _tryPause = 0;
    private Thread  _thread;
-   private static ScheduledExecutorService gc = Executors.newScheduledThreadPool(5);
        
    private MessageProcessor _msg;
    private MessageProcessor.MessageHandler _pmsg;
@@ -152,8 +151,7 @@ public class RemoteCtl implements Runnable, MessageProcessor.Notification
        _conf = conf;
        _msg = mp;
         init(); 
-       _thread = new Thread(this, "RemoteCtl-"+(threadid++));
-       _thread.start();
+       _thread = ExecService.start("RemoteCtl-"+(threadid++), this);
    }
    
    
@@ -530,8 +528,7 @@ public class RemoteCtl implements Runnable, MessageProcessor.Notification
             addChild(sender.getIdent(), rad, new LatLng(lat,lng));
             
             /* Notify app but schedule it to later to allow ack to be sent first */
-            ScheduledExecutorService hdlr = Executors.newSingleThreadScheduledExecutor();
-            hdlr.schedule(
+            ExecService.scheduler().schedule(
               () -> _connectcb.connect(sender.getIdent()
             ), 1, TimeUnit.SECONDS);
         }
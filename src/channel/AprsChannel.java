@@ -30,7 +30,8 @@ public abstract class AprsChannel extends Channel
 {
      private static final long HRD_TIMEOUT = 1000 * 60 * 40; /* 40 minutes */
      protected boolean _logPackets = false; 
-     protected LinkedHashMap<String, Heard> _heard = new LinkedHashMap<String, Heard>();
+     private static int _heardMax = 20000;
+     protected HeardTable _heard = new HeardTable(HRD_TIMEOUT, _heardMax);
      protected boolean _decryptOnSend = false; 
     
      /* Statistics */
@@ -43,27 +44,26 @@ public abstract class AprsChannel extends Channel
      private static AesGcmSivEncryption _cencr; // Channel encryption - use only for transit over internet! 
      protected static AprsServerConfig  _conf; 
      
+     /* Receive pipeline. Null if packets are processed by the receiving thread */
+     private static boolean _usePipeline = false;
+     private volatile PipelineStage<Raw>      _framing;
+     private volatile PipelineStage<Received> _dedupe, _fanout;
      
-     /**
-      * Information about APRS packet heard on the channel. 
-      */ 
-     protected static class Heard {
-         public Date time; 
-         public String path;
-         public Heard(Date t, String p)
-           { time = t; path = p;}
-     }
-     
+     private record Raw(String text, AprsPacket p, boolean dup) {}
+     private record Received(AprsPacket p, boolean dup) {}
      
      
      public static void init(AprsServerConfig conf) {
         AprsFilter.init(conf); 
         _conf = conf;
+        _dupCheck = DupCheck.create(conf);
         canSend = true;
         String myCall = conf.getProperty("default.mycall", "NOCALL").toUpperCase();
         if ("NOCALL".equals(myCall))
             canSend = false;
         
+        _usePipeline = conf.getBoolProperty("channel.pipeline.on", false);
+        _heardMax = conf.getIntProperty("channel.heard.max", 20000);
         _key = conf.getProperty("message.auth.key", "NOKEY");
         _encr = new AesGcmSivEncryption(_key, Main.SALT_APRSPOS);
      }
@@ -101,19 +101,6 @@ public abstract class AprsChannel extends Channel
        _heardPackets = _duplicates = _sent = 0;
      }
      
-     private void removeOldHeardEntries()
-     {
-          Iterator<Heard> it = _heard.values().iterator();
-          Date now = new Date();
-          while (it.hasNext()) {
-              Date x = it.next().time;
-              if (now.getTime() > x.getTime() + HRD_TIMEOUT)
-                 it.remove();
-              else
-                 return;
-          }
-     }
-
     
 
     /**
@@ -171,7 +158,7 @@ public abstract class AprsChannel extends Channel
       if (ir != null)
          _dupCheck = ir.getDupCheck();
       else
-         _dupCheck = new DupCheck();
+         _dupCheck = DupCheck.create(_conf);
     }
     
     public boolean isInRouter() {
@@ -202,8 +189,7 @@ public abstract class AprsChannel extends Channel
       */
     public boolean heard(String call)
      {
-         removeOldHeardEntries();
-         return _heard.containsKey(call);
+         return _heard.contains(call);
      }
          
   
@@ -212,11 +198,16 @@ public abstract class AprsChannel extends Channel
      */
     public String heardPath(String call)
      {
-         Heard x = _heard.get(call);
-         if (x==null)
-            return null;
-         else
-            return x.path;
+         return _heard.path(call);
+     }
+     
+     
+    /**
+     * Statistics of the heard table: size, callsigns per digipeater, etc. 
+     */
+    public HeardTable.Stats getHeardStats()
+     {
+         return _heard.getStats();
      }
      
     /**
@@ -277,7 +268,7 @@ public abstract class AprsChannel extends Channel
      * Number of stations heard.
      */     
     public int nHeard()
-       { return _heard.keySet().size(); }
+       { return _heard.size(); }
        
     public long nHeardPackets()
        { return _heardPackets; }
@@ -367,7 +358,7 @@ public abstract class AprsChannel extends Channel
              var pto=p.to;
              var pvia=p.via;
              
-             p = AprsPacket.fromString(p.report.substring(1, p.report.length()));
+             p = AprsPacket.parse(p.report, 1, p.report.length());
              if (p != null) {
                 p.type = p.report.charAt(0);
                 p.thirdparty = true; 
@@ -410,6 +401,11 @@ public abstract class AprsChannel extends Channel
     { 
        if (packet == null || packet.length() < 1)
           return false; 
+       var framing = _pipeline();
+       if (framing != null) {
+          framing.put(new Raw(packet, null, dup));
+          return true;
+       }
        AprsPacket p = AprsPacket.fromString(packet);
 
        return receivePacket(p, dup);
@@ -417,6 +413,81 @@ public abstract class AprsChannel extends Channel
     
     
     
+    /*
+     * Set up the receive pipeline if it is configured and not set up already. 
+     * Stages are: framing (text to packet, if not parsed already), dedupe (check 
+     * report, duplicate check and heard table) and fanout (deliver to receivers). 
+     * The first stage drops packets if it is full, so that the receiving thread is never blocked. The 
+     * other stages block (backpressure). Each stage has one worker, so that 
+     * packets are checked, counted and delivered in the order they are received. 
+     *
+     * Each stage refers to the next stage directly, not through the fields, so 
+     * workers that are still running when the pipeline is stopped don't see null. 
+     * Putting on a stopped stage counts as a drop. 
+     */
+    private PipelineStage<Raw> _pipeline()
+    {
+       if (!_usePipeline)
+          return null;
+       var framing = _framing;
+       if (framing != null)
+          return framing;
+          
+       synchronized (this) {
+          if (_framing == null) {
+             String pfx = "channel.pipeline";
+             var fanout = PipelineStage.<Received>create(_conf, pfx, "fanout", 
+                x -> _deliver(x.p(), x.dup()), 1000, PipelineStage.Policy.BLOCK);
+             var dedupe = new PipelineStage<Received>(_conf, "dedupe", 
+                x -> _dedupe(x.p(), x.dup(), fanout), _conf.getIntProperty(pfx+".dedupe.queue", 1000), 
+                1, PipelineStage.Policy.BLOCK);
+             _fanout = fanout;
+             _dedupe = dedupe;
+             _framing = PipelineStage.create(_conf, pfx, "framing", 
+                x -> { 
+                   AprsPacket p = (x.p() != null ? x.p() : AprsPacket.fromString(x.text())); 
+                   if (p != null) 
+                      dedupe.put(new Received(p, x.dup()));
+                }, 10000, PipelineStage.Policy.DROP);
+          }
+          return _framing;
+       }
+    }
+    
+    
+    
+    /**
+     * Return statistics of pipeline stages. Empty if pipeline is not used. 
+     */
+    public synchronized List<PipelineStage.Stats> getPipelineStats()
+    {
+       List<PipelineStage.Stats> res = new ArrayList<PipelineStage.Stats>();
+       if (_framing != null) {
+          res.add(_framing.getStats());
+          res.add(_dedupe.getStats());
+          res.add(_fanout.getStats());
+       }
+       return res;
+    }
+    
+    
+    
+    /**
+     * Stop the pipeline threads. It is set up again when needed. 
+     */
+    public synchronized void stopPipeline()
+    {
+       if (_framing == null)
+          return;
+       _framing.shutdown();
+       _dedupe.shutdown();
+       _fanout.shutdown();
+       _framing = null;
+       _dedupe = _fanout = null; 
+    }
+    
+    
+    
     /**
      * Process incoming packet. 
      * To be called from subclass. Parses packet, updates heard table, checks for
@@ -429,7 +500,22 @@ public abstract class AprsChannel extends Channel
     {      
        if (p == null)
           return false; 
-      
+       var framing = _pipeline();
+       if (framing != null) {
+          framing.put(new Raw(null, p, dup));
+          return true;
+       }
+       return _dedupe(p, dup, null);
+    }
+    
+    
+    
+    /* 
+     * Check packet, do duplicate check and register heard. If ok, deliver 
+     * packet to receivers, through the fanout stage if given. 
+     */
+    private boolean _dedupe(AprsPacket p, boolean dup, PipelineStage<Received> fanout)
+    {
        p = checkReport(p); 
        if (p==null)
           return false;
@@ -448,10 +534,20 @@ public abstract class AprsChannel extends Channel
        else
           _duplicates++;
           
-       /* Pass the packet to registered receivers: Aprs-parser, igate, etc.. */
+       if (fanout != null)
+          fanout.put(new Received(p, dup));
+       else
+          _deliver(p, dup);
+       return !dup;
+    }
+    
+    
+    
+    /* Pass the packet to registered receivers: Aprs-parser, igate, etc.. */
+    private void _deliver(AprsPacket p, boolean dup)
+    {
        for (Receiver r: _rcv)
            r.receivePacket(p, dup);
-       return !dup;
     }
     
 
@@ -51,6 +51,9 @@ import java.util.*;
  *    For example 'a &amp;b &amp;c' means '(a AND b AND c)'. 'a &amp;b c' means '(a AND b) OR c'.
  * Conjunctions can also be used with exceptions. 
  *    For example -t/x &amp;p/a means NOT(t/x AND p/a)
+ *
+ * Identical parts of filters are shared between filters, and can be evaluated once 
+ * per packet for many clients. See FilterEngine.java. 
  */
 
  
@@ -104,7 +107,7 @@ public abstract class AprsFilter {
         }
         
         @Override public boolean test(AprsPacket p) {
-            Point pktpos = AprsUtil.getPos(p); 
+            Point pktpos = p.getPos(); 
             if (uleft == null || lright == null || pktpos == null)
                 return false;
             return pktpos.isInside(uleft, lright);
@@ -121,7 +124,7 @@ public abstract class AprsFilter {
         protected int dist; // in km
         
         @Override public boolean test(AprsPacket p) {
-            Point pktpos = AprsUtil.getPos(p); 
+            Point pktpos = p.getPos(); 
             if (pos==null || pktpos==null)
                 return false;
             return (!pos.isNull() && pos.distance(pktpos) <= dist*1000);
@@ -149,7 +152,13 @@ public abstract class AprsFilter {
      * m - my range - dist.
      */
     public static class ItemRange extends Range {
+        /* The item is looked up again after this time (ms). Its position is 
+         * updated in place, so this is only to see if it is added or removed. 
+         */
+        private static final long ITEM_REFRESH = 30000;
+        
         protected String item;
+        private long _looked = 0;
         
         public ItemRange(String it, String[] parms, int index) {
             item = it;
@@ -163,7 +172,11 @@ public abstract class AprsFilter {
         public String toString() {return "ItemRange";}
         
         @Override public boolean test(AprsPacket p) {
-            pos = _conf.getDB().getItem(item, null);
+            long now = System.currentTimeMillis();
+            if (pos == null || now - _looked > ITEM_REFRESH) {
+                pos = _conf.getDB().getItem(item, null);
+                _looked = now;
+            }
             return super.test(p);
         }
     }
@@ -305,7 +318,7 @@ public abstract class AprsFilter {
         @Override public boolean test(AprsPacket p) {
             if (p.via == null)
                 return false; 
-            String[] digis = p.via.split(",");
+            String[] digis = p.getPath();
             int i;
             for (i=digis.length; i>0; i--)
                 if (DIGI_USED.matcher(digis[i-1]).matches())
@@ -450,7 +463,7 @@ public abstract class AprsFilter {
         }
         
         @Override public boolean test(AprsPacket p) {
-            ReportHandler.PosData pd = AprsUtil.getPosData(p);
+            ReportHandler.PosData pd = p.getPosData();
             if (pd == null)
                 return false;
                 
@@ -565,6 +578,7 @@ public abstract class AprsFilter {
      */
     public static class Combined extends AprsFilter {
         List<AprsFilter[]> _flist, _xlist;
+        List<AprsFilter> _shared = new ArrayList<AprsFilter>(); // Shared sub-filters (see FilterEngine)
         String _client; // Callsign of the logged in client
         
         public Combined(String cl, String userid) {
@@ -605,27 +619,17 @@ public abstract class AprsFilter {
                     findex = 0;
                 }
                 
-                f[findex] = switch (cmd) {
-                    case "*" -> new All();
-                    case "a" -> new Area(ff);
-                    case "p" -> new Prefix(ff);
-                    case "P" -> _predefined.get(ff[1]);
-                    case "b" -> new Budlist(ff);
-                    case "u" -> new Unproto(ff);
-                    case "d" -> new Digi(ff);
-                    case "t" -> new Type(ff);
-                    case "r" -> new ERange(ff);
-                    case "m" -> new ItemRange(_client, ff);
-                    case "f" -> new ItemRange(ff[1], ff, 2);
-                    case "e" -> new Entry(ff);
-                    case "o" -> new Object(ff);
-                    case "os" -> new StrictObject(ff);
-                    case "s" -> new Symbol(ff);
-                    case "g" -> new GroupMsg(ff);
-                    case "q" -> new QConstruct(ff);
-                    case "C" -> new Chan(ff);
-                    default -> null;
-                }; 
+                if (cmd.equals("P"))
+                    f[findex] = _predefined.get(ff[1]);
+                else {
+                    /* Identical sub-filters are shared. 'm' depends on the client */
+                    String c = cmd;
+                    String key = (c.equals("m") ? c+"/"+_client+"/" : c+"/") 
+                        + String.join("/", Arrays.copyOfRange(ff, 1, ff.length));
+                    f[findex] = FilterEngine.get(key, () -> _create(c, ff));
+                    if (f[findex] != null)
+                        _shared.add(f[findex]);
+                }
                 if (f[findex] == null) {
                     _conf.log().warn("AprsFilter", "Invalid filter: "+fstr);
                     f[findex] = new Nothing();
@@ -642,19 +646,61 @@ public abstract class AprsFilter {
         }
         
         
+        private AprsFilter _create(String cmd, String[] ff) {
+            return switch (cmd) {
+                case "*" -> new All();
+                case "a" -> new Area(ff);
+                case "p" -> new Prefix(ff);
+                case "b" -> new Budlist(ff);
+                case "u" -> new Unproto(ff);
+                case "d" -> new Digi(ff);
+                case "t" -> new Type(ff);
+                case "r" -> new ERange(ff);
+                case "m" -> new ItemRange(_client, ff);
+                case "f" -> new ItemRange(ff[1], ff, 2);
+                case "e" -> new Entry(ff);
+                case "o" -> new Object(ff);
+                case "os" -> new StrictObject(ff);
+                case "s" -> new Symbol(ff);
+                case "g" -> new GroupMsg(ff);
+                case "q" -> new QConstruct(ff);
+                case "C" -> new Chan(ff);
+                default -> null;
+            };
+        }
+        
+        
+        /**
+         * Release shared sub-filters. To be called when the filter is no longer used.
+         */
+        @Override public synchronized void release() {
+            for (AprsFilter f : _shared)
+                FilterEngine.release(f);
+            _shared.clear();
+        }
+        
+        
         /** 
          * Go through rules and test.
          * Negative results of exception rules will override any other rule regardless of order
          * Expressions are on a disjunctive normal form, so each part can be seen as a conjunction
          */
         public boolean test(AprsPacket p) {
+            return test(p, null);
+        }
+        
+        
+        /** 
+         * Go through rules and test, using results of sub-filters in memo if given.
+         */
+        @Override public boolean test(AprsPacket p, FilterEngine.Memo m) {
             /* Check exceptions first - if any match, result is false */
             for (AprsFilter[] f: _xlist)
-                if (ctest(f, p)) return false;
+                if (ctest(f, p, m)) return false;
                 
             /* Check positive filters - if any match, result is true */
             for (AprsFilter[] f: _flist)
-                if (ctest(f, p)) return true;
+                if (ctest(f, p, m)) return true;
                 
             return false; 
         }
@@ -663,11 +709,11 @@ public abstract class AprsFilter {
         /* 
          * Conjunction. Return true only if all parts are true 
          */
-        private boolean ctest(AprsFilter[] conj, AprsPacket p) {
+        private boolean ctest(AprsFilter[] conj, AprsPacket p, FilterEngine.Memo m) {
             for (AprsFilter f : conj) {
                 if (f==null)
                     break;
-                if (!f.test(p)) return false;
+                if (!(m == null ? f.test(p) : m.test(f))) return false;
             }
             return true;
         }
@@ -709,19 +755,24 @@ public abstract class AprsFilter {
     }
     
     
+    /**
+     * Test packet. If a memo is given, results of shared sub-filters are 
+     * taken from it (see FilterEngine).
+     */
+    public boolean test(AprsPacket p, FilterEngine.Memo m) {
+        return (m == null ? test(p) : m.test(this));
+    }
+    
+    
+    /**
+     * Release resources held by the filter (shared sub-filters). 
+     */
+    public void release() {
+    }
+    
+    
     public static char toFType(AprsPacket p) {
-        return switch (p.type) {
-            case '!', '=','@', '/', '\'', '`'  -> 'p';
-            case ';' -> 'o';
-            case ')' -> 'i';
-            case ':' -> 'm';
-            case '?' -> 'q'; 
-            case '>' -> 's';
-            case 'T' -> 't';
-            case '_', '#', '*' -> 'w';
-            case '{' -> 'u';
-            default -> 'X';
-        };
+        return p.getFType();
     }
     
     
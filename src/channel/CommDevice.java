@@ -58,8 +58,8 @@
         _worker = w;
         _failHandler = fh;
         _running = true; 
-        _thread = new Thread(this, "commDevice."+_ident);
-        _thread.start();
+        /* Device I/O may block in native code. Use a platform thread */
+        _thread = ExecService.startPlatform("commDevice."+_ident, this, false);
     }
     
     
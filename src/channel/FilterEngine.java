@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import no.polaric.aprsd.*;
+import no.polaric.aprsd.aprs.*;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+
+
+/**
+ * Shared sub-filters and evaluation of filters for many clients.
+ *
+ * The parts of combined filters (e.g. t/p, p/LA or r/lat/lon/dist) are
+ * compiled into shared sub-filters. Identical parts (same command and
+ * parameters, and same client for 'm') are created once and shared by all
+ * filters using them. Shared sub-filters are reference counted and removed
+ * when no filter uses them.
+ *
+ * When a packet is tested against the filters of many clients, results are
+ * kept in a Memo for the packet, so that each distinct sub-filter is
+ * evaluated only once per packet. Range filters with a fixed position are in
+ * a spatial index (a grid of 1x1 degree cells). The ranges that contain a
+ * packet's position are found with one lookup.
+ */
+public class FilterEngine
+{
+    private static class Shared {
+        AprsFilter filter;
+        int refs = 0;
+        Shared(AprsFilter f) { filter = f; }
+    }
+
+    private static final Map<String, Shared> _shared = new HashMap<String, Shared>();
+    private static final Map<AprsFilter, String> _keyOf = new IdentityHashMap<AprsFilter, String>();
+    private static final RangeIndex _ranges = new RangeIndex();
+
+
+
+    /**
+     * Spatial index of range filters with a fixed position. Each range is
+     * registered in the cells its bounding box overlaps. Large ranges (or near
+     * the poles) are kept in a separate list and always checked.
+     */
+    private static class RangeIndex
+    {
+        private static final int MAX_CELLS = 64;
+
+        private final Map<Long, List<AprsFilter.ERange>> _cells = new ConcurrentHashMap<Long, List<AprsFilter.ERange>>();
+        private final List<AprsFilter.ERange> _wide = new CopyOnWriteArrayList<AprsFilter.ERange>();
+        private final Map<AprsFilter.ERange, long[]> _cellsOf = new ConcurrentHashMap<AprsFilter.ERange, long[]>();
+
+
+        private static long _key(int ilat, int ilng)
+            { return ((long) ilat << 32) | (Math.floorMod(ilng, 360) & 0xffffffffL); }
+
+
+        /* Return keys of the cells overlapped by a range, or null if it is too large */
+        private static long[] _cells(AprsFilter.ERange r)
+        {
+            LatLng c = r.pos.getPosition();
+            double dlat = r.dist / 110.0;
+            if (Math.abs(c.getLat()) + dlat >= 89)
+                return null;
+            double dlng = dlat / Math.cos(Math.toRadians(Math.abs(c.getLat()) + dlat));
+            if (dlng >= 180)
+                return null;
+            int lat0 = (int) Math.floor(c.getLat() - dlat), lat1 = (int) Math.floor(c.getLat() + dlat);
+            int lng0 = (int) Math.floor(c.getLng() - dlng), lng1 = (int) Math.floor(c.getLng() + dlng);
+            if ((long) (lat1-lat0+1) * (lng1-lng0+1) > MAX_CELLS)
+                return null;
+
+            long[] keys = new long[(lat1-lat0+1) * (lng1-lng0+1)];
+            int i = 0;
+            for (int y=lat0; y<=lat1; y++)
+                for (int x=lng0; x<=lng1; x++)
+                    keys[i++] = _key(y, x);
+            return keys;
+        }
+
+
+        synchronized void add(AprsFilter.ERange r)
+        {
+            if (r.pos == null || r.pos.isNull())
+                return;
+            long[] keys = _cells(r);
+            if (keys == null)
+                _wide.add(r);
+            else
+                for (long k : keys)
+                    _cells.computeIfAbsent(k, x -> new CopyOnWriteArrayList<AprsFilter.ERange>()).add(r);
+            _cellsOf.put(r, (keys == null ? new long[0] : keys));
+        }
+
+
+        synchronized void remove(AprsFilter.ERange r)
+        {
+            long[] keys = _cellsOf.remove(r);
+            if (keys == null)
+                return;
+            _wide.remove(r);
+            for (long k : keys)
+                _cells.computeIfPresent(k, (x, list) -> {
+                    list.remove(r);
+                    return list.isEmpty() ? null : list;
+                });
+        }
+
+
+        boolean contains(AprsFilter.ERange r)
+            { return _cellsOf.containsKey(r); }
+
+
+        /* Add the ranges that contain pt to res */
+        void lookup(Point pt, Set<AprsFilter> res)
+        {
+            LatLng p = pt.getPosition();
+            List<AprsFilter.ERange> cell = _cells.get(_key((int) Math.floor(p.getLat()), (int) Math.floor(p.getLng())));
+            if (cell != null)
+                for (AprsFilter.ERange r : cell)
+                    if (r.pos.distance(pt) <= r.dist*1000)
+                        res.add(r);
+            for (AprsFilter.ERange r : _wide)
+                if (r.pos.distance(pt) <= r.dist*1000)
+                    res.add(r);
+        }
+
+
+        int size()
+            { return _cellsOf.size(); }
+    }
+
+
+
+    /**
+     * Results of sub-filters for a packet. To be used while the packet is
+     * tested against the filters of many clients. The packet must not be
+     * changed while the memo is in use.
+     */
+    public static class Memo
+    {
+        private final AprsPacket _p;
+        private final Map<AprsFilter, Boolean> _res = new IdentityHashMap<AprsFilter, Boolean>();
+        private Set<AprsFilter> _inRange;
+
+        public Memo(AprsPacket p)
+            { _p = p; }
+
+
+        public AprsPacket packet()
+            { return _p; }
+
+
+        /**
+         * Test filter. A shared sub-filter is evaluated only the first time.
+         */
+        public boolean test(AprsFilter f)
+        {
+            Boolean r = _res.get(f);
+            if (r != null)
+                return r;
+
+            boolean res;
+            if (f instanceof AprsFilter.Combined c)
+                res = c.test(_p, this);
+            else if (f instanceof AprsFilter.ERange rf && _ranges.contains(rf))
+                res = _inRange().contains(rf);
+            else
+                res = f.test(_p);
+            _res.put(f, res);
+            return res;
+        }
+
+
+        /* Ranges that contain the position of the packet. Looked up once. */
+        private Set<AprsFilter> _inRange()
+        {
+            if (_inRange == null) {
+                _inRange = Collections.newSetFromMap(new IdentityHashMap<AprsFilter, Boolean>());
+                Point pt = _p.getPos();
+                if (pt != null && !pt.isNull())
+                    _ranges.lookup(pt, _inRange);
+            }
+            return _inRange;
+        }
+    }
+
+
+
+    /**
+     * Get a shared sub-filter. If one with the same key exists, it is returned,
+     * otherwise it is created. Returns null if it cannot be created.
+     * A filter returned from here must be released when it is no longer used.
+     *
+     * @param key Command and parameters (and client for filters that depend on it).
+     * @param create Function to create the filter.
+     */
+    public static synchronized AprsFilter get(String key, Supplier<AprsFilter> create)
+    {
+        Shared s = _shared.get(key);
+        if (s == null) {
+            AprsFilter f = create.get();
+            if (f == null)
+                return null;
+            s = new Shared(f);
+            _shared.put(key, s);
+            _keyOf.put(f, key);
+            if (f instanceof AprsFilter.ERange r)
+                _ranges.add(r);
+        }
+        s.refs++;
+        return s.filter;
+    }
+
+
+
+    /**
+     * Release a shared sub-filter. It is removed when not used anymore.
+     */
+    public static synchronized void release(AprsFilter f)
+    {
+        String key = _keyOf.get(f);
+        if (key == null)
+            return;
+        Shared s = _shared.get(key);
+        if (--s.refs > 0)
+            return;
+        _shared.remove(key);
+        _keyOf.remove(f);
+        if (f instanceof AprsFilter.ERange r)
+            _ranges.remove(r);
+    }
+
+
+
+    /** Number of shared sub-filters. */
+    public static synchronized int size()
+        { return _shared.size(); }
+
+
+    /** Number of range filters in the spatial index. */
+    public static int nRanges()
+        { return _ranges.size(); }
+}
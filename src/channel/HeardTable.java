@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+/**
+ * Table of callsigns heard on a channel, with the path of the last packet.
+ * Entries expire after a timeout, and the number of entries is limited.
+ *
+ * Entries are immutable and kept in a concurrent map, so lookups don't lock.
+ * Each registration is also added to a queue in time order. Expiry takes
+ * entries from the head of the queue. If a callsign has been heard again
+ * since, the map has a newer entry and the old queue element is just
+ * dropped, so re-heard callsigns stay in the table. Expiry is done when
+ * registering, and costs O(1) per registration. If the table is full,
+ * the least recently heard callsigns are removed first.
+ */
+public class HeardTable
+{
+    /** Callsign heard at a time with a path. */
+    public record Entry(String call, long time, String path) {}
+
+    /** Statistics. paths is the number of callsigns by the digipeater they were heard through. */
+    public record Stats(int size, int max, long registered, long expired, long evicted, Map<String, Integer> paths) {}
+
+
+    private final ConcurrentHashMap<String, Entry> _map = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<Entry> _queue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger _qsize = new AtomicInteger(0);
+    private final AtomicLong _registered = new AtomicLong(0);
+    private final AtomicLong _expired = new AtomicLong(0);
+    private final AtomicLong _evicted = new AtomicLong(0);
+    private final AtomicBoolean _expiring = new AtomicBoolean(false);
+    private final long _timeout;
+    private final int  _max;
+
+
+
+    /**
+     * Constructor.
+     * @param timeout Time (ms) an entry is kept after the callsign was last heard.
+     * @param max Max number of entries.
+     */
+    public HeardTable(long timeout, int max)
+    {
+        _timeout = timeout;
+        _max = Math.max(1, max);
+    }
+
+
+
+    /**
+     * Register that a callsign is heard now.
+     */
+    public void put(String call, String path)
+    {
+        long now = System.currentTimeMillis();
+        Entry e = new Entry(call, now, path);
+        _map.put(call, e);
+        _queue.add(e);
+        _qsize.incrementAndGet();
+        _registered.incrementAndGet();
+        _expire(now);
+    }
+
+
+
+    /* 
+     * Remove expired entries, and the oldest entries if the table or queue is too large.
+     * Only one thread does this at a time. Others don't wait.
+     */
+    private void _expire(long now)
+    {
+        if (!_expiring.compareAndSet(false, true))
+            return;
+        try {
+            Entry e;
+            while ((e = _queue.peek()) != null) {
+                boolean old = (now - e.time() > _timeout);
+                boolean full = (_map.size() > _max || _qsize.get() > 4 * _max);
+                if (!old && !full)
+                    return;
+                _queue.poll();
+                _qsize.decrementAndGet();
+                if (_map.remove(e.call(), e))
+                    (old ? _expired : _evicted).incrementAndGet();
+            }
+        }
+        finally {
+            _expiring.set(false);
+        }
+    }
+
+
+
+    /**
+     * Get the entry for a callsign if it is heard within the timeout.
+     * Returns null if not.
+     */
+    public Entry get(String call)
+    {
+        Entry e = _map.get(call);
+        if (e == null || System.currentTimeMillis() - e.time() > _timeout)
+            return null;
+        return e;
+    }
+
+
+
+    public boolean contains(String call)
+        { return get(call) != null; }
+
+
+
+    /** Path of the last packet heard from the callsign, or null. */
+    public String path(String call)
+    {
+        Entry e = get(call);
+        return (e == null ? null : e.path());
+    }
+
+
+
+    /** Number of callsigns heard within the timeout. */
+    public int size()
+    {
+        _expire(System.currentTimeMillis());
+        return _map.size();
+    }
+
+
+
+    public void clear()
+    {
+        _map.clear();
+        _queue.clear();
+        _qsize.set(0);
+    }
+
+
+
+    /* Digipeater a packet was heard through (last used element of path) */
+    private static String _via(String path)
+    {
+        if (path == null || path.isEmpty())
+            return "(direct)";
+        String[] elems = path.split(",(\\s)*");
+        for (int i = elems.length-1; i >= 0; i--)
+            if (elems[i].endsWith("*"))
+                return elems[i].substring(0, elems[i].length()-1);
+        return "(direct)";
+    }
+
+
+
+    public Stats getStats()
+    {
+        Map<String, Integer> paths = new TreeMap<String, Integer>();
+        long now = System.currentTimeMillis();
+        for (Entry e : _map.values())
+            if (now - e.time() <= _timeout)
+                paths.merge(_via(e.path()), 1, Integer::sum);
+        return new Stats(size(), _max, _registered.get(), _expired.get(), _evicted.get(), paths);
+    }
+}
@@ -29,6 +29,7 @@ public class InetChannel extends TcpChannel
 {
     private  String   _user, _pass, _filter;
     private  BufferedReader _rder = null;
+    private  OutputStream _ostream = null;
     private AprsFilter _xfilter;
     private long _blocked = 0;
 
@@ -48,6 +49,8 @@ public class InetChannel extends TcpChannel
        _pass  = _conf.getProperty("channel."+id+".pass", "");
        _filter = _conf.getProperty("channel."+id+".filter", "");
        String xfilt = _conf.getProperty("channel."+id+".xfilter", "*");
+       if (_xfilter != null)
+           _xfilter.release();
        _xfilter = AprsFilter.createFilter( xfilt, null);
        setReceiveFilter(_conf.getProperty("channel."+id+".rfilter", "")); 
        _decryptOnSend = _conf.getBoolProperty("channel."+id+".decryptOnSend", false);
@@ -113,12 +116,19 @@ public class InetChannel extends TcpChannel
             p = p.clone(); 
             p.via = "TCPIP*";
         }
-        if (_out != null) {
-            _out.println(p.from+">"+p.to + 
-                ((p.via != null && p.via.length() > 0) ? ","+p.via : "") + 
-                ":" + p.report );
-                /* Should type char be part of report? */
-            _out.flush();
+        OutputStream out = _ostream;
+        if (out != null) {
+            /* Wire form of the packet, encoded once (tx encoding is UTF-8) */
+            try {
+                synchronized(this) {
+                    out.write(p.getWire(false));
+                    out.flush();
+                }
+            }
+            catch (IOException e) {
+                /* Connection is lost. The receive loop will see it */
+                return false;
+            }
             _sent++;
             return true;
         } 
@@ -131,6 +141,7 @@ public class InetChannel extends TcpChannel
     {
        try { 
           Thread.sleep(200);
+          _ostream = null;
           if (_out != null)  _out.close();
           if (_comm != null) _comm.deActivate(); 
           Thread.sleep(500);
@@ -142,8 +153,8 @@ public class InetChannel extends TcpChannel
     
     @Override protected void regHeard(AprsPacket p)
     {
-        if (p.via.matches(".*(TCPIP\\*|TCPXX\\*).*"))
-           _heard.put(p.from, new Heard(new Date(), p.via));
+        if (p.via.contains("TCPIP*") || p.via.contains("TCPXX*"))
+           _heard.put(p.from, p.via);
     }
     
     
@@ -152,7 +163,8 @@ public class InetChannel extends TcpChannel
     protected void receiveLoop() throws Exception
     {    
          _rder = new BufferedReader(new InputStreamReader(_comm.getInputStream(), _rx_encoding));
-         _out = new PrintWriter(new OutputStreamWriter(_comm.getOutputStream(), _tx_encoding));         
+         _ostream = _comm.getOutputStream();
+         _out = new PrintWriter(new OutputStreamWriter(_ostream, _tx_encoding));         
          _out.print("user "+_user +
              (_pass!=null&&!_pass.equals("") ? " pass "+_pass : "") + 
              " vers Polaric-APRSD "+_conf.getVersion());
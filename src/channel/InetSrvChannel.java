@@ -30,12 +30,17 @@ import com.fasterxml.jackson.annotation.JsonSubTypes.*;
  * A set of filters are supported. It listens to a port. To listen to multiple ports, start 
  * multiple instances of this. To connect it to the APRS-IS network use it with a Router-channel
  * and an APRS-IS channel. 
+ *
+ * Each client has a thread reading from it and a thread writing to it. These are 
+ * virtual threads unless disabled (channel.<id>.vthreads). Outgoing packets are 
+ * queued for each client (channel.<id>.sendqueue lines), so that sending a packet 
+ * to clients doesn't wait for the network. Slow clients are disconnected. 
  */
  
 public class InetSrvChannel extends AprsChannel implements Runnable {
         
-    private List<InetSrvClient> _clients = new LinkedList<InetSrvClient>();
-    private Set<String> _logins = new HashSet<String>();
+    private List<InetSrvClient> _clients = new CopyOnWriteArrayList<InetSrvClient>();
+    private Set<String> _logins = ConcurrentHashMap.newKeySet();
     
     private int _nclients = 0;
     private int _portnr;
@@ -43,6 +48,8 @@ public class InetSrvChannel extends AprsChannel implements Runnable {
     private String _defaultfilt;
     private Thread _serverthread;
     private boolean _xverify, _cencrypt;
+    private boolean _vthreads = true;
+    private int _sendqueue = 2000;
     
 
     public static class Client {
@@ -64,17 +71,20 @@ public class InetSrvChannel extends AprsChannel implements Runnable {
         _state = State.STARTING;
         _portnr = _conf.getIntProperty("channel."+id+".port", 14580);
         String filt =  _conf.getProperty("channel."+id+".infilter", "*");
+        if (_filter != null)
+            _filter.release();
         _filter = AprsFilter.createFilter( filt, null);
         _defaultfilt = _conf.getProperty("channel."+id+".defaultfilt", "");
         _xverify = _conf.getBoolProperty("channel."+id+".xverify", false);
+        _vthreads = _conf.getBoolProperty("channel."+id+".vthreads", true);
+        _sendqueue = _conf.getIntProperty("channel."+id+".sendqueue", 2000);
         _decryptOnSend = _conf.getBoolProperty("channel."+id+".decryptOnSend", false);
     
         log = new Logfile(_conf, "channel."+id, "channel."+id+".log");  
         log.info(null, "Channel activated");
         _conf.log().info("InetSrvChannel", "Channel activated: "+id); 
         
-        _serverthread = new Thread(this);
-        _serverthread.start(); 
+        _serverthread = ExecService.startPlatform("InetSrvChannel."+id, this, false); 
     }
     
         
@@ -92,6 +102,7 @@ public class InetSrvChannel extends AprsChannel implements Runnable {
         catch (Exception e) {
             e.printStackTrace(System.out);
         }
+        stopPipeline();
     }
     
     
@@ -167,25 +178,44 @@ public class InetSrvChannel extends AprsChannel implements Runnable {
         return _xverify;
     }
     
+    /** Max number of lines queued for sending to a client. */
+    public int sendQueueSize() {
+        return _sendqueue;
+    }
+    
+    
+    /**
+     * Start a thread for a client. It is a virtual thread unless disabled 
+     * in the configuration.
+     */
+    public Thread startThread(Runnable r, String name) {
+        if (_vthreads)
+            return ExecService.start(name, r);
+        return ExecService.startPlatform(name, r, false);
+    }
+    
     
     // Do we need some modifications here? 
     @Override protected void regHeard(AprsPacket p)
     {
-        if (p.via.matches(".*(TCPIP\\*|TCPXX\\*).*"))
-           _heard.put(p.from, new Heard(new Date(), p.via));
+        if (p.via.contains("TCPIP*") || p.via.contains("TCPXX*"))
+           _heard.put(p.from, p.via);
     }
     
     
     /**
-     * Outgoing packet. Distribute to connected clients.
+     * Outgoing packet. Distribute to connected clients. 
+     * Packets are put on the clients' queues. This does not wait for the network.
      */
     public synchronized boolean sendPacket(AprsPacket p, InetSrvClient except)
     {     
         preSendPacket(p); 
         boolean sent = false; 
+        /* Results of filters shared by clients are evaluated once */
+        FilterEngine.Memo memo = new FilterEngine.Memo(p);
         for (Client x : _clients)
             if (x instanceof InetSrvClient c && c != except)
-                if (c.sendPacket(p)) sent = true;
+                if (c.sendPacket(p, memo)) sent = true;
         if (sent)
             _sent++;
         return sent;
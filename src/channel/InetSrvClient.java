@@ -21,11 +21,18 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.nio.charset.StandardCharsets;
 
 
 /** 
  * APRS-IS client. 
  * Typically igate or end-user. 
+ *
+ * Outgoing packets are put on a bounded queue and written to the client by a 
+ * separate thread, so that a slow client doesn't hold up delivery to others. 
+ * Packets are queued on their wire form (encoded once for all clients).
+ * If the queue is full, the client is regarded as a slow consumer and is 
+ * disconnected (see SendQueue). 
  */
  
 public class InetSrvClient extends InetSrvChannel.Client implements Runnable 
@@ -47,11 +54,13 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
     private   String  _authkey;
     private   boolean _login;
     private   long _txpackets, _rxpackets;
+    private   SendQueue _outq;
+    private   volatile boolean _closed = false;
     protected Logfile log = new Logfile.Dummy();
         
     public static record Info 
        ( String userid, String addr, String software, boolean verified, 
-            long txpackets, long rxpackets, String filter )
+            long txpackets, long rxpackets, String filter, int outqueue )
     {}
     
     
@@ -67,17 +76,19 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
         if (logf != null)
             log = logf;
             
-        if (conn != null) {
-            Thread workerthread = new Thread(this);
-            workerthread.start();
-        }
+        _outq = new SendQueue(chan.sendQueueSize(), () -> {
+            log.warn(null, "Slow consumer - disconnecting ("+_userid+", "+_ipaddr+"), queue: "+_outq.size());
+            disconnect();
+        });
+        if (conn != null) 
+            chan.startThread(this, "InetSrvClient-"+_ipaddr);
     }
     
     
     
     public Info getInfo() {
         return new Info(_userid, _ipaddr, _software, _verified, 
-           _txpackets, _rxpackets, _filt);
+           _txpackets, _rxpackets, _filt, _outq.size());
     }
     
     
@@ -180,7 +191,7 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
                 _software = x[5]+" "+x[6];
                 
             if (_filt != null && !_filt.equals(""))
-                _filter = AprsFilter.createFilter(_filt, _userid);
+                setFilter(_filt);
             
             if (_software.matches("Polaric\\-APRSD ([12].+)")) {
                 log.info(null, "Warning issued - software is old: "+_userid);
@@ -221,13 +232,39 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
     
     
     
+    /**
+     * Set filter. The previous filter is released.
+     */
+    protected synchronized void setFilter(String filt) {
+        AprsFilter old = _filter;
+        _filter = AprsFilter.createFilter(filt, _userid);
+        if (old != null)
+            old.release();
+    }
+    
+    
+    
     protected void close() {
+        disconnect();
+        try { 
+          Thread.sleep(500);
+       } catch (Exception e) {}
+    }
+    
+    
+    
+    /**
+     * Close the connection without waiting. The threads of the client 
+     * will terminate. 
+     */
+    protected void disconnect() {
+        _closed = true;
         try { 
           if (_istream != null) _istream.close(); 
           if (_ostream != null)  _ostream.close();
           if (_conn != null) _conn.close(); 
-          Thread.sleep(500);
        } catch (Exception e) {}
+       _outq.close();
     }
     
     
@@ -268,7 +305,13 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
         if (str == null || str.equals(""))
             return;
         if (str.charAt(0) == '#') {
-            getFiltCmd(str);
+            /* Filter command. Replace the filter */
+            String[] fline = str.split("(filter|FILTER)(\\s+)");
+            if (fline.length > 1 && fline[1] != null && !fline[1].isBlank()) {
+                _filt = fline[1];
+                setFilter(_filt);
+                log.info(null, "Filter set ("+_userid+"): "+_filt);
+            }
             return;
         }
         if (!_verified)
@@ -295,9 +338,19 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
      * Send packet to connected client.
      */
     public boolean sendPacket(AprsPacket p) {
-        if (_login && _filter != null && _filter.test((p))) {
-            _writer.println(p.toString());
-            _writer.flush();
+        return sendPacket(p, null);
+    }
+    
+    
+    /**
+     * Send packet to connected client. 
+     * @param m Results of shared filters for the packet (may be null). 
+     */
+    public boolean sendPacket(AprsPacket p, FilterEngine.Memo m) {
+        AprsFilter filt = _filter;
+        if (_login && filt != null && filt.test(p, m)) {
+            if (!send(p.getWire(true)))
+                return false;
             _txpackets++;
             return true;
         }
@@ -306,6 +359,38 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
     
     
     
+    /**
+     * Put a line on the output queue. If the queue is full, the client is 
+     * not able to keep up and is disconnected. 
+     * @return false if the line could not be queued.
+     */
+    protected boolean send(String line) {
+        return send((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    
+    /**
+     * Put encoded line(s) on the output queue. The array must not be modified
+     * after this.
+     */
+    protected boolean send(byte[] line) {
+        if (_closed)
+            return false;
+        return _outq.offer(line);
+    }
+    
+    
+    
+    /* Writer thread. Write lines on the output queue to the client. Login is complete, 
+     * so this is the only thread writing to the connection. 
+     */
+    private void writer() {
+        _outq.write(_ostream);
+        disconnect();
+    }
+    
+    
+    
     /* Main thread. Get incoming packets and commands from connected client. */
     public void run() {
         try {          
@@ -320,6 +405,7 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
             getLogin();
             if (_login == false)
                 return;
+            _chan.startThread(this::writer, "InetSrvClient-writer-"+_ipaddr);
             while (!_conn.isClosed() ) {
                 try {
                     String inp = _reader.readLine();
@@ -328,8 +414,7 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
                     processPacket(inp);
                 }
                 catch (SocketTimeoutException e) {
-                    _writer.println("# Polaric-Aprsd");
-                    _writer.flush();
+                    send("# Polaric-Aprsd");
                 }
             }
             _login = false; 
@@ -344,7 +429,10 @@ public class InetSrvClient extends InetSrvChannel.Client implements Runnable
         }
         finally {
             /* Close the connection */
+            _login = false;
             close();
+            if (_filter != null)
+                _filter.release();
             if (_userid != null && !_userid.equals("NOCALL"))
                 _chan.removeLogin(_userid);
             _chan.removeClient(this);
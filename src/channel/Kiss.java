@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2015-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2015-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -16,11 +16,18 @@ package no.polaric.aprsd.channel;
 import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.Semaphore;
 
 /**
  * Implementation of the KISS protocol. For devices in KISS compatible mode.
+ *
+ * Input is read in blocks into a buffer and deframed (unescaped) into a frame
+ * buffer. When a frame is complete (FEND), it is decoded. Outgoing frames are
+ * encoded and escaped into a buffer and written with one write. Encoding and
+ * decoding of frames are static methods on ByteBuffers, so that they can be
+ * used without streams.
  */
  
 public class Kiss
@@ -37,229 +44,318 @@ public class Kiss
    protected static final byte TFEND = (byte) 0xDC;
    protected static final byte TFESC = (byte) 0xDD;
    
+   /* Max size of a frame (unescaped). Longer frames are dropped */
+   public static final int MAX_FRAME = 2048;
+   
    protected InputStream _istream; 
    protected OutputStream _ostream;
-   protected int _port;
+   protected int _port, _lastPort = -1;
    protected int received;
-  
    
-   /** Address field. */
-   protected static class Addr {
-      String addr;
-      byte flags; 
-      public boolean last() 
-        { return (flags & FLAG_LAST) != 0; }
-      public boolean digipeated()
-        { return (flags & FLAG_DIGI) != 0; }
-      public Addr(String a, byte f)
-        { addr=a; flags=f; }
-   }
- 
- 
-   /** Exception to signal the end of a frame. */
-   protected static class Frame_End extends Throwable
-   {}
- 
+   private final ByteBuffer _in = ByteBuffer.allocate(4096);
+   private final ByteBuffer _frame = ByteBuffer.allocate(MAX_FRAME);
+   private final ByteBuffer _out = ByteBuffer.allocate(2 * MAX_FRAME + 2);
+   private boolean _escaped = false, _overflow = false;
+   
+   
    /** Exception to signal a timeout. */
    protected static class Timeout extends Throwable
    {}
     
     
    /** port is the KISS interface port, zero by default.
-    *  multiport KISS TNCs support port 0 to 15
+    *  multiport KISS TNCs support port 0 to 15. If port is negative, 
+    *  frames on all ports are received (see lastPort). 
     */
    public Kiss(InputStream is, OutputStream os, int port)
    {
        _istream = is; 
        _ostream = os;
        _port = port;
+       _in.flip();
    }
    
 
     /**
-     * Send packet. 
+     * Send packet on our port. 
      */ 
-    public synchronized void sendPacket(AprsPacket p)
+    public void sendPacket(AprsPacket p)
        throws IOException
-    {
-         /* Start of frame. KISS command = data */
-         sendFend(); 
-         /* The high order nibble in the KISS command is the port number */
-         sendByte((byte) (_port << 16) ); 
-       
-         /* AX.25 UI Header */
-         String[] digis = new String[0]; 
-         if (p.via.length() > 0) 
-             digis = p.via.split(","); 
-
-         encodeAddr(p.to, false);
-         encodeAddr(p.from, digis.length==0);
-         int n = 0;
-         for (String d : digis)
-            encodeAddr(d, ++n >= digis.length); 
-         sendByte(FTYPE_UI); 
-         sendByte(PID_NO_L3);
-
-         /* Messsage */
-         for (byte b : p.report.getBytes())
-             sendByte(b);
+        { sendPacket(p, Math.max(0, _port)); }
+        
+        
         
-         /* End of frame */
-         sendFend();
+    /**
+     * Send packet on the given KISS port (0-15). 
+     */ 
+    public synchronized void sendPacket(AprsPacket p, int port)
+       throws IOException
+    {
+         _out.clear();
+         if (!encodeFrame(p, (byte) ((port & 0x0F) << 4), _out))
+             throw new IOException("Frame too long or bad address");
+         _ostream.write(_out.array(), 0, _out.position());
     }
    
    
     
     /**
-     * Receive packet. 
+     * Receive packet. Frames for other ports than ours are ignored, unless
+     * our port is negative. 
+     * Returns null if a frame could not be decoded or there is an error.
      */
     public AprsPacket receivePacket() throws Timeout
     {
-        AprsPacket p = new AprsPacket();
-        p.report = p.via = ""; 
-        boolean complete = false;
-        int port = 0; 
+        try {
+            while (true) {
+                ByteBuffer frame = receiveFrame();
+                received = 0;
+                if (frame.remaining() == 0)
+                    continue;
+                int cmd = frame.get(frame.position()); 
+                if ((cmd & 0x0F) != 0)
+                    continue;
+                int port = (cmd >> 4) & 0x0F;
+                if (_port >= 0 && port != _port)
+                    continue;
+                AprsPacket p = decodeFrame(frame);
+                if (p != null) {
+                    _lastPort = port;
+                    return p;
+                }
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+    
+    
+    
+    /**
+     * KISS port of the last packet received.
+     */
+    public int lastPort()
+        { return _lastPort; }
+        
+        
         
+    /**
+     * Receive a frame (unescaped, with KISS command byte). The buffer 
+     * is reused for the next frame. 
+     */
+    protected ByteBuffer receiveFrame() throws IOException, Timeout
+    {
+        _frame.clear();
         while (true) {
-            try {
-                byte rx = receiveByte();   
-                if (rx == 0xff)
-                    continue; 
-                port = rx >> 4; 
-                int cmd = rx & 0x0F; 
-                if (cmd > 0) {
-                    receiveByte(); 
-                    continue; 
+            if (!_in.hasRemaining()) {
+                _in.clear();
+                int n = _istream.read(_in.array(), 0, _in.capacity());
+                if (n == -1) {
+                    _in.flip();
+                    throw new Timeout();
                 }
-                p.report = p.via = "";
-                Addr a = decodeAddr();
-                p.to = a.addr; 
-                a = decodeAddr();
-                p.from = a.addr;
-                while (!a.last()) {
-                    a = decodeAddr();
-                    p.via = p.via + a.addr + (a.digipeated() ? "*" : "");
-                    if (!a.last()) 
-                        p.via += ",";
-                } 
-
-                if (receiveByte() == FTYPE_UI && receiveByte() == PID_NO_L3)
-                    complete = true;
-                while (true)
-                    p.report += (char) receiveByte(); 
+                _in.limit(n);
             }
-            catch (Frame_End e) {
-                if (complete) {
-                    received = 0;
-                    if (port == _port) 
-                        return p;
+            while (_in.hasRemaining()) {
+                byte x = _in.get();
+                if (x == FEND) {
+                    _escaped = false;
+                    if (_frame.position() > 0 && !_overflow) {
+                        _frame.flip();
+                        return _frame;
+                    }
+                    _overflow = false;
+                    _frame.clear();
+                    continue;
+                }
+                if (x == FESC) {
+                    _escaped = true;
+                    continue;
+                }
+                if (_escaped) {
+                    _escaped = false;
+                    if (x == TFEND) 
+                        x = FEND;
+                    else if (x == TFESC)
+                        x = FESC;
                 }
+                if (_frame.hasRemaining()) {
+                    _frame.put(x);
+                    received++;
+                }
+                else
+                    _overflow = true;
             }
-            catch (Exception e) {
-               return null;
+        }
+    }
+    
+    
+    
+    /**
+     * Decode a frame (unescaped, starting with the KISS command byte). 
+     * Returns null if it is not an AX.25 UI frame with no layer 3 protocol. 
+     * The position of the buffer is moved to the end of the frame.
+     */
+    public static AprsPacket decodeFrame(ByteBuffer frame)
+    {
+        if (frame.remaining() < 1 + 14 + 2) {
+            frame.position(frame.limit());
+            return null;
+        }
+        frame.get();     /* KISS command */
+        AprsPacket p = new AprsPacket();
+        StringBuilder sb = new StringBuilder(16);
+        
+        decodeAddr(frame, sb);
+        p.to = sb.toString();
+        sb.setLength(0);
+        int flags = decodeAddr(frame, sb);
+        p.from = sb.toString();
+        
+        sb.setLength(0);
+        int n = 0;
+        while ((flags & FLAG_LAST) == 0) {
+            if (frame.remaining() < 7 + 2) {
+                frame.position(frame.limit());
+                return null;
             }
+            if (n++ > 0)
+                sb.append(',');
+            flags = decodeAddr(frame, sb);
+            if ((flags & FLAG_DIGI) != 0)
+                sb.append('*');
+        }
+        p.via = sb.toString();
+        
+        if (frame.remaining() < 2 || frame.get() != FTYPE_UI || frame.get() != PID_NO_L3) {
+            frame.position(frame.limit());
+            return null;
         }
+        p.report = new String(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), 
+                StandardCharsets.UTF_8);
+        frame.position(frame.limit());
+        return p;
     }
     
+    
+    
+    /**
+     * Encode packet as a KISS frame, escaped and with FEND at both ends. 
+     * Return false if there is not room in the buffer or if an address
+     * cannot be encoded (callsign longer than 6 characters or bad SSID). 
+     * Empty elements of the path are ignored. 
+     * @param cmd KISS command byte (port and command).
+     */
+    public static boolean encodeFrame(AprsPacket p, byte cmd, ByteBuffer out)
+    {
+        try {
+            out.put(FEND);
+            _put(out, cmd);
+            
+            /* AX.25 UI Header */
+            String via = (p.via == null ? "" : p.via);
+            int vend = via.length();
+            while (vend > 0 && via.charAt(vend-1) == ',')
+                vend--;
+            if (!encodeAddr(out, p.to, 0, p.to.length(), false) ||
+                !encodeAddr(out, p.from, 0, p.from.length(), vend == 0))
+                return false;
+            int i = 0;
+            while (i < vend) {
+                int j = via.indexOf(',', i);
+                if (j < 0 || j > vend)
+                    j = vend;
+                if (j > i && !encodeAddr(out, via, i, j, j == vend))
+                    return false;
+                i = j + 1;
+            }
+            _put(out, FTYPE_UI); 
+            _put(out, PID_NO_L3);
 
+            /* Messsage */
+            for (byte b : p.report.getBytes(StandardCharsets.UTF_8))
+                _put(out, b);
+            out.put(FEND);
+            return true;
+        }
+        catch (BufferOverflowException e) {
+            return false;
+        }
+    }
+    
+    
    
    /**
-    * Encode AX25 address field (callsign).
+    * Encode AX25 address field (callsign). The callsign is s[start..end).
+    * A '*' at the end (digipeated) sets the H bit. 
+    * Return false if the callsign is longer than 6 characters or the SSID 
+    * is not a number from 0 to 15. 
     */
-    private void encodeAddr(String addr, boolean last) throws IOException
+    private static boolean encodeAddr(ByteBuffer out, String s, int start, int end, boolean last) 
     {
-        byte ssid = 0;
-        if (addr.contains("-")) {
-            ssid = (byte) Integer.parseInt(addr.substring(addr.indexOf('-')+1));
-            addr = addr.substring(0,addr.indexOf('-')); 
-        }
-        
-        byte[] b = addr.getBytes();
         byte flags = (last ? FLAG_LAST : 0);
+        if (end > start && s.charAt(end-1) == '*') {
+            flags |= FLAG_DIGI;
+            end--;
+        }
+        int ssid = 0;
+        int dash = s.indexOf('-', start);
+        if (dash >= 0 && dash < end) {
+            try {
+                ssid = Integer.parseInt(s, dash+1, end, 10);
+            }
+            catch (NumberFormatException e) {
+                return false;
+            }
+            if (ssid < 0 || ssid > 15)
+                return false;
+            end = dash;
+        }
+        if (end - start > 6)
+            return false;
         int i=6;
-        for (byte c : b) {
+        for (int k=start; k<end; k++) {
            i--;
-           sendByte((byte) (c << 1));
+           _put(out, (byte) (s.charAt(k) << 1));
         }
         for (int j=0; j<i; j++)
-           sendByte((byte) (ASCII_SPC << 1));
-        sendByte((byte)(((ssid & 0x0F) << 1) | (flags & 0x81) | 0x60) );
+           _put(out, (byte) (ASCII_SPC << 1));
+        _put(out, (byte)((ssid << 1) | (flags & 0x81) | 0x60) );
+        return true;
     }
 
 
    /**
-    * Decode AX25 address field (callsign).
+    * Decode AX25 address field (callsign) and append it to sb. 
+    * Returns the flags. 
     */
-    private Addr decodeAddr() throws IOException, Frame_End, Timeout
+    private static int decodeAddr(ByteBuffer in, StringBuilder sb)
     {
-        byte x;
-        String result = "";
-        for (int i=0; i<6; i++)
-        {
-           x = (byte)((receiveByte() & 0xfe) >>> 1);
+        for (int i=0; i<6; i++) {
+           byte x = (byte)((in.get() & 0xfe) >>> 1);
            if (x != ASCII_SPC)
-              result += (char) x;  
+              sb.append((char) x);  
         }
-        x = receiveByte();
-        byte ssid = (byte) ((x & 0x1E) >>> 1); 
-        byte flags = (byte) (x & 0x81);
-        return new Addr(result + (ssid>0 ? "-"+ssid : ""), flags );
+        byte x = in.get();
+        int ssid = (x & 0x1E) >>> 1; 
+        if (ssid > 0)
+           sb.append('-').append(ssid);
+        return x & 0x81;
     }
     
     
-
+    
    /**
-    * Send byte according to the SLIP/KISS protocol.
+    * Put byte according to the SLIP/KISS protocol (escaped).
     */
-    private void sendByte(byte x) throws IOException
+    private static void _put(ByteBuffer out, byte x)
     {
        if (x==FEND)
-          { _ostream.write(FESC); _ostream.write(TFEND); }
+          { out.put(FESC); out.put(TFEND); }
        else if (x==FESC)
-          { _ostream.write(FESC); _ostream.write(TFESC); }
+          { out.put(FESC); out.put(TFESC); }
        else
-           _ostream.write(x);
+          out.put(x);
     }
-    
-    
-    
-   /**
-    * Open or close frame according to the SLIP/KISS protocol.
-    * i.e. a FEND character is sent..
-    */
-    private void sendFend() throws IOException
-       { _ostream.write(FEND); }
-    
-    
-   /**
-    * Receive byte according to the SLIP/KISS protocol.
-    * Throws an exception Frame_End when receiving a FEND. 
-    */
-    private byte receiveByte() throws IOException, Frame_End, Timeout
-    {
-       boolean escaped = true;
-       while (true) {
-          int x = _istream.read();
-          if (x == -1)
-             throw new Timeout();    
-          if ((byte) x == FEND)
-             throw new Frame_End();
-          
-          if ((byte) x == FESC) 
-             escaped = true;
-          else  {
-             if (escaped) {
-                if ((byte) x==TFEND) 
-                   return FEND; 
-                else if ((byte) x==TFESC)
-                   return FESC;
-                else
-                   escaped = false;
-             } 
-             received++;
-             return (byte) x;  
-         }
-      }   
-   }
-       
 }
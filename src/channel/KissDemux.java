@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import no.polaric.aprsd.*;
+import no.polaric.aprsd.aprs.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+
+
+/**
+ * KISS device (serial port or TCP connection) shared by channels on
+ * different KISS ports of a multiport TNC.
+ *
+ * There is one demultiplexer per device. It opens the device when the first
+ * channel is attached and closes it when the last is detached. One thread
+ * reads frames on all ports and delivers them to the channel attached to
+ * the port. Frames for ports without a channel are counted and dropped.
+ * Channels put outgoing packets on a transmit queue shared by all ports,
+ * which is written to the device by one thread.
+ */
+public class KissDemux
+{
+    public static final int PORTS = 16;
+
+    /** Statistics for a KISS port. */
+    public record PortStats(int port, String channel, long received, long sent, long dropped) {}
+
+    /** Statistics for a device. unbound is the number of frames received on ports without a channel. */
+    public record Stats(String device, Channel.State state, int txqueue, int txcapacity, long unbound,
+                        List<PortStats> ports) {}
+
+    private record Tx(int port, AprsPacket p) {}
+
+
+    private static final Map<String, KissDemux> _devices = new LinkedHashMap<String, KissDemux>();
+
+    private final AprsServerConfig _conf;
+    private final String _key;
+    private final AtomicReferenceArray<AprsChannel> _chans = new AtomicReferenceArray<AprsChannel>(PORTS);
+    private final Runnable[] _onFail = new Runnable[PORTS];
+    private final AtomicLongArray _received = new AtomicLongArray(PORTS);
+    private final AtomicLongArray _sent = new AtomicLongArray(PORTS);
+    private final AtomicLongArray _dropped = new AtomicLongArray(PORTS);
+    private final AtomicLong _unbound = new AtomicLong(0);
+    private final BlockingQueue<Tx> _txq;
+    private final int _txcap;
+
+    private CommDevice _dev;
+    private int _users = 0;
+    private volatile Kiss _kiss;
+    private volatile InputStream _istream;
+    private volatile OutputStream _ostream;
+
+
+
+    private KissDemux(AprsServerConfig conf, String key, int txcap)
+    {
+        _conf = conf;
+        _key = key;
+        _txcap = Math.max(1, txcap);
+        _txq = new ArrayBlockingQueue<Tx>(_txcap);
+    }
+
+
+
+    /**
+     * Attach a channel to a KISS port of a device. If the device is not open,
+     * it is created and activated.
+     * Returns null if the port is not valid or is used by another channel.
+     *
+     * @param key Identifies the device, e.g. serial port name or host:port.
+     * @param dev Function to create the device.
+     * @param port KISS port (0-15).
+     * @param chan Channel to receive packets on the port.
+     * @param onFail Called if the device fails (gives up reconnecting).
+     */
+    public static synchronized KissDemux attach(AprsServerConfig conf, String key, Supplier<CommDevice> dev,
+                int port, AprsChannel chan, Runnable onFail)
+    {
+        if (port < 0 || port >= PORTS) {
+            conf.log().warn("KissDemux", "Invalid KISS port "+port+" for channel '"+chan.getIdent()+"'");
+            return null;
+        }
+        KissDemux d = _devices.get(key);
+        if (d == null) {
+            d = new KissDemux(conf, key, conf.getIntProperty("channel."+chan.getIdent()+".txqueue", 100));
+            _devices.put(key, d);
+        }
+        AprsChannel other = d._chans.get(port);
+        if (other != null && other != chan) {
+            conf.log().warn("KissDemux", "KISS port "+port+" on "+key+" is used by channel '"+other.getIdent()+"'");
+            return null;
+        }
+        if (other == null) {
+            d._chans.set(port, chan);
+            d._onFail[port] = onFail;
+            d._users++;
+            conf.log().info("KissDemux", "Channel '"+chan.getIdent()+"' attached to KISS port "+port+" on "+key);
+        }
+        if (d._dev == null) {
+            CommDevice cd = d._dev = dev.get();
+            final KissDemux dd = d;
+            cd.activate(() -> dd._receiveLoop(cd), () -> dd._failed());
+        }
+        return d;
+    }
+
+
+
+    /**
+     * Detach a channel from a KISS port. The device is closed when the last
+     * channel is detached.
+     */
+    public static void detach(KissDemux d, int port, AprsChannel chan)
+    {
+        if (d == null || port < 0 || port >= PORTS)
+            return;
+        synchronized (KissDemux.class) {
+            if (!d._chans.compareAndSet(port, chan, null))
+                return;
+            d._onFail[port] = null;
+            if (--d._users > 0)
+                return;
+            _devices.remove(d._key);
+        }
+        d._stop();
+    }
+
+
+
+    /** Statistics for all devices. */
+    public static synchronized List<Stats> getAllStats()
+    {
+        List<Stats> res = new ArrayList<Stats>();
+        for (KissDemux d : _devices.values())
+            res.add(d.getStats());
+        return res;
+    }
+
+
+
+    public Channel.State getState()
+    {
+        CommDevice dev = _dev;
+        return (dev == null ? Channel.State.OFF : dev.getState());
+    }
+
+
+
+    /**
+     * Put a packet on the transmit queue, to be sent on the given KISS port.
+     * Returns false if the device is not connected or the queue is full.
+     */
+    public boolean send(int port, AprsPacket p)
+    {
+        if (_kiss == null || !_txq.offer(new Tx(port, p))) {
+            _dropped.incrementAndGet(port);
+            return false;
+        }
+        return true;
+    }
+
+
+
+    public Stats getStats()
+    {
+        List<PortStats> ports = new ArrayList<PortStats>();
+        for (int i=0; i<PORTS; i++) {
+            AprsChannel ch = _chans.get(i);
+            if (ch != null || _received.get(i) > 0 || _sent.get(i) > 0)
+                ports.add(new PortStats(i, (ch == null ? null : ch.getIdent()),
+                    _received.get(i), _sent.get(i), _dropped.get(i)));
+        }
+        return new Stats(_key, getState(), _txq.size(), _txcap, _unbound.get(), ports);
+    }
+
+
+
+    /*
+     * Receive frames from the device and deliver them to the channels.
+     * Runs in the thread of the device, each time it is connected.
+     */
+    private void _receiveLoop(CommDevice dev) throws Exception
+    {
+        _istream = dev.getInputStream();
+        _ostream = dev.getOutputStream();
+        Kiss kiss = new Kiss(_istream, _ostream, -1);
+        /* Writes to a serial port may block in native code. Use a platform thread */
+        Thread writer = (dev instanceof SerialComm
+            ? ExecService.startPlatform("KissTx-"+_key, () -> _writeLoop(kiss), true)
+            : ExecService.start("KissTx-"+_key, () -> _writeLoop(kiss)));
+        _kiss = kiss;
+        try {
+            while (dev.running())
+            {
+                try {
+                    AprsPacket p = kiss.receivePacket();
+                    if (p != null) {
+                        int port = kiss.lastPort();
+                        AprsChannel ch = _chans.get(port);
+                        if (ch == null)
+                            _unbound.incrementAndGet();
+                        else {
+                            _received.incrementAndGet(port);
+                            ch.receivePacket(p, false);
+                        }
+                    }
+                }
+                catch (Kiss.Timeout e) {}
+                Thread.yield();
+            }
+        }
+        finally {
+            _kiss = null;
+            writer.interrupt();
+        }
+    }
+
+
+
+    /* Write packets from the transmit queue to the device */
+    private void _writeLoop(Kiss kiss)
+    {
+        try {
+            while (true) {
+                Tx x = _txq.take();
+                try {
+                    kiss.sendPacket(x.p(), x.port());
+                    _sent.incrementAndGet(x.port());
+                }
+                catch (IOException e) {
+                    _dropped.incrementAndGet(x.port());
+                    _conf.log().error("KissDemux", "Send on "+_key+" failed: "+e);
+                }
+            }
+        }
+        catch (InterruptedException e) {}
+    }
+
+
+
+    /* Device gave up. Tell the channels */
+    private void _failed()
+    {
+        List<Runnable> handlers = new ArrayList<Runnable>();
+        synchronized (KissDemux.class) {
+            for (Runnable r : _onFail)
+                if (r != null)
+                    handlers.add(r);
+        }
+        for (Runnable r : handlers)
+            r.run();
+    }
+
+
+
+    /* Close the device */
+    private void _stop()
+    {
+        _conf.log().info("KissDemux", "Closing device "+_key);
+        CommDevice dev = _dev;
+        if (dev != null)
+            dev.deActivate();
+        try {
+            if (_ostream != null) _ostream.close();
+            if (_istream != null) _istream.close();
+        }
+        catch (IOException e) {}
+        _txq.clear();
+    }
+}
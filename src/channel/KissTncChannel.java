@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2020-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2020-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -25,17 +25,16 @@ import com.fasterxml.jackson.annotation.JsonSubTypes.*;
 
 
 /**
- * TNC channel. For devices in KISS compatible mode.
+ * TNC channel. For devices in KISS compatible mode. 
+ * Channels on different KISS ports of the same serial port share the
+ * device through a KissDemux. 
  */
  
 public class KissTncChannel extends TncChannel
 {
 
-    protected InputStream _istream; 
-    protected OutputStream _ostream; 
     protected int _kissport;
-  
-    Kiss _kiss; 
+    protected KissDemux _demux; 
 
     
     
@@ -85,63 +84,69 @@ public class KissTncChannel extends TncChannel
     
     
     
+    @Override public State getState() {
+        KissDemux d = _demux;
+        if (d == null)
+            return _state;
+        return _state = d.getState(); 
+    }
+    
+    
+    @Override public boolean isActive() 
+        { return _demux != null; }
+    
+    
+    
+    /**
+     * Attach to the KISS port on the serial device. 
+     */
+    @Override protected void startDevice(String port, int baud, int retr, long rtime)
+    {
+        _kissport = _conf.getIntProperty("channel."+getIdent()+".kissport", 0);
+        _demux = KissDemux.attach(_conf, port, 
+            () -> new SerialComm(_conf, getIdent(), port, baud, retr, rtime), 
+            _kissport, this, ()->{} );
+        if (_demux == null)
+            _state = State.FAILED;
+    }
+    
+    
+    
     /**
-     * Send packet on RF. 
+     * Send packet on RF. The packet is put on the transmit queue of the device.
      */ 
-    public synchronized boolean sendPacket(AprsPacket p)
+    public boolean sendPacket(AprsPacket p)
     {      
-        if (!isReady() || !canSend)
+        KissDemux d = _demux;
+        if (!isReady() || !canSend || d == null)
             return false; 
         _log.log(" [>" + this.getIdent() + "] " + p);
-        try {
-           _kiss.sendPacket(p);
-           _sent++;
-           return true;
+        if (!d.send(_kissport, p)) {
+           _conf.log().warn("KissTncChannel", chId()+"sendPacket: Device not ready or queue full");
+           return false;
         }
-        catch (IOException e)
-           { _conf.log().error("KissTncChannel", chId()+"sendPacket: "+e); }
-        return false; 
+        _sent++;
+        return true; 
     }
    
    
    
     /**
-     * Close down the channel. 
+     * Close down the channel. The device is closed when no other channel uses it.
      */
     @Override public void close() 
     { 
         _conf.log().info("KissTncChannel", chId()+"Closing channel");
-       try {  
-         _serial.deActivate(); 
-         Thread.sleep(3000);
-         if (_ostream != null) _ostream.close(); 
-         if (_istream != null) _istream.close(); 
-       }
-       catch (Exception e) {}
+        KissDemux.detach(_demux, _kissport, this);
+        _demux = null;
+        _state = State.OFF;
     }
     
     
     
-    /*
-     * Main loop of channel. Receives packets.. 
-     */
-    @Override protected void receiveLoop() throws Exception
-    {
-        _ostream = _serial.getOutputStream();
-        _istream = _serial.getInputStream(); 
-        _kiss = new Kiss(_istream, _ostream, _kissport); 
-        
-        while (_serial.running()) 
-        {
-           try { 
-               /* Delegate to Kiss decoder */
-               AprsPacket p = _kiss.receivePacket();
-               receivePacket(p, false);
-           }
-           catch (Kiss.Timeout e) {}
-           Thread.yield();
-        }
-    }
+    /* Not used. Packets are received by the KissDemux */
+    @Override protected void receiveLoop() 
+        {}
     
        
 }
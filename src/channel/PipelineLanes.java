@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import no.polaric.aprsd.*;
+import java.util.*;
+import java.util.function.*;
+
+
+
+/**
+ * Pipeline stages (lanes) with one worker each, sharded on a key. Items
+ * with the same key go to the same lane, so they are handled in the order
+ * they are put. Items with different keys may be handled in parallel.
+ */
+public class PipelineLanes<T>
+{
+    private final PipelineStage<T>[] _lanes;
+    private final Function<T, String> _key;
+
+
+
+    /**
+     * Constructor.
+     * @param name Name of lanes. Lanes are named name-0, name-1, etc.
+     * @param nlanes Number of lanes.
+     * @param capacity Queue size of each lane.
+     * @param key Key of item. Items with null key go to the first lane.
+     * @param h Handler of items.
+     */
+    @SuppressWarnings("unchecked")
+    public PipelineLanes(AprsServerConfig conf, String name, int nlanes, int capacity,
+                Function<T, String> key, PipelineStage.Handler<T> h)
+    {
+        _key = key;
+        _lanes = new PipelineStage[Math.max(1, nlanes)];
+        for (int i=0; i<_lanes.length; i++)
+            _lanes[i] = new PipelineStage<T>(conf, name+"-"+i, h, capacity, 1, PipelineStage.Policy.BLOCK);
+    }
+
+
+
+    /** Return the lane number for a key. */
+    public int lane(String key)
+        { return key == null ? 0 : (key.hashCode() & 0x7fffffff) % _lanes.length; }
+
+
+    /** Put an item on the lane given by its key. */
+    public void put(T x)
+        { _lanes[lane(_key.apply(x))].put(x); }
+
+
+    public int size()
+        { return _lanes.length; }
+
+
+    public List<PipelineStage.Stats> getStats() {
+        List<PipelineStage.Stats> res = new ArrayList<PipelineStage.Stats>();
+        for (PipelineStage<T> x : _lanes)
+            res.add(x.getStats());
+        return res;
+    }
+
+
+    /** Stop the workers. Items on the queues are discarded. */
+    public void shutdown() {
+        for (PipelineStage<T> x : _lanes)
+            x.shutdown();
+    }
+}
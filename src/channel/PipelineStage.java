@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import no.polaric.aprsd.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+/**
+ * Stage of the packet receive pipeline. Items are put on a bounded queue
+ * and handled by a number of worker threads. If the queue is full, the
+ * item is either dropped (DROP) or the caller waits until there is room
+ * (BLOCK). With one worker, items are handled in order.
+ *
+ * Worker threads are stopped when idle for a while and started again when
+ * needed.
+ */
+public class PipelineStage<T>
+{
+    public enum Policy { BLOCK, DROP }
+
+    /** Handler of items in a stage. */
+    public interface Handler<T> {
+        public void handle(T x);
+    }
+
+    /**
+     * Statistics. Latency is the time from an item is put on the queue
+     * until it is handled (ms).
+     */
+    public record Stats (String name, int workers, String policy, int depth, int capacity,
+                         long processed, long dropped, double avglatency, long maxlatency) {}
+
+
+    private String _name;
+    private Policy _policy;
+    private int    _workers, _capacity;
+    private Handler<T> _handler;
+    private ThreadPoolExecutor _exec;
+    private AprsServerConfig _conf;
+
+    private final AtomicLong _processed = new AtomicLong(0);
+    private final AtomicLong _dropped = new AtomicLong(0);
+    private final AtomicLong _latency = new AtomicLong(0);
+    private final AtomicLong _maxLatency = new AtomicLong(0);
+
+
+
+    /**
+     * Create a stage from configuration, with one worker, so that items are
+     * handled in order. Properties are <prefix>.<name>.queue and
+     * <prefix>.<name>.policy ('block' or 'drop').
+     */
+    public static <T> PipelineStage<T> create(AprsServerConfig conf, String prefix, String name,
+                Handler<T> h, int capacity, Policy policy)
+    {
+        String pfx = prefix+"."+name;
+        capacity = conf.getIntProperty(pfx+".queue", capacity);
+        String pol = conf.getProperty(pfx+".policy", policy.name()).toUpperCase();
+        try {
+            policy = Policy.valueOf(pol);
+        }
+        catch (IllegalArgumentException e) {
+            conf.log().warn("PipelineStage", "Unknown policy '"+pol+"' for "+pfx+". Using "+policy);
+        }
+        return new PipelineStage<T>(conf, name, h, capacity, 1, policy);
+    }
+
+
+
+    public PipelineStage(AprsServerConfig conf, String name, Handler<T> h, int capacity, int workers, Policy policy)
+    {
+        _conf = conf;
+        _name = name;
+        _handler = h;
+        _capacity = Math.max(1, capacity);
+        _workers = Math.max(1, workers);
+        _policy = policy;
+        _exec = new ThreadPoolExecutor(_workers, _workers, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(_capacity),
+            ExecService.factory("Pipeline-"+name, true),
+            (r, ex) -> {
+                if (_policy == Policy.BLOCK && !ex.isShutdown())
+                    try {
+                        ex.getQueue().put(r);
+                        return;
+                    }
+                    catch (InterruptedException e) {}
+                _dropped.incrementAndGet();
+            });
+        _exec.allowCoreThreadTimeOut(true);
+    }
+
+
+
+    /**
+     * Put an item on the queue.
+     */
+    public void put(T x)
+    {
+        long t = System.nanoTime();
+        _exec.execute( () -> {
+            long lat = (System.nanoTime() - t) / 1000000;
+            _latency.addAndGet(lat);
+            _maxLatency.accumulateAndGet(lat, Math::max);
+            try {
+                _handler.handle(x);
+            }
+            catch (Exception e) {
+                _conf.log().warn("PipelineStage", "Exception in stage '"+_name+"': "+e);
+                e.printStackTrace(System.out);
+            }
+            _processed.incrementAndGet();
+        });
+    }
+
+
+
+    public String getName()
+        { return _name; }
+
+
+    public Stats getStats() {
+        long n = _processed.get();
+        return new Stats(_name, _workers, _policy.name().toLowerCase(), _exec.getQueue().size(), _capacity,
+            n, _dropped.get(), (n == 0 ? 0 : (double) _latency.get() / n), _maxLatency.get());
+    }
+
+
+    /**
+     * Stop the workers. Items on the queue are discarded.
+     */
+    public void shutdown()
+        { _exec.shutdownNow(); }
+}
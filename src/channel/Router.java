@@ -123,6 +123,9 @@ public class Router extends AprsChannel
         String chn = _conf.getProperty("channel."+getIdent()+".channels", "");
         _chnames = chn.split(",(\\s)*");
         _channels = new AprsChannel[_chnames.length];
+        if (_filters != null)
+            for (AprsFilter f : _filters)
+                if (f != null) f.release();
         _filters = new AprsFilter[_chnames.length];
         log.info(null, "Connecting to "+_chnames.length+" channels");
         
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+/**
+ * Bounded queue of encoded lines to be written to a stream by a writer
+ * thread. Lines are written in batches, with one flush per batch. Putting
+ * a line never blocks. If the queue is full, the consumer is not able to
+ * keep up (slow consumer): the queue is closed and a handler is called.
+ */
+public class SendQueue
+{
+    /* Max number of lines written before flush */
+    private static final int MAX_BATCH = 256;
+
+    private final BlockingQueue<byte[]> _queue;
+    private final Runnable _onFull;
+    private final AtomicBoolean _closed = new AtomicBoolean(false);
+    private volatile Thread _writer;
+
+
+
+    /**
+     * Constructor.
+     * @param capacity Max number of lines on the queue.
+     * @param onFull Called (once) when the queue is closed because it is full. May be null.
+     */
+    public SendQueue(int capacity, Runnable onFull)
+    {
+        _queue = new ArrayBlockingQueue<byte[]>(Math.max(1, capacity));
+        _onFull = onFull;
+    }
+
+
+
+    /**
+     * Put encoded line(s) on the queue. The array must not be modified
+     * after this. If the queue is full, it is closed.
+     * @return false if the queue is closed or full.
+     */
+    public boolean offer(byte[] line)
+    {
+        if (_closed.get())
+            return false;
+        if (_queue.offer(line))
+            return true;
+        if (_close() && _onFull != null)
+            _onFull.run();
+        return false;
+    }
+
+
+
+    /**
+     * Write lines on the queue to the stream until the queue is closed or
+     * writing fails. To be run by the writer thread. The queue is closed
+     * when this returns.
+     */
+    public void write(OutputStream os)
+    {
+        _writer = Thread.currentThread();
+        List<byte[]> batch = new ArrayList<byte[]>(MAX_BATCH);
+        try {
+            OutputStream out = new BufferedOutputStream(os, 8192);
+            while (!_closed.get()) {
+                batch.add(_queue.take());
+                _queue.drainTo(batch, MAX_BATCH-1);
+                for (byte[] x : batch)
+                    out.write(x);
+                out.flush();
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {}
+        catch (IOException e) {}
+        _close();
+    }
+
+
+
+    /* Close. Return true if it was open */
+    private boolean _close()
+    {
+        if (!_closed.compareAndSet(false, true))
+            return false;
+        Thread t = _writer;
+        if (t != null && t != Thread.currentThread())
+            t.interrupt();
+        return true;
+    }
+
+
+
+    /**
+     * Close the queue. The writer stops. Lines on the queue are not written.
+     */
+    public void close()
+        { _close(); }
+
+
+    public boolean isClosed()
+        { return _closed.get(); }
+
+
+    /** Number of lines on the queue. */
+    public int size()
+        { return _queue.size(); }
+}
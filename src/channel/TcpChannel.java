@@ -74,9 +74,7 @@ public abstract class TcpChannel extends AprsChannel
             back.deActivate();
         
         /* Set up comm device */
-        _comm = new TcpComm(_conf, id, host, port, retr, rtime, log);
-        _comm.activate( 
-            ()-> receiveLoop(),
+        startDevice(host, port, retr, rtime,
             ()-> {
                     var bu = _conf.getChanManager().get(_backup);
                     if (bu != null) 
@@ -84,6 +82,17 @@ public abstract class TcpChannel extends AprsChannel
                }
          );
     }
+    
+    
+    
+    /**
+     * Connect to the server and start receiving. 
+     * @param onFail To be called if the connection fails (gives up). 
+     */
+    protected void startDevice(String host, int port, int retr, long rtime, Runnable onFail) {
+        _comm = new TcpComm(_conf, getIdent(), host, port, retr, rtime, log);
+        _comm.activate( ()-> receiveLoop(), ()-> onFail.run() );
+    }
 
     
     
@@ -95,6 +104,7 @@ public abstract class TcpChannel extends AprsChannel
             Thread.sleep(1000);
             _close();
         } catch (Exception e) {}  
+        stopPipeline();
     }
         
     
@@ -1,5 +1,5 @@
 /* 
- * Copyright (C) 2020-2025 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ * Copyright (C) 2020-2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU Affero General Public License as published by
@@ -23,14 +23,14 @@ import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.annotation.JsonSubTypes.*;
 
 /**
- * KISS over a TCP stream
+ * KISS over a TCP stream. Channels on different KISS ports of the same 
+ * server share the connection through a KissDemux. 
  */
  
 public class TcpKissChannel extends TcpChannel
 {
-    private   InputStream  _istream;
-    private   OutputStream _ostream;
-    private   Kiss         _kiss;
+    private   KissDemux    _demux;
+    private   String       _host; 
     private   int          _kissport;
     protected Logfile      _log; 
     
@@ -42,9 +42,49 @@ public class TcpKissChannel extends TcpChannel
         
     
     @Override public void activate(AprsServerConfig a) {
-       super.activate(_conf);
        _kissport = _conf.getIntProperty("channel."+getIdent()+".kissport", 0);
        _log = new Logfile(_conf, getIdent(), "rf.log");
+       super.activate(_conf);
+    }
+    
+    
+    
+    /**
+     * Attach to the KISS port on the TCP connection. 
+     */
+    @Override protected void startDevice(String host, int port, int retr, long rtime, Runnable onFail)
+    {
+        _host = host;
+        _demux = KissDemux.attach(_conf, host+":"+port, 
+            () -> new TcpComm(_conf, getIdent(), host, port, retr, rtime, log), 
+            _kissport, this, onFail);
+        if (_demux == null)
+            _state = State.FAILED;
+    }
+    
+    
+    @Override public State getState() {
+        KissDemux d = _demux;
+        if (d == null)
+            return _state;
+        return _state = d.getState(); 
+    }
+    
+    
+    @Override public boolean isActive() 
+        { return _demux != null; }
+    
+    
+    @Override public String getHost() 
+        { return _host; }
+    
+    
+    
+    /** Stop the service */
+    @Override public void deActivate() {
+        _state = State.OFF;
+        _close();
+        stopPipeline();
     }
     
     
@@ -93,60 +133,43 @@ public class TcpKissChannel extends TcpChannel
     
     
     /**
-     * Close down the channel. 
+     * Close down the channel. The connection is closed when no other channel uses it.
      */
     @Override protected void _close()
     {
-       try { 
-          if (_istream != null) _istream.close(); 
-          if (_ostream != null) _ostream.close();
-          if (_comm != null) _comm.deActivate(); 
-          Thread.sleep(500);
-       } catch (Exception e) {}
+        KissDemux.detach(_demux, _kissport, this);
+        _demux = null;
     }
   
   
    
-    public synchronized boolean sendPacket(AprsPacket p)
+    /**
+     * Send packet. The packet is put on the transmit queue of the connection.
+     */ 
+    public boolean sendPacket(AprsPacket p)
     {        
-        if (!isReady() || !canSend)
+        KissDemux d = _demux;
+        if (!isReady() || !canSend || d == null)
             return false; 
         _log.log(" [>" + this.getIdent() + "] " + p);
-        try {
-           if (_kiss!=null) {
-              _kiss.sendPacket(p);
-              _sent++;
-              return true; 
-           }
+        if (!d.send(_kissport, p)) {
+            _conf.log().warn("TcpKissChannel", chId()+"sendPacket: Not connected or queue full");
+            return false;
         }
-        catch (IOException e)
-           {  _conf.log().error("TcpKissChannel", chId()+"KissTncChannel.sendPacket: "+e); }
-        return false; 
+        _sent++;
+        return true; 
     }
   
   
   
-    @Override protected void receiveLoop() throws Exception
-    {
-         _istream = _comm.getInputStream();
-         _ostream = _comm.getOutputStream();
-         _kiss = new Kiss(_istream, _ostream, _kissport); 
-        
-         while (!_close) 
-         {
-            try { 
-                AprsPacket p = _kiss.receivePacket();
-                receivePacket(p, false);
-            }
-            catch (Kiss.Timeout e) {}
-            Thread.yield();
-         }
-    }
+    /* Not used. Packets are received by the KissDemux */
+    @Override protected void receiveLoop() 
+        {}
     
     
     @Override protected void regHeard(AprsPacket p) 
     {
-        _heard.put(p.from, new Heard(new Date(), p.via));
+        _heard.put(p.from, p.via);
         /* FIXME: Check for TCPxx in third party packets and consider registering 
          * more than one path instance */
     }
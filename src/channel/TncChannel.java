@@ -84,7 +84,16 @@ public abstract class TncChannel extends AprsChannel
         int retr = _conf.getIntProperty("channel."+id+".retry", 0);
         long rtime = Long.parseLong(_conf.getProperty("channel."+id+".retry.time", "30")) * 60 * 1000; 
         _logPackets = _conf.getBoolProperty("channel."+id+".logpackets", false);
-        _serial = new SerialComm(_conf, id, port, baud, retr, rtime);
+        startDevice(port, baud, retr, rtime);
+    }
+    
+    
+    
+   /**
+    * Open the serial device and start receiving. 
+    */
+    protected void startDevice(String port, int baud, int retr, long rtime) {
+        _serial = new SerialComm(_conf, getIdent(), port, baud, retr, rtime);
         _serial.activate( ()-> receiveLoop(), ()->{} );
     }
 
@@ -98,11 +107,12 @@ public abstract class TncChannel extends AprsChannel
     public void deActivate() {
         if (isActive())
             close();
+        stopPipeline();
     }
     
     
     @Override protected void regHeard(AprsPacket p) {
-        _heard.put(p.from, new Heard(new Date(), p.via));
+        _heard.put(p.from, p.via);
         /* FIXME: Check for TCPxx in third party packets and consider registering 
          * more than one path instance */
     }
@@ -16,7 +16,11 @@ package no.polaric.aprsd;
 import no.polaric.aprsd.aprs.*;
 import no.polaric.aprsd.point.*;
 import java.util.List;  
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Comparator;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import no.polaric.aprsd.filter.*;
 
 
@@ -97,6 +101,49 @@ public interface StationDB
     
     
         
+    /* Interface to journal of changes (write-ahead log) */
+    public interface Journal
+    {
+        /**
+         * Log setting or removal of tag. 
+         * @param tp Point object
+         * @param tag Tag
+         * @param data Tag data. May be null.
+         * @param delete false if tag is added, true if it is removed
+         */
+        public void setTag(PointObject tp, String tag, String data, boolean delete);
+        
+        
+        /**
+         * Log setting of alias. 
+         * @param tp Tracker point object
+         * @param alias Alias. null if deleted. 
+         */
+        public void setAlias(TrackerPoint tp, String alias);
+        
+        
+        /**
+         * Log setting of icon. 
+         * @param tp Tracker point object
+         * @param icon Icon filename. null if deleted. 
+         */
+        public void setIcon(TrackerPoint tp, String icon);
+    }
+    
+    
+    
+    /* Interface to search index. Notified when searchable text of a point changes */
+    public interface Indexer
+    {
+        /**
+         * Update index entries for point (alias or description changed).
+         * @param tp Tracker point object
+         */
+        public void reindex(TrackerPoint tp);
+    }
+    
+    
+    
     /** 
      * Get interface to database storage (plugin) 
      */
@@ -204,6 +251,63 @@ public interface StationDB
     
     
     
+    /**
+     * Return a page of trackerpoints where the ident has the given prefix, ordered
+     * by ident (case-insensitive). The default implementation filters and sorts 
+     * the result of searchPrefix(prefix). 
+     * @param prefix Prefix (case-insensitive). 
+     * @param after Ident of the last item of the previous page. null for the first page. 
+     * @param limit Max number of items to return. Negative means no limit. 
+     * @param filter Only items accepted by the filter are returned (and counted). Null is allowed. 
+     */
+    public default List<TrackerPoint> searchPrefix(String prefix, String after, int limit, Predicate<TrackerPoint> filter)
+    {
+        if (prefix == null)
+            return new ArrayList<TrackerPoint>();
+        String pfx = prefix.toUpperCase();
+        String from = (after == null ? null : _sortKey(after));
+        return searchPrefix(pfx).stream()
+            .filter(x -> x.getIdent().toUpperCase().startsWith(pfx))
+            .filter(x -> from == null || _sortKey(x.getIdent()).compareTo(from) > 0)
+            .filter(x -> filter == null || filter.test(x))
+            .sorted(Comparator.comparing(x -> _sortKey(x.getIdent())))
+            .limit(limit < 0 ? Long.MAX_VALUE : limit)
+            .collect(Collectors.toList());
+    }
+    
+    
+    
+    /**
+     * Return trackerpoints where the ident is in the given range, ordered 
+     * by ident (case-insensitive). The default implementation filters and 
+     * sorts all items (searchPrefix with an empty prefix). 
+     * @param from Lower bound (inclusive, case-insensitive). null means no lower bound. 
+     * @param to Upper bound (exclusive, case-insensitive). null means no upper bound. 
+     * @param limit Max number of items to return. Negative means no limit. 
+     */
+    public default List<TrackerPoint> searchRange(String from, String to, int limit)
+    {
+        String lo = (from == null ? null : from.toUpperCase());
+        String hi = (to == null ? null : to.toUpperCase());
+        return searchPrefix("").stream()
+            .filter(x -> lo == null || _sortKey(x.getIdent()).compareTo(lo) >= 0)
+            .filter(x -> hi == null || _sortKey(x.getIdent()).compareTo(hi) < 0)
+            .sorted(Comparator.comparing(x -> _sortKey(x.getIdent())))
+            .limit(limit < 0 ? Long.MAX_VALUE : limit)
+            .collect(Collectors.toList());
+    }
+    
+    
+    
+    /* 
+     * Sort key of ident: upper case, with the ident appended to make keys 
+     * unique. Same order as used by StationDBImp. 
+     */
+    private static String _sortKey(String ident)
+        { return ident.toUpperCase() + '\u0000' + ident; }
+    
+    
+    
     /**
      * Search in the database of trackerpoints. 
      * Return a list of trackerpoints where ident or description matches the given search 
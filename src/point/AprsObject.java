@@ -15,8 +15,9 @@
 package no.polaric.aprsd.point;
 import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*;
+import no.polaric.aprsd.util.*;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
   
   
 /**
@@ -53,6 +54,7 @@ public class AprsObject extends AprsPoint implements Serializable
     private Station   _owner; // FIXME: use ident instead
     private boolean   _killed = false;
     private boolean   _timeless = false;
+    private transient String _ownerId;
        /* If an object is timeless it also permanent, i.e. it allows other permanent objects 
         * to exist with the same name (in another area and with another owner id)
         * Permanence is a proposed APRS 1.2 feature
@@ -158,6 +160,38 @@ public class AprsObject extends AprsPoint implements Serializable
     }
     
     
+    /**
+     * Write to binary snapshot. The owner is written as its ident. 
+     * It must be resolved with setOwner() after reading. 
+     */
+    @Override public void writeSnapshot(DataOutput out) throws IOException
+    {
+        super.writeSnapshot(out);
+        out.writeUTF(_ident);
+        DataIO.writeStr(out, _owner == null ? null : _owner.getIdent());
+        out.writeBoolean(_killed);
+        out.writeBoolean(_timeless);
+    }
+    
+    
+    @Override public void readSnapshot(DataInput in) throws IOException
+    {
+        super.readSnapshot(in);
+        _ident = in.readUTF();
+        _ownerId = DataIO.readStr(in);
+        _killed = in.readBoolean();
+        _timeless = in.readBoolean();
+    }
+    
+    
+    /** 
+     * Ident of owner as read from snapshot. Null if not read from snapshot. 
+     */
+    public String getSnapshotOwnerId()
+       { return _ownerId; }
+    
+    
+    
     /** 
      * Return true if object has expired. 
      */ 
@@ -17,7 +17,7 @@ import no.polaric.core.*;
 import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
   
 
 /**
@@ -110,6 +110,53 @@ public abstract class AprsPoint extends TrackerPoint implements Serializable, Cl
     }
         
         
+    /**
+     * Apply position update from journal (when restoring at startup). This does not 
+     * notify or update the database and is ignored if it is not newer than the 
+     * current position. 
+     * @return true if applied. 
+     */
+    public synchronized boolean replayUpdate(Date ts, LatLng pos, int speed, int course, int altitude,
+                 char sym, char symtab, int ambiguity, String descr, String path) 
+    {
+        if (ts == null || (_updated != null && ts.getTime() <= _updated.getTime()))
+            return false; 
+        if (_position != null && pos != null && _updated != null && distance(pos) > Trail.mindist)
+            _trail.add(_updated, _position, getSpeed(), getCourse(), path);
+        _position = pos;
+        _updated = ts;
+        _expired = false;
+        setSpeed(speed);
+        setCourse(course);
+        setAltitude(altitude);
+        _symbol = sym;
+        _altsym = symtab;
+        _ambiguity = ambiguity;
+        if (descr != null)
+            _description = descr;
+        return true;
+    }
+    
+    
+    
+    @Override public void writeSnapshot(DataOutput out) throws IOException
+    {
+        super.writeSnapshot(out);
+        out.writeChar(_symbol);
+        out.writeChar(_altsym);
+        out.writeInt(_ambiguity);
+    }
+    
+    
+    @Override public void readSnapshot(DataInput in) throws IOException
+    {
+        super.readSnapshot(in);
+        _symbol = in.readChar();
+        _altsym = in.readChar();
+        _ambiguity = in.readInt();
+    }
+        
+        
     /**
      * Manual update of position. 
      *
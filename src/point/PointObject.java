@@ -16,6 +16,7 @@ package no.polaric.aprsd.point;
 import no.polaric.core.*;
 import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*;
+import no.polaric.aprsd.util.*;
 import java.util.*;
 import java.io.*;
 import java.util.regex.*;
@@ -43,6 +44,20 @@ public abstract class PointObject extends Point implements Cloneable, Serializab
     protected static AprsServerConfig   _conf = null;
         
     protected boolean  _nodb = false;
+    protected static StationDB.Journal _journal = null;
+    
+    
+    /** Set journal to log changes to. Null to turn off. */
+    public static void setJournal(StationDB.Journal j)
+      { _journal = j; }
+      
+      
+    /** Return the database storage (plugin) if present. Null if not. */
+    protected static StationDB.Hist histDB() { 
+        StationDB db = (_conf == null ? null : _conf.getDB());
+        return (db == null ? null : db.getHistDB()); 
+    }
+    
             
     public void setNoDb(boolean ndb)
       { _nodb = ndb; }
@@ -69,6 +84,80 @@ public abstract class PointObject extends Point implements Cloneable, Serializab
             _tagUse = (SortedMap<String,Integer>) obj; 
     }
       
+      
+    /** 
+     * Save tags in binary snapshot. 
+     */
+    public static void writeTags(DataOutput out) 
+      throws IOException
+    { 
+        synchronized(_tagUse) {
+            out.writeInt(_tagUse.size());
+            for (Map.Entry<String, Integer> e : _tagUse.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        }
+    }
+    
+    
+    /** 
+     * Restore tags from binary snapshot. 
+     */
+    public static void readTags(DataInput in) 
+      throws IOException
+    { 
+        SortedMap<String, Integer> tags = new TreeMap<String, Integer>();
+        int n = in.readInt();
+        for (int i=0; i<n; i++)
+            tags.put(in.readUTF(), in.readInt());
+        _tagUse = tags;
+    }
+      
+      
+      
+    /**
+     * Write fields to binary snapshot. Subclasses that add persistent 
+     * fields should override this, call it first and then write their own. 
+     * Caller should hold the lock on the object. 
+     */
+    public void writeSnapshot(DataOutput out) throws IOException
+    {
+        DataIO.writePos(out, _position);
+        DataIO.writeStr(out, _icon);
+        DataIO.writeStr(out, _description);
+        out.writeBoolean(_nodb);
+        DataIO.writeStrings(out, _tags);
+        out.writeInt(_tagData.size());
+        for (Map.Entry<String, String> e : _tagData.entrySet()) {
+            out.writeUTF(e.getKey());
+            DataIO.writeStr(out, e.getValue());
+        }
+    }
+    
+    
+    /**
+     * Read fields from binary snapshot. Must read what is 
+     * written by writeSnapshot in the same order. 
+     */
+    public void readSnapshot(DataInput in) throws IOException
+    {
+        _position = DataIO.readPos(in);
+        _icon = DataIO.readStr(in);
+        _description = DataIO.readStr(in);
+        _nodb = in.readBoolean();
+        _tags.clear();
+        DataIO.readStrings(in, _tags);
+        _utags = 0;
+        for (String t : _tags)
+            if (t.charAt(0) == '+' || t.charAt(0) == '-')
+                _utags++;
+        _tagData.clear();
+        int n = in.readInt();
+        for (int i=0; i<n; i++)
+            _tagData.put(in.readUTF(), DataIO.readStr(in));
+    }
+      
 
       
     /**
@@ -176,9 +265,11 @@ public abstract class PointObject extends Point implements Cloneable, Serializab
             _tagData.put(tag, tagdata);
         }
         
-        StationDB.Hist hdb = _conf.getDB().getHistDB(); 
+        StationDB.Hist hdb = histDB(); 
         if (hdb != null && !_nodb)
             hdb.setTag(this, tag, false);
+        if (_journal != null)
+            _journal.setTag(this, tag, tagdata, false);
     }
     
     
@@ -194,9 +285,11 @@ public abstract class PointObject extends Point implements Cloneable, Serializab
         if (tag.charAt(0) == '+' || tag.charAt(0) == '-')
             _utags--;
         
-        StationDB.Hist hdb = _conf.getDB().getHistDB(); 
+        StationDB.Hist hdb = histDB(); 
         if (hdb != null && !_nodb)
             hdb.setTag(this, tag, true);
+        if (_journal != null)
+            _journal.setTag(this, tag, null, true);
     }
     
     
@@ -208,9 +301,11 @@ public abstract class PointObject extends Point implements Cloneable, Serializab
         for (String x : _tags) {
            _decrementTag(x);   
             /* Mark as removed in hist db, if necessary */
-            StationDB.Hist hdb = _conf.getDB().getHistDB(); 
+            StationDB.Hist hdb = histDB(); 
             if (hdb != null && !_nodb)
                 hdb.setTag(this, x, true);
+            if (_journal != null)
+                _journal.setTag(this, x, null, true);
         }
         _tags.clear();
         _tagData.clear();
@@ -15,8 +15,9 @@
 package no.polaric.aprsd.point;
 import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*;
+import no.polaric.aprsd.util.*;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
   
   
 /**
@@ -253,6 +254,45 @@ public class Station extends AprsPoint implements Serializable, Cloneable
     
 
     
+    @Override public void writeSnapshot(DataOutput out) throws IOException
+    {
+        super.writeSnapshot(out);
+        out.writeUTF(_callsign);
+        out.writeBoolean(_status != null);
+        if (_status != null) {
+            DataIO.writeDate(out, _status.time);
+            DataIO.writeStr(out, _status.text);
+        }
+        DataIO.writeStr(out, _pathinfo);
+        out.writeInt(_report_ignored);
+        out.writeBoolean(_igate);
+        out.writeBoolean(_wdigi);
+        DataIO.writeDate(out, _infra_updated);
+        DataIO.writeStr(out, _source);
+        
+        /* Telemetry has no explicit format. Use Java serialization */
+        out.writeBoolean(_telemetry != null);
+        if (_telemetry != null)
+            DataIO.writeObject(out, _telemetry);
+    }
+    
+    
+    @Override public void readSnapshot(DataInput in) throws IOException
+    {
+        super.readSnapshot(in);
+        _callsign = in.readUTF();
+        _status = (in.readBoolean() ? new Status(DataIO.readDate(in), DataIO.readStr(in)) : null);
+        _pathinfo = DataIO.readStr(in);
+        _report_ignored = in.readInt();
+        _igate = in.readBoolean();
+        _wdigi = in.readBoolean();
+        _infra_updated = DataIO.readDate(in);
+        _source = DataIO.readStr(in);
+        _telemetry = (in.readBoolean() ? (Telemetry) DataIO.readObject(in) : null);
+    }
+    
+    
+    
     @Override
     public synchronized boolean _expired()
     {
@@ -18,7 +18,7 @@ import no.polaric.aprsd.*;
 import no.polaric.aprsd.aprs.*; 
 import no.polaric.aprsd.util.*;
 import java.util.*;
-import java.io.Serializable;
+import java.io.*;
 import no.polaric.aprsd.filter.ViewFilter; 
 import java.time.format.DateTimeFormatter;  
 
@@ -38,6 +38,11 @@ public abstract class TrackerPoint extends PointObject implements Serializable,
     public static void setNotifier(Notifier n)
         { _change = n; }
     
+    private static StationDB.Indexer _indexer; 
+    
+    public static void setIndexer(StationDB.Indexer ix)
+        { _indexer = ix; }
+    
     public static void setConf(AprsServerConfig c) { 
        _conf = c; 
        _colTab = new ColourTable (c, System.getProperties().getProperty("confdir", ".")+"/trailcolours");
@@ -371,9 +376,13 @@ public abstract class TrackerPoint extends PointObject implements Serializable,
     {  
       if (changeOf(_alias, a)) {
         _alias = a;
-        StationDB.Hist hdb = _conf.getDB().getHistDB(); 
+        StationDB.Hist hdb = histDB(); 
         if (hdb != null && !_nodb)
             hdb.setAlias(this, a);
+        if (_journal != null)
+            _journal.setAlias(this, a);
+        if (_indexer != null)
+            _indexer.reindex(this);
          setChanging();
          return true;
       }
@@ -390,9 +399,11 @@ public abstract class TrackerPoint extends PointObject implements Serializable,
     {  
       if (changeOf(_icon, a)) {
         _icon = a;    
-        StationDB.Hist hdb = _conf.getDB().getHistDB(); 
+        StationDB.Hist hdb = histDB(); 
         if (hdb != null && !_nodb)
             hdb.setIcon(this, a);
+        if (_journal != null)
+            _journal.setIcon(this, a);
         setChanging();
         return true;
       }
@@ -453,9 +464,12 @@ public abstract class TrackerPoint extends PointObject implements Serializable,
     {   
         if (d != null) 
         {
-           if (_description==null || !_description.equals(d))
+           boolean changed = (_description==null || !_description.equals(d));
+           if (changed)
                setChanging(); 
            _description = d;  
+           if (changed && _indexer != null)
+               _indexer.reindex(this);
         }
     }
     
@@ -463,6 +477,65 @@ public abstract class TrackerPoint extends PointObject implements Serializable,
    
    /************ Methods related to persistence and expiry *************/
     
+    /** 
+     * Write trail items to binary snapshot. 
+     */
+    public void writeTrail(DataOutput out) throws IOException
+        { _trail.writeSnapshot(out); }
+    
+    
+    /**
+     * Read trail items from binary snapshot. This may be done after the point is 
+     * in use, so items are merged with what is added to the trail since. 
+     */
+    public void readTrail(DataInput in) throws IOException
+    {
+        Trail t = new Trail();
+        t.readSnapshot(in);
+        _trail.mergeOlder(t);
+    }
+    
+    
+    @Override public void writeSnapshot(DataOutput out) throws IOException
+    {
+        super.writeSnapshot(out);
+        /* Trail items are written separately, see writeTrail() */
+        _trail.writeSnapshot(out, false);
+        DataIO.writeStr(out, _trailcolor[0]);
+        DataIO.writeStr(out, _trailcolor[1]);
+        out.writeInt(_course);
+        out.writeInt(_speed);
+        out.writeInt(_altitude);
+        out.writeBoolean(_changing);
+        DataIO.writeDate(out, _updated);
+        DataIO.writeDate(out, _lastChanged);
+        out.writeBoolean(_expired);
+        DataIO.writeStr(out, _alias);
+        out.writeBoolean(_hidelabel);
+        DataIO.writeStr(out, _user);
+    }
+    
+    
+    @Override public void readSnapshot(DataInput in) throws IOException
+    {
+        super.readSnapshot(in);
+        _trail = new Trail();
+        _trail.readSnapshot(in);
+        _trailcolor = new String[] {DataIO.readStr(in), DataIO.readStr(in)};
+        _course = in.readInt();
+        _speed = in.readInt();
+        _altitude = in.readInt();
+        _changing = in.readBoolean();
+        _updated = DataIO.readDate(in);
+        _lastChanged = DataIO.readDate(in);
+        _expired = in.readBoolean();
+        _alias = DataIO.readStr(in);
+        _hidelabel = in.readBoolean();
+        _user = DataIO.readStr(in);
+    }
+    
+    
+    
     public String getUser()
        { return _user; }
        
@@ -15,7 +15,7 @@
 package no.polaric.aprsd.point;
 import no.polaric.aprsd.util.*;
 import java.util.*;   
-import java.io.Serializable;  
+import java.io.*;  
 import java.util.function.*;
 
 
@@ -243,6 +243,70 @@ public class Trail implements Iterable<Trail.Item>, Serializable
     }
     
     
+    /**
+     * Write trail to binary snapshot.
+     */
+    public void writeSnapshot(DataOutput out) throws IOException
+        { writeSnapshot(out, true); }
+        
+        
+    /**
+     * Write trail to binary snapshot. 
+     * @param items If false, write only the settings and no items. 
+     */
+    public synchronized void writeSnapshot(DataOutput out, boolean items) throws IOException
+    {
+        out.writeLong(_expire);
+        out.writeLong(_length);
+        out.writeInt(items ? _items.size() : 0);
+        if (items)
+          for (Item x : _items) {
+            out.writeLong(x.getTS().getTime());
+            DataIO.writePos(out, x.getPosition());
+            out.writeInt(x.speed);
+            out.writeInt(x.course);
+            DataIO.writeStr(out, x.getPath());
+          }
+    }
+    
+    
+    /**
+     * Read trail from binary snapshot. 
+     */
+    public synchronized void readSnapshot(DataInput in) throws IOException
+    {
+        _expire = in.readLong();
+        _length = in.readLong();
+        _items.clear();
+        int n = in.readInt();
+        for (int i=0; i<n; i++) {
+            Date t = new Date(in.readLong());
+            LatLng p = DataIO.readPos(in);
+            int sp = in.readInt();
+            int crs = in.readInt();
+            _items.add(new Item(t, p, sp, crs, DataIO.readStr(in)));
+        }
+    }
+    
+    
+    
+    /**
+     * Add the items of another trail that are older than the oldest item 
+     * in this trail. Used when trails are loaded after the points. 
+     */
+    public synchronized void mergeOlder(Trail t)
+    {
+        Date oldest = oldestPoint();
+        synchronized(t) {
+            for (Item x : t._items)
+                if (oldest == null || x.getTS().getTime() < oldest.getTime())
+                    _items.addLast(x);
+        }
+        cleanUp(new Date());
+    }
+    
+    
+    
     /**
      * Remove the oldest entries in history.
      */
@@ -200,12 +200,7 @@ public class ItemApi extends ServerBase {
                 _conf.getDB().search(srch, tagList)
                     .stream()
                     .filter( x -> authForItem(ctx, x))
-                    .map( x -> new JsPoint( 
-                        x.getIdent(), 
-                        x.getDisplayId(), x.getAlias(), 
-                        x.getPosition()==null ? null :
-                            new double[] { ((LatLng)x.getPosition()).getLng(), ((LatLng)x.getPosition()).getLat() }, 
-                        x.getUpdated(), x.getDescr(), x.getSpeed(), x.getCourse() ) )
+                    .map( x -> _jsPoint(x) )
                     .collect(Collectors.toList());
             return result;
         } catch (Exception e)
@@ -213,6 +208,49 @@ public class ItemApi extends ServerBase {
     }
     
     
+    private JsPoint _jsPoint(TrackerPoint x) {
+        return new JsPoint( 
+            x.getIdent(), 
+            x.getDisplayId(), x.getAlias(), 
+            x.getPosition()==null ? null :
+                new double[] { ((LatLng)x.getPosition()).getLng(), ((LatLng)x.getPosition()).getLat() }, 
+            x.getUpdated(), x.getDescr(), x.getSpeed(), x.getCourse() );
+    }
+    
+    
+    private static final int PREFIX_LIMIT = 50, PREFIX_MAXLIMIT = 1000;
+    
+    /* 
+     * Prefix search (autocomplete). Returns null and sets an error status if 
+     * parameters are invalid. 
+     */
+    private List<JsPoint> _searchPrefix(Context ctx) {
+        var prefix = ctx.queryParam("prefix");
+        var after = ctx.queryParam("after");
+        var limit = ctx.queryParam("limit");
+        if (prefix == null)
+            prefix = "";
+        if (after != null && after.equals(""))
+            after = null;
+        int lim = PREFIX_LIMIT;
+        try {
+            if (limit != null && !limit.equals(""))
+                lim = Math.min(Integer.parseInt(limit), PREFIX_MAXLIMIT);
+        }
+        catch (NumberFormatException e) {
+            ERROR(ctx, 400, "Invalid query param: "+limit);
+            return null;
+        }
+        if (lim < 0) 
+            lim = PREFIX_LIMIT;
+        
+        return _conf.getDB().searchPrefix(prefix, after, lim, x -> authForItem(ctx, x))
+            .stream()
+            .map( x -> _jsPoint(x) )
+            .collect(Collectors.toList());
+    }
+    
+    
     /*
      * Log, notify admin and other server about change of alias 
      * Should this be in ServerBase?
@@ -315,6 +353,28 @@ public class ItemApi extends ServerBase {
         
         
         
+        /*******************************************
+         * Search items with ident prefix (autocomplete). 
+         * Returns list of items ordered by ident. 
+         * Parameters: 
+         *    prefix - ident prefix (case-insensitive)
+         *    after  - ident of last item of previous page
+         *    limit  - max number of items (default 50)
+         *******************************************/ 
+        a.get("/items/prefix", (ctx) -> {
+            var res = _searchPrefix(ctx);
+            if (res != null)
+                ctx.json(res);
+        });
+        
+        a.get("/xitems/prefix", (ctx) -> {
+            var res = _searchPrefix(ctx);
+            if (res != null)
+                ctx.json(res);
+        });
+        
+        
+        
         /*******************************************
          * Get Info about a given item
          * xinfo is for logged-in users
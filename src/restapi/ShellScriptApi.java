@@ -151,7 +151,7 @@ public class ShellScriptApi extends ServerBase {
         
         
         public void startDetached()  { 
-            Thread thread = new Thread( () -> {
+            Thread thread = ExecService.thread("ShellScript", () -> {
                 try {
                     int res = runAndWait(14400); 
                     Thread.sleep(1000);
@@ -65,6 +65,8 @@ public class SysAdminApi extends ServerBase {
         public List<String> plugins;
         public List<ChannelInfo> channels;
         public String remotectl;
+        public DupCheck.Stats dupcheck;
+        public List<PipelineStage.Stats> parser;
     }
     
     
@@ -173,7 +175,8 @@ public class SysAdminApi extends ServerBase {
     
     
     public static record ClientInfo
-       (Date created, String cid, long in, long out, String userid, boolean mobile)
+       (Date created, String cid, long in, long out, String userid, boolean mobile, 
+        JsonMapUpdater.ClientStats updates)
     {}
     
     
@@ -357,6 +360,8 @@ public class SysAdminApi extends ServerBase {
             /* Connected servers */
             RemoteCtl rctl = _conf.getRemoteCtl(); 
             res.remotectl = (rctl == null ? "" : rctl.toString());
+            res.dupcheck = AprsChannel._dupCheck.getStats();
+            res.parser = _conf.getAprsParser().getLaneStats();
             
             ctx.json(res);
         });
@@ -371,7 +376,8 @@ public class SysAdminApi extends ServerBase {
             List<ClientInfo> res = new ArrayList<ClientInfo>();
             
             for ( WsNotifier.Client x : ws.getJsonMapUpdater().clients()) {
-                res.add(new ClientInfo(x.created(), x.uid(), x.nIn(), x.nOut(), x.userName(), x.isMobile()));
+                res.add(new ClientInfo(x.created(), x.uid(), x.nIn(), x.nOut(), x.userName(), x.isMobile(),
+                    (x instanceof JsonMapUpdater.Client c ? c.getStats() : null) ));
             }
             ctx.json(res);
         });
@@ -451,6 +457,66 @@ public class SysAdminApi extends ServerBase {
         });
         
             
+       /******************************************
+        * Return receive pipeline statistics
+        ******************************************/
+        a.get("/system/adm/channels/{ch}/pipeline", (ctx) -> {
+            var chname = ctx.pathParam("ch");
+            Channel ch = _conf.getChanManager().get(chname);
+            if (ch==null) 
+                ERROR(ctx, 404, "Channel not found: "+chname);
+            else if (ch instanceof AprsChannel ach)
+                ctx.json(ach.getPipelineStats());
+            else
+                ERROR(ctx, 400, "Invalid channel type: "+chname);
+        });
+        
+        
+        
+       /******************************************
+        * Return heard table statistics
+        ******************************************/
+        a.get("/system/adm/channels/{ch}/heard", (ctx) -> {
+            var chname = ctx.pathParam("ch");
+            Channel ch = _conf.getChanManager().get(chname);
+            if (ch==null) 
+                ERROR(ctx, 404, "Channel not found: "+chname);
+            else if (ch instanceof AprsChannel ach)
+                ctx.json(ach.getHeardStats());
+            else
+                ERROR(ctx, 400, "Invalid channel type: "+chname);
+        });
+        
+        
+        
+       /******************************************
+        * Return KISS device statistics (per port)
+        ******************************************/
+        a.get("/system/adm/kiss", (ctx) -> {
+            ctx.json(KissDemux.getAllStats());
+        });
+        
+        
+        
+       /******************************************
+        * Return map overlay cache statistics
+        ******************************************/
+        a.get("/system/adm/mapcache", (ctx) -> {
+            MyWebServer ws = (MyWebServer) _conf.getWebserver();
+            ctx.json(ws.getJsonMapUpdater().getCacheStats());
+        });
+        
+        
+        
+       /******************************************
+        * Return thread and scheduler statistics
+        ******************************************/
+        a.get("/system/adm/threads", (ctx) -> {
+            ctx.json(ExecService.getStats());
+        });
+        
+        
+        
        /******************************************
         * Return list of connected clients
         ******************************************/
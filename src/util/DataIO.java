@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.util;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import java.io.*;
+
+
+
+/**
+ * Helpers for writing and reading nullable values in binary snapshot files.
+ */
+public class DataIO
+{
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+
+    public static void writeStr(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    public static String readStr(DataInput in) throws IOException
+        { return in.readBoolean() ? in.readUTF() : null; }
+
+
+
+    public static void writeDate(DataOutput out, Date d) throws IOException
+        { out.writeLong(d == null ? NULL_DATE : d.getTime()); }
+
+    public static Date readDate(DataInput in) throws IOException {
+        long t = in.readLong();
+        return (t == NULL_DATE ? null : new Date(t));
+    }
+
+
+
+    public static void writePos(DataOutput out, LatLng p) throws IOException {
+        out.writeBoolean(p != null);
+        if (p != null) {
+            out.writeDouble(p.getLat());
+            out.writeDouble(p.getLng());
+        }
+    }
+
+    public static LatLng readPos(DataInput in) throws IOException
+        { return in.readBoolean() ? new LatLng(in.readDouble(), in.readDouble()) : null; }
+
+
+
+    public static void writeStrings(DataOutput out, Collection<String> c) throws IOException {
+        out.writeInt(c.size());
+        for (String s : c)
+            out.writeUTF(s);
+    }
+
+    public static void readStrings(DataInput in, Collection<String> c) throws IOException {
+        int n = in.readInt();
+        for (int i=0; i<n; i++)
+            c.add(in.readUTF());
+    }
+
+
+
+    /**
+     * Write an object using Java serialization, as a length-prefixed blob.
+     * Used for parts that do not have an explicit binary format.
+     */
+    public static void writeObject(DataOutput out, Object x) throws IOException {
+        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bs);
+        os.writeObject(x);
+        os.close();
+        out.writeInt(bs.size());
+        out.write(bs.toByteArray());
+    }
+
+    public static Object readObject(DataInput in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        try {
+            ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(b));
+            return is.readObject();
+        }
+        catch (ClassNotFoundException e)
+            { throw new IOException("Cannot read object: "+e.getMessage()); }
+    }
+}
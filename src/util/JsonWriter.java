@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.util;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+
+/**
+ * Streaming JSON writer to a growable byte buffer (UTF-8). The buffer is
+ * reused after reset(), so a writer can be kept per thread.
+ *
+ * Output is compact and written like Jackson does with default settings:
+ * no whitespace, doubles as Double.toString, control characters escaped
+ * with short forms (\b \t \n \f \r) or \\u00XX (upper case hex), and
+ * other characters as they are. Unpaired surrogates are written as '?'.
+ */
+public class JsonWriter
+{
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[]  _buf;
+    private int     _len = 0;
+
+    /* For each nesting level: true if nothing is written yet */
+    private boolean[] _first = new boolean[16];
+    private int     _depth = 0;
+    private boolean _afterName = false;
+
+
+
+    public JsonWriter(int size)
+        { _buf = new byte[Math.max(64, size)]; }
+
+    public JsonWriter()
+        { this(4096); }
+
+
+
+    /** Clear the content. The buffer is kept. */
+    public JsonWriter reset()
+    {
+        _len = 0;
+        _depth = 0;
+        _afterName = false;
+        return this;
+    }
+
+
+    public int size()
+        { return _len; }
+
+
+    /** Copy of the content. */
+    public byte[] toBytes()
+        { return Arrays.copyOf(_buf, _len); }
+
+
+    @Override public String toString()
+        { return new String(_buf, 0, _len, StandardCharsets.UTF_8); }
+
+
+
+    private void _ensure(int n)
+    {
+        if (_len + n > _buf.length)
+            _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _len + n));
+    }
+
+
+    private void _put(byte b)
+    {
+        _ensure(1);
+        _buf[_len++] = b;
+    }
+
+
+    private void _put(byte[] b)
+    {
+        _ensure(b.length);
+        System.arraycopy(b, 0, _buf, _len, b.length);
+        _len += b.length;
+    }
+
+
+    /* Write a comma if this is not the first value in an array or object */
+    private void _sep()
+    {
+        if (_afterName) {
+            _afterName = false;
+            return;
+        }
+        if (_depth > 0) {
+            if (!_first[_depth-1])
+                _put((byte) ',');
+            _first[_depth-1] = false;
+        }
+    }
+
+
+    private void _open(byte b)
+    {
+        _sep();
+        _put(b);
+        _push();
+    }
+
+
+    private void _push()
+    {
+        if (_depth == _first.length)
+            _first = Arrays.copyOf(_first, _depth * 2);
+        _first[_depth++] = true;
+    }
+
+
+
+    public JsonWriter beginObject()
+        { _open((byte) '{'); return this; }
+
+    public JsonWriter endObject()
+        { _depth--; _put((byte) '}'); return this; }
+
+    public JsonWriter beginArray()
+        { _open((byte) '['); return this; }
+
+    public JsonWriter endArray()
+        { _depth--; _put((byte) ']'); return this; }
+
+
+    /**
+     * Start members of an object without the braces. The result can be put
+     * into an object with rawMembers.
+     */
+    public JsonWriter beginMembers()
+        { _push(); return this; }
+
+    public JsonWriter endMembers()
+        { _depth--; return this; }
+
+
+
+    /** Field name. To be followed by a value. */
+    public JsonWriter name(String n)
+    {
+        _sep();
+        _string(n);
+        _put((byte) ':');
+        _afterName = true;
+        return this;
+    }
+
+
+
+    public JsonWriter value(String s)
+    {
+        _sep();
+        if (s == null)
+            _put(NULL);
+        else
+            _string(s);
+        return this;
+    }
+
+
+    public JsonWriter value(boolean b)
+        { _sep(); _put(b ? TRUE : FALSE); return this; }
+
+
+    public JsonWriter value(long x)
+        { _sep(); _ascii(Long.toString(x)); return this; }
+
+
+    public JsonWriter value(double x)
+    {
+        _sep();
+        if (Double.isNaN(x) || Double.isInfinite(x))
+            _string(Double.toString(x));
+        else
+            _ascii(Double.toString(x));
+        return this;
+    }
+
+
+    public JsonWriter nullValue()
+        { _sep(); _put(NULL); return this; }
+
+
+    /** Array of strings (or null). */
+    public JsonWriter value(String[] a)
+    {
+        if (a == null)
+            return nullValue();
+        beginArray();
+        for (String s : a)
+            value(s);
+        return endArray();
+    }
+
+
+    /** Array of doubles (or null). */
+    public JsonWriter value(double[] a)
+    {
+        if (a == null)
+            return nullValue();
+        beginArray();
+        for (double x : a)
+            value(x);
+        return endArray();
+    }
+
+
+    /** Value that is already JSON (UTF-8). null is written as null. */
+    public JsonWriter rawValue(byte[] json)
+    {
+        _sep();
+        _put(json == null ? NULL : json);
+        return this;
+    }
+
+
+    /** Value that is already JSON. null is written as null. */
+    public JsonWriter rawValue(String json)
+        { return rawValue(json == null ? null : json.getBytes(StandardCharsets.UTF_8)); }
+
+
+    /** Members of an object that are already JSON (see beginMembers). */
+    public JsonWriter rawMembers(byte[] json)
+    {
+        if (json.length == 0)
+            return this;
+        _sep();
+        _put(json);
+        return this;
+    }
+
+
+
+    private void _ascii(String s)
+    {
+        _ensure(s.length());
+        for (int i=0; i<s.length(); i++)
+            _buf[_len++] = (byte) s.charAt(i);
+    }
+
+
+
+    /* Quoted and escaped string, UTF-8 encoded. A char takes at most 6 bytes (escaped) */
+    private void _string(String s)
+    {
+        _ensure(s.length() * 6 + 2);
+        _buf[_len++] = '"';
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\')
+                    _buf[_len++] = (byte) c;
+                else
+                    _escape(c);
+            }
+            else if (c < 0x800) {
+                _buf[_len++] = (byte) (0xc0 | (c >> 6));
+                _buf[_len++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i+1 < s.length() && Character.isLowSurrogate(s.charAt(i+1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                _buf[_len++] = (byte) (0xf0 | (cp >> 18));
+                _buf[_len++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                _buf[_len++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                _buf[_len++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            else if (Character.isSurrogate(c))
+                /* Unpaired surrogate. Encoded as '?', like String.getBytes does */
+                _buf[_len++] = '?';
+            else {
+                _buf[_len++] = (byte) (0xe0 | (c >> 12));
+                _buf[_len++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                _buf[_len++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        _buf[_len++] = '"';
+    }
+
+
+
+    private void _escape(char c)
+    {
+        _buf[_len++] = '\\';
+        switch (c) {
+            case '"':  _buf[_len++] = '"'; break;
+            case '\\': _buf[_len++] = '\\'; break;
+            case '\b': _buf[_len++] = 'b'; break;
+            case '\t': _buf[_len++] = 't'; break;
+            case '\n': _buf[_len++] = 'n'; break;
+            case '\f': _buf[_len++] = 'f'; break;
+            case '\r': _buf[_len++] = 'r'; break;
+            default:
+                _buf[_len++] = 'u';
+                _buf[_len++] = '0';
+                _buf[_len++] = '0';
+                _buf[_len++] = HEX[c >> 4];
+                _buf[_len++] = HEX[c & 0xf];
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+public class ExpiryWheelTest
+{
+    @Test
+    public void testSchedule() {
+        ExpiryWheel w = new ExpiryWheel(1000, 16);
+        long now = System.currentTimeMillis();
+        w.schedule("A", now + 3000);
+        w.schedule("A", now + 1000);     // Already scheduled
+        w.schedule("B", now - 5000);     // Due in next tick
+        w.schedule("C", now + 100000);   // Beyond the wheel, put in last slot
+        assertEquals(3, w.size());
+        assertTrue(w.isScheduled("A"));
+
+        assertEquals(List.of("B"), w.advance(now + 1000));
+        assertFalse(w.isScheduled("B"));
+        assertEquals(List.of("A"), w.advance(now + 3000));
+        assertEquals(List.of("C"), w.advance(now + 100000));
+        assertEquals(0, w.size());
+    }
+
+
+    /*
+     * Idents scheduled while the wheel is advanced by another thread must
+     * be returned exactly once, and not be left in a slot that is passed
+     * (they would then be returned a full turn of the wheel later).
+     */
+    @Test
+    public void testConcurrentSchedule() throws Exception {
+        ExpiryWheel w = new ExpiryWheel(1, 1 << 16);
+        int nthreads = 4, n = 20000;
+        AtomicBoolean done = new AtomicBoolean(false);
+        Map<String, Integer> due = new ConcurrentHashMap<String, Integer>();
+
+        Thread adv = new Thread(() -> {
+            while (!done.get())
+                for (String id : w.advance(System.currentTimeMillis()))
+                    due.merge(id, 1, Integer::sum);
+        });
+        adv.start();
+
+        ExecutorService ex = Executors.newFixedThreadPool(nthreads);
+        List<Future<?>> res = new ArrayList<Future<?>>();
+        for (int i=0; i<nthreads; i++) {
+            int k = i;
+            res.add(ex.submit(() -> {
+                for (int j=0; j<n; j++)
+                    w.schedule(k+"-"+j, System.currentTimeMillis());
+            }));
+        }
+        for (Future<?> f : res)
+            f.get();
+        ex.shutdown();
+        done.set(true);
+        adv.join(10000);
+        Thread.sleep(5);
+        for (String id : w.advance(System.currentTimeMillis()))
+            due.merge(id, 1, Integer::sum);
+
+        assertEquals(nthreads * n, due.size());
+        for (int c : due.values())
+            assertEquals(1, c);
+        assertEquals(0, w.size());
+    }
+}
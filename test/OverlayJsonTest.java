@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.util.*;
+import no.polaric.aprsd.point.*;
+import no.polaric.core.httpd.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Check that overlays written with OverlayJson and JsonWriter are byte
+ * identical to the JsOverlay/JsPoint objects serialized with
+ * ServerBase.serializeJson (UTF-8, as sent to clients). Points are put
+ * together the way JsonMapUpdater does it. An overlay is also compared
+ * with a file (overlay.json), so that the format does not change with the
+ * version of Jackson.
+ */
+public class OverlayJsonTest implements JsonPoints
+{
+    /* Control characters, quotes, non-ASCII and a surrogate pair */
+    static final String TEXT = "Ctl \u0000\u0001\b\t\n\f\r\u001f \"q\" \\ / \u007f \u0080 Øyvind æøå € 😀 end";
+
+    static final String[] STRINGS = {
+        "", "LA7ECA-9", TEXT, "😀😀", "lone \uD800 high", "lone \uDC00 low", "end \uD83D",
+        "\u0000\u0000\u0000\u0000\u0000\u0000\u0000\u0000ØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØØ"
+    };
+
+    static final double[] NUMBERS = { 0.0, -0.0, 10.123456, -63.5, 1.0E-5, 1.23456789E8, 179.99999, Double.NaN };
+
+
+
+    private static void assertSame(Object expected, JsonWriter w) {
+        byte[] exp = ServerBase.serializeJson(expected).getBytes(StandardCharsets.UTF_8);
+        byte[] res = w.toBytes();
+        assertArrayEquals(exp, res, () ->
+            "\nexpected: "+new String(exp, StandardCharsets.UTF_8)+"\nwritten:  "+new String(res, StandardCharsets.UTF_8));
+    }
+
+
+
+    private static JsTPoint tpoint(double lng, double lat, Date time, String path) {
+        JsTPoint x = new JsTPoint(new double[] {lng, lat}, time);
+        x.path = path;
+        return x;
+    }
+
+
+    private static byte[] tpointJson(JsTPoint x) {
+        return OverlayJson.tpoint(new JsonWriter(), x.pos[0], x.pos[1], x.time, x.path).toBytes();
+    }
+
+
+
+    /* Point as an item of an overlay cache entry, like JsonMapUpdater.createItem makes it */
+    private static OverlayCache.Item item(JsPoint p, int bufsize) {
+        JsonWriter w = new JsonWriter(bufsize).beginMembers();
+        OverlayJson.pointMembers(w, p.ident, p.type, p.pos[0], p.pos[1], p.title, p.redraw, p.own,
+            p.aprs, p.telemetry, p.sarAuth, p.icon, p.href);
+        OverlayJson.label(w, p.label.id, p.label.style, p.label.hidden);
+        byte[] members = w.endMembers().toBytes();
+
+        List<OverlayCache.TrailPoint> tl = null;
+        if (p.trail != null) {
+            tl = new ArrayList<OverlayCache.TrailPoint>();
+            for (JsTPoint x : p.trail.linestring)
+                tl.add(new OverlayCache.TrailPoint(new TPoint(x.time, new LatLng(x.pos[1], x.pos[0]), x.path), tpointJson(x)));
+        }
+        return new OverlayCache.Item(null, p.ident, 0, members, (p.trail == null ? null : p.trail.style), tl, null);
+    }
+
+
+    /* Write a point with the whole trail */
+    private static JsonWriter writePoint(JsPoint p, int bufsize) {
+        OverlayCache.Item it = item(p, bufsize);
+        return OverlayJson.item(new JsonWriter(bufsize), it, it.trailLength(null, null));
+    }
+
+
+
+    private static JsPoint point(String ident, String title, double lng, double lat, JsTrail trail) {
+        JsPoint p = new JsPoint();
+        p.ident = ident;
+        p.pos = new double[] {lng, lat};
+        p.title = title;
+        p.redraw = true;
+        p.aprs = true;
+        p.sarAuth = true;
+        p.icon = "/icons/car.png";
+        p.label = new JsLabel();
+        p.label.id = ident;
+        p.label.style = "lmoving label_fg";
+        p.label.hidden = false;
+        p.trail = trail;
+        return p;
+    }
+
+
+
+    private static JsTrail trail(String[] style, JsTPoint... points) {
+        JsTrail t = new JsTrail(style);
+        t.linestring.addAll(Arrays.asList(points));
+        return t;
+    }
+
+
+
+    private static JsPoint sign(String ident, String title) {
+        JsPoint p = new JsPoint();
+        p.ident = ident;
+        p.type = "signs";
+        p.pos = new double[] {10.5, 63.25};
+        p.title = title;
+        p.own = true;
+        p.icon = "/icons/signs/info.png";
+        p.href = "";
+        return p;
+    }
+
+
+    private static JsonWriter writeSign(JsPoint p) {
+        return OverlayJson.sign(new JsonWriter(), p.ident, p.type, p.pos[0], p.pos[1], p.title, p.own, p.icon, p.href);
+    }
+
+
+
+    private static JsLine line(String ident, double x) {
+        return new JsLine(ident, new double[] {x, 63.1}, new double[] {x + 0.25, 63.2}, "prim");
+    }
+
+
+    private static byte[] lineJson(JsLine l) {
+        return OverlayJson.line(new JsonWriter(), l.ident, l.from[0], l.from[1], l.to[0], l.to[1], l.type).toBytes();
+    }
+
+
+
+
+    @Test
+    public void testStrings() {
+        for (String s : STRINGS) {
+            JsLabel x = new JsLabel();
+            x.id = s;
+            x.style = s;
+            JsPoint p = point(s, s, 1, 2, null);
+            p.label = x;
+            assertSame(p, writePoint(p, 64));
+        }
+    }
+
+
+    @Test
+    public void testNumbers() {
+        for (double d : NUMBERS) {
+            JsPoint p = point("N", "", d, d, trail(new String[] {"a"}, tpoint(d, -d, new Date(0), null)));
+            assertSame(p, writePoint(p, 4096));
+            JsLine l = line("A.B", d);
+            assertSame(l, new JsonWriter().rawValue(lineJson(l)));
+        }
+    }
+
+
+    @Test
+    public void testPoint() {
+        Date t = new Date(1760000000123L);
+        JsPoint p = point("LA7ECA-9", TEXT, 10.395, 63.4305, trail(new String[] {"ff0000", "1"},
+            tpoint(10.39412, 63.43, t, "LD9TS*,WIDE2-1"),
+            tpoint(10.393, 63.429, null, null),
+            tpoint(10.3921, 63.428, t, TEXT)));
+        assertSame(p, writePoint(p, 4096));
+
+        /* Small buffer, so it must grow */
+        assertSame(p, writePoint(p, 64));
+    }
+
+
+    @Test
+    public void testNullFields() {
+        JsPoint p = point("OBJ@LA7ECA", "", 5, 60, null);
+        p.type = null;
+        p.title = null;
+        p.icon = null;
+        p.href = null;
+        p.label.id = null;
+        p.label.style = null;
+        p.label.hidden = true;
+        assertSame(p, writePoint(p, 4096));
+    }
+
+
+    @Test
+    public void testTrail() {
+        /* Trail without style */
+        JsPoint p = point("B", "", 5, 60, trail(null, tpoint(5, 60, null, "")));
+        assertSame(p, writePoint(p, 4096));
+    }
+
+
+
+    /*
+     * The trail is clipped to the client's viewport, extended by 0.7 of its
+     * size, as subTrail does: positions up to the first one outside.
+     */
+    @Test
+    public void testClip() {
+        String[] style = {"ff0000"};
+        JsTPoint t1 = tpoint(10.39, 63.43, new Date(3000), "WIDE1*"),
+                 t2 = tpoint(10.2, 63.55, new Date(2000), null),
+                 t3 = tpoint(10.1, 63.45, new Date(1000), null),
+                 t4 = tpoint(10.38, 63.44, new Date(500), null);
+        OverlayCache.Item it = item(point("LA7ECA-9", "", 10.395, 63.4305, trail(style, t1, t2, t3, t4)), 4096);
+        LatLng uleft = new LatLng(63.5, 10.3), lright = new LatLng(63.4, 10.5);
+
+        assertEquals(4, it.trailLength(null, null));
+        assertEquals(2, it.trailLength(uleft, lright));
+        assertSame(point("LA7ECA-9", "", 10.395, 63.4305, trail(style, t1, t2)),
+            OverlayJson.item(new JsonWriter(), it, it.trailLength(uleft, lright)));
+
+        /* No positions inside: no trail */
+        uleft = new LatLng(60, 5);
+        lright = new LatLng(59.9, 5.2);
+        assertEquals(0, it.trailLength(uleft, lright));
+        assertSame(point("LA7ECA-9", "", 10.395, 63.4305, null),
+            OverlayJson.item(new JsonWriter(), it, it.trailLength(uleft, lright)));
+
+        /* No trail */
+        it = item(point("LD9TS", "", 10.4, 63.5, null), 4096);
+        assertEquals(0, it.trailLength(uleft, lright));
+        assertNull(it.trail());
+    }
+
+
+    @Test
+    public void testSign() {
+        JsPoint p = sign("__sign12", TEXT);
+        assertSame(p, writeSign(p));
+        p.type = null;
+        p.title = "";
+        p.own = false;
+        assertSame(p, writeSign(p));
+    }
+
+
+    @Test
+    public void testLine() {
+        JsLine l = line("LD9TS."+TEXT, 10.25);
+        assertSame(l, new JsonWriter().rawValue(lineJson(l)));
+    }
+
+
+    static final JsPoint P1 = point("LA7ECA-9", TEXT, 10.395, 63.4305,
+        trail(new String[] {"ff0000"}, tpoint(10.39, 63.43, new Date(1000), "WIDE1*"), tpoint(9.0, 63.43, null, null)));
+    static final JsPoint P2 = point("LD9TS", "Digi", 10.4, 63.5, null);
+    static final JsPoint S1 = sign("__sign1", "Info");
+    static final JsLine L1 = line("LA7ECA-9.LD9TS", 10.4);
+
+
+    /* Overlay with points clipped to a viewport, as in JsonMapUpdater.getOverlayData and addChanges */
+    private static JsonWriter writeOverlay() {
+        LatLng uleft = new LatLng(63.6, 10.3), lright = new LatLng(63.4, 10.5);
+        JsonWriter w = new JsonWriter(64);
+        OverlayJson.beginOverlay(w, "track", null, 7, false, true);
+        w.name("points").beginArray();
+        for (JsPoint p : new JsPoint[] {P1, P2}) {
+            OverlayCache.Item it = item(p, 4096);
+            OverlayJson.item(w, it, it.trailLength(uleft, lright));
+        }
+        w.rawValue(writeSign(S1).toBytes()).endArray();
+        w.name("delete").beginArray().value("OLD-1").value(TEXT).endArray();
+        w.name("lines").beginArray().rawValue(lineJson(L1)).endArray();
+        return OverlayJson.endOverlay(w, 12, 11, true);
+    }
+
+
+    @Test
+    public void testOverlay() {
+        JsOverlay mu = new JsOverlay("track");
+        mu.nclients = 7;
+        mu.offline = true;
+        mu.points = List.of(
+            point(P1.ident, P1.title, P1.pos[0], P1.pos[1], trail(P1.trail.style, P1.trail.linestring.get(0))),
+            P2, S1);
+        mu.delete = List.of("OLD-1", TEXT);
+        mu.lines = List.of(L1);
+        mu.rev = 12;
+        mu.baserev = 11;
+        mu.resync = true;
+        assertSame(mu, writeOverlay());
+    }
+
+
+    /* The overlay is the same as the one in the file */
+    @Test
+    public void testGolden() throws IOException {
+        byte[] exp;
+        try (InputStream in = OverlayJsonTest.class.getResourceAsStream("/overlay.json")) {
+            assertNotNull(in, "overlay.json");
+            exp = in.readAllBytes();
+        }
+        int n = exp.length;
+        while (n > 0 && (exp[n-1] == '\n' || exp[n-1] == '\r'))
+            n--;
+        byte[] res = writeOverlay().toBytes();
+        assertArrayEquals(Arrays.copyOf(exp, n), res, () ->
+            "\nexpected: "+new String(exp, StandardCharsets.UTF_8)+"\nwritten:  "+new String(res, StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void testEmptyOverlay() {
+        JsOverlay mu = new JsOverlay(null);
+        mu.points = new ArrayList<JsPoint>();
+        mu.delete = new ArrayList<String>();
+        mu.lines = new ArrayList<JsLine>();
+
+        JsonWriter w = new JsonWriter();
+        OverlayJson.beginOverlay(w, null, null, 0, false, false);
+        w.name("points").beginArray().endArray()
+         .name("delete").beginArray().endArray()
+         .name("lines").beginArray().endArray();
+        OverlayJson.endOverlay(w, 0, 0, false);
+        assertSame(mu, w);
+    }
+
+
+    @Test
+    public void testOverloadOverlay() {
+        JsOverlay mu = new JsOverlay("track");
+        mu.overload = true;
+        mu.points = new ArrayList<JsPoint>();
+        mu.delete = new ArrayList<String>();
+        mu.lines = new ArrayList<JsLine>();
+
+        JsonWriter w = new JsonWriter();
+        OverlayJson.beginOverlay(w, "track", null, 0, true, false);
+        OverlayJson.noPoints(w, true);
+        OverlayJson.endOverlay(w, 0, 0, false);
+        assertSame(mu, w);
+    }
+
+
+    @Test
+    public void testMetaOverlay() {
+        JsOverlay mu = new JsOverlay(TEXT);
+        mu.nclients = 3;
+
+        JsonWriter w = new JsonWriter();
+        OverlayJson.beginOverlay(w, TEXT, null, 3, false, false);
+        OverlayJson.noPoints(w, false);
+        OverlayJson.endOverlay(w, 0, 0, false);
+        assertSame(mu, w);
+    }
+}
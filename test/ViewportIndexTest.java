@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd;
+import no.polaric.aprsd.point.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Viewports as used by MapUpdater. A lookup must return every viewport
+ * where the point may be shown: inside the area extended by its own width
+ * and height (see TrackerPoint.isInside).
+ */
+public class ViewportIndexTest
+{
+    private record View(int id, LatLng uleft, LatLng lright) {}
+
+
+    private static View view(int id, double lat, double lng, double h, double w) {
+        double lng2 = lng + w;
+        if (lng2 > 180)
+            lng2 -= 360;
+        return new View(id, new LatLng(lat, lng), new LatLng(lat - h, lng2));
+    }
+
+
+    private static Set<View> lookup(ViewportIndex<View> ix, LatLng pos) {
+        Set<View> res = new HashSet<View>();
+        ix.lookup(pos, res::add);
+        return res;
+    }
+
+
+    /* Check that the lookup gives all viewports where the position is inside the extended area */
+    private static void assertSuperset(ViewportIndex<View> ix, List<View> views, LatLng pos) {
+        Set<View> cand = lookup(ix, pos);
+        Point p = new Point(pos);
+        for (View v : views) {
+            if (p.isInside(v.uleft(), v.lright()))
+                assertTrue(cand.contains(v), () -> v + " inside, pos " + pos.getLat() + "," + pos.getLng());
+            if (p.isInside(v.uleft(), v.lright(), 1, 1))
+                assertTrue(cand.contains(v), () -> v + " extended, pos " + pos.getLat() + "," + pos.getLng());
+        }
+    }
+
+
+
+    @Test
+    public void testSuperset() {
+        Random rnd = new Random(2);
+        List<View> views = new ArrayList<View>();
+        ViewportIndex<View> ix = new ViewportIndex<View>();
+        int id = 0;
+
+        /* Small and medium viewports anywhere */
+        for (int i=0; i<500; i++) {
+            double h = Math.pow(10, -2 + rnd.nextDouble() * 3);
+            views.add(view(id++, -90 + h + rnd.nextDouble() * (180 - h), -180 + rnd.nextDouble() * 360, h, h * 2));
+        }
+        /* Crossing or close to the 180th meridian, and close to the poles */
+        views.add(view(id++, 10, 179.5, 1, 1));
+        views.add(view(id++, 10, 170, 5, 9.9));
+        views.add(view(id++, 10, 178, 1, 1.9));
+        views.add(view(id++, -65, -180, 2, 3));
+        views.add(view(id++, 90, 20, 1, 2));
+        views.add(view(id++, -88, 100, 2, 2));
+        views.add(view(id++, 60.5, 10.25, 0.001, 0.002));
+        views.add(view(id++, 60, 10, 0, 0));
+
+        /* Wide viewports */
+        views.add(view(id++, 80, -170, 160, 340));
+        views.add(view(id++, 70, -100, 40, 120));
+        views.add(view(id++, 90, -180, 180, 360));
+        views.add(view(id++, 30, 100, 20, 200));
+        views.add(view(id++, 30, 150, 10, 80));
+
+        for (View v : views)
+            ix.put(v, v.uleft(), v.lright());
+        assertEquals(views.size(), ix.size());
+
+        /* Random positions, and positions near the viewports and on cell borders */
+        for (int i=0; i<20000; i++)
+            assertSuperset(ix, views, new LatLng(-90 + rnd.nextDouble() * 180, -180 + rnd.nextDouble() * 360));
+        for (View v : views)
+            for (int i=0; i<20; i++) {
+                double h = v.uleft().getLat() - v.lright().getLat();
+                double w = v.lright().getLng() - v.uleft().getLng();
+                if (w < 0)
+                    w += 360;
+                double lat = Math.max(-90, Math.min(90, v.lright().getLat() - h + rnd.nextDouble() * h * 3));
+                double lng = v.uleft().getLng() - w + rnd.nextDouble() * w * 3;
+                lng = ((lng + 540) % 360) - 180;
+                assertSuperset(ix, views, new LatLng(lat, lng));
+            }
+        for (int lat=-90; lat<=90; lat++)
+            for (int lng=-180; lng<=180; lng++)
+                assertSuperset(ix, views, new LatLng(lat, lng));
+    }
+
+
+
+    /* Viewports are moved and removed */
+    @Test
+    public void testMove() {
+        ViewportIndex<View> ix = new ViewportIndex<View>();
+        View a = view(1, 61, 10, 1, 2), b = view(2, 61, 10, 1, 2);
+        ix.put(a, a.uleft(), a.lright());
+        ix.put(b, b.uleft(), b.lright());
+        assertEquals(Set.of(a, b), lookup(ix, new LatLng(60.5, 11)));
+
+        /* Move a far away */
+        ix.put(a, new LatLng(-30, -60), new LatLng(-31, -58));
+        assertEquals(Set.of(b), lookup(ix, new LatLng(60.5, 11)));
+        assertEquals(Set.of(a), lookup(ix, new LatLng(-30.5, -59)));
+
+        /* Wide and back */
+        ix.put(a, new LatLng(80, -170), new LatLng(-80, 170));
+        assertEquals(Set.of(a), lookup(ix, new LatLng(-30.5, -59)));
+        assertEquals(Set.of(a, b), lookup(ix, new LatLng(60.5, 11)));
+        ix.put(a, new LatLng(-30, -60), new LatLng(-31, -58));
+        assertEquals(Set.of(b), lookup(ix, new LatLng(60.5, 11)));
+
+        ix.retain(Set.of(a));
+        assertEquals(1, ix.size());
+        assertEquals(Set.of(), lookup(ix, new LatLng(60.5, 11)));
+        ix.put(a, null, null);
+        assertEquals(0, ix.size());
+        assertEquals(Set.of(), lookup(ix, new LatLng(-30.5, -59)));
+        assertEquals(Set.of(), lookup(ix, null));
+    }
+
+
+
+    /*
+     * 1000 clients spread over a region, with viewports of different size.
+     * A lookup gives a small fraction of them as candidates, compared to
+     * testing every client.
+     */
+    @Test
+    public void testCandidates() {
+        Random rnd = new Random(3);
+        ViewportIndex<View> ix = new ViewportIndex<View>();
+        List<View> views = new ArrayList<View>();
+        for (int i=0; i<1000; i++) {
+            double h = 0.05 + rnd.nextDouble() * rnd.nextDouble() * 4;
+            View v = view(i, 55 + rnd.nextDouble() * 15, 4 + rnd.nextDouble() * 25, h, h * 2);
+            views.add(v);
+            ix.put(v, v.uleft(), v.lright());
+        }
+        long ncand = 0, ninside = 0;
+        int n = 100000;
+        for (int i=0; i<n; i++) {
+            LatLng pos = new LatLng(55 + rnd.nextDouble() * 15, 4 + rnd.nextDouble() * 25);
+            Set<View> cand = lookup(ix, pos);
+            ncand += cand.size();
+            Point p = new Point(pos);
+            for (View v : views)
+                if (p.isInside(v.uleft(), v.lright())) {
+                    ninside++;
+                    assertTrue(cand.contains(v));
+                }
+        }
+        assertTrue(ncand > ninside);
+        assertTrue(ncand / n < 100, "candidates per lookup: " + ncand / n);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.aprs;
+import java.util.*;
+import java.util.regex.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+public class AprsPacketTest
+{
+    /* The regex that was used to parse packets before parse() */
+    private static final Pattern _ppat = Pattern.compile
+       ("([\\w\\-]+)>([\\w\\-]+)(((,[\\w\\-]+\\*?))*):(.*)");
+
+
+    /* Packet fields as the old regex based fromString gave them, or null */
+    private static String[] regexParse(String packet)
+    {
+        packet = packet.replace('\uffff', ' ');
+        if (packet.length() < 10)
+            return null;
+        Matcher m = _ppat.matcher(packet);
+        if (!m.matches())
+            return null;
+        String via = m.group(3).trim();
+        while (via.length() > 0 && via.charAt(0) == ',')
+            via = via.substring(1);
+        return new String[] {
+            m.group(1).trim().toUpperCase(), m.group(2).trim().toUpperCase(), via, m.group(m.groupCount()) };
+    }
+
+
+    private static String[] fields(AprsPacket p)
+        { return p == null ? null : new String[] {p.from, p.to, p.via, p.report}; }
+
+
+
+    static final String[] PACKETS = {
+        /* Valid */
+        "LA7ECA>APRS:!6324.21N/01025.37E>",
+        "la7eca-9>aprs,ld9ts*,wide2-1:>status",
+        "LA7ECA>APRS,TCPIP*,qAC,T2NORWAY:=6324.21N/01025.37E-Test",
+        "LA7ECA>APRS,WIDE1-1,WIDE2-1*:report:with:colons>and>arrows",
+        "A_B-1>C_D:report ",
+        "LA7ECA>APRS:",
+        "LA7ECA>APRS::LD9TS    :msg{1",
+        "LA7ECA>APRS:}LD9TS>APRS,TCPIP,LA7ECA*:>third party",
+        "LA7ECA>APRS:Øyvind æøå € 😀",
+        "LA7ECA>APRS:tab\tand\u000bvt\fff",
+        "LA7ECA>APRS:with \uffff and \uffff",
+        "LA7ECA>APRS:trailing space   ",
+
+        /* Too short */
+        "", "A>B:x", "A>B,C:xyz", "A>BCDEF:x",
+
+        /* Malformed header */
+        "LA7ECA APRS:report",
+        ">APRS:report here",
+        "LA7ECA>:report here",
+        "LA7ECA>APRS",
+        "LA7ECA>APRS,:report",
+        "LA7ECA>APRS,,WIDE1:report",
+        "LA7ECA>APRS,WIDE1,:report",
+        "LA7ECA>APRS,WIDE1**:report",
+        "LA7ECA>APRS*:report",
+        "LA7ECA>APRS WIDE1:report",
+        "LA7ECA>>APRS:report",
+        "LA7ECA>APRS,WIDE1 ,WIDE2:report",
+        " LA7ECA>APRS:report",
+        "LA7ECA >APRS:report",
+        "LØ7ECA>APRS:report",
+        "LA7ECA>APRS,WIDÉ:report",
+        "LA\uffff7ECA>APRS:report",
+        "LA7ECA>AP.RS:report",
+        "LA7ECA>APRS,WIDE1*,*:report",
+
+        /* Line terminators in the report are not matched */
+        "LA7ECA>APRS:line\nline",
+        "LA7ECA>APRS:line\r",
+        "LA7ECA>APRS:line\r\n",
+        "LA7ECA>APRS:\u0085next line",
+        "LA7ECA>APRS:line\u2028sep",
+        "LA7ECA>APRS:para\u2029sep",
+        "LA7ECA>APRS\n:report",
+        "\nLA7ECA>APRS:report",
+        "LA7ECA>APRS:one\nLD9TS>APRS:two",
+    };
+
+
+
+    @Test
+    public void testParseSameAsRegex() {
+        for (String s : PACKETS)
+            assertArrayEquals(regexParse(s), fields(AprsPacket.fromString(s)), () -> "packet: "+s);
+    }
+
+
+    /* Lines of a buffer are parsed in place */
+    @Test
+    public void testParseRange() {
+        StringBuilder buf = new StringBuilder();
+        List<int[]> lines = new ArrayList<int[]>();
+        for (String s : PACKETS) {
+            lines.add(new int[] {buf.length(), buf.length() + s.length()});
+            buf.append(s).append("\r\n");
+        }
+        for (int i=0; i<PACKETS.length; i++) {
+            int[] ln = lines.get(i);
+            String s = PACKETS[i];
+            assertArrayEquals(regexParse(s), fields(AprsPacket.parse(buf, ln[0], ln[1])), () -> "packet: "+s);
+        }
+    }
+
+
+    @Test
+    public void testParseOrig() {
+        AprsPacket p = AprsPacket.fromString("la7eca>aprs,wide1-1:report");
+        assertEquals("LA7ECA", p.from_orig);
+        assertEquals("APRS", p.to_orig);
+        assertNull(p.via_orig);
+        assertNotNull(p.time);
+        assertEquals(p.time, p.getTime());
+        assertNull(AprsPacket.fromString(null));
+    }
+
+
+    /* The path is split once and split again when via is changed */
+    @Test
+    public void testPathCache() {
+        AprsPacket p = AprsPacket.fromString("LA7ECA>APRS,LD9TS*,WIDE2-1:report");
+        String[] path = p.getPath();
+        assertArrayEquals(new String[] {"LD9TS*", "WIDE2-1"}, path);
+        assertSame(path, p.getPath());
+
+        p.setQcode("qAR", "LA3FIA-10");
+        assertArrayEquals(new String[] {"LD9TS*", "WIDE2-1", "qAR", "LA3FIA-10"}, p.getPath());
+        p.via = "LD9TS*, WIDE2-1,  qAO";
+        assertArrayEquals(new String[] {"LD9TS*", "WIDE2-1", "qAO"}, p.getPath());
+
+        /* A new string with the same text is split again */
+        path = p.getPath();
+        p.via = new String(p.via);
+        assertNotSame(path, p.getPath());
+        assertArrayEquals(path, p.getPath());
+
+        p.via = "";
+        assertArrayEquals(new String[] {""}, p.getPath());
+        p.via = null;
+        assertEquals(0, p.getPath().length);
+        p.via = "TCPIP*";
+        assertArrayEquals(new String[] {"TCPIP*"}, p.getPath());
+
+        /* A clone shares the cache until via is changed */
+        AprsPacket c = p.clone();
+        assertSame(p.getPath(), c.getPath());
+        c.via = "WIDE1-1";
+        assertArrayEquals(new String[] {"WIDE1-1"}, c.getPath());
+        assertArrayEquals(new String[] {"TCPIP*"}, p.getPath());
+    }
+}
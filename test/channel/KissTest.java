@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import no.polaric.aprsd.aprs.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+public class KissTest
+{
+    private static AprsPacket packet(String from, String to, String via, String report) {
+        AprsPacket p = new AprsPacket();
+        p.from = from;
+        p.to = to;
+        p.via = via;
+        p.report = report;
+        return p;
+    }
+
+
+    /* Encoded frame, or null if it cannot be encoded */
+    private static byte[] encode(AprsPacket p, int port) {
+        ByteBuffer out = ByteBuffer.allocate(2 * Kiss.MAX_FRAME + 2);
+        if (!Kiss.encodeFrame(p, (byte) ((port & 0x0F) << 4), out))
+            return null;
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+
+    private static Kiss kiss(byte[] in, int port) {
+        return new Kiss(new ByteArrayInputStream(in), new ByteArrayOutputStream(), port);
+    }
+
+
+    private static byte[] concat(byte[]... x) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] b : x)
+            out.writeBytes(b);
+        return out.toByteArray();
+    }
+
+
+    private static void assertPacket(AprsPacket exp, AprsPacket p) {
+        assertNotNull(p);
+        assertEquals(exp.from, p.from);
+        assertEquals(exp.to, p.to);
+        assertEquals(exp.via == null ? "" : exp.via, p.via);
+        assertEquals(exp.report, p.report);
+    }
+
+
+
+    @Test
+    public void testRoundTrip() throws Throwable {
+        AprsPacket[] pkts = {
+            packet("LA7ECA", "APRS", null, "!6324.21N/01025.37E>"),
+            packet("LA7ECA-15", "APZ", "", ">status"),
+            packet("LD9TS-1", "APRS-3", "WIDE1-1,WIDE2-2", ":LA7ECA   :msg{1"),
+            packet("LA7ECA-9", "APRS", "LD9TS*,LA3FIA-10*,WIDE2-1", "Øyvind æøå € 😀"),
+            packet("A", "B", "C", ""),
+        };
+        for (AprsPacket p : pkts) {
+            Kiss k = kiss(encode(p, 0), 0);
+            assertPacket(p, k.receivePacket());
+            assertEquals(0, k.lastPort());
+        }
+    }
+
+
+
+    /* FEND and FESC in the frame are escaped, and unescaped when received */
+    @Test
+    public void testEscape() throws Throwable {
+        /* U+06DB is 0xDB 0x9B in UTF-8. Port 12 gives command byte 0xC0 */
+        AprsPacket p = packet("LA7ECA", "APRS", "WIDE1-1", ">\u06db\u06c0\u06dd");
+        byte[] f = encode(p, 12);
+        assertEquals((byte) 0xC0, f[0]);
+        assertEquals((byte) 0xDB, f[1]);
+        assertEquals((byte) 0xDC, f[2]);
+        assertEquals((byte) 0xC0, f[f.length-1]);
+        for (int i=1; i<f.length-1; i++) {
+            assertNotEquals((byte) 0xC0, f[i], "FEND at "+i);
+            if (f[i] == (byte) 0xDB)
+                assertTrue(f[i+1] == (byte) 0xDC || f[i+1] == (byte) 0xDD, "FESC at "+i);
+        }
+
+        /* Unescaped frame */
+        Kiss k = kiss(f, -1);
+        ByteBuffer fr = k.receiveFrame();
+        assertEquals((byte) 0xC0, fr.get(0));
+        assertPacket(p, Kiss.decodeFrame(fr));
+
+        k = kiss(concat(f, f), -1);
+        assertPacket(p, k.receivePacket());
+        assertEquals(12, k.lastPort());
+        assertPacket(p, k.receivePacket());
+    }
+
+
+
+    /* The port is the high nibble of the command byte */
+    @Test
+    public void testPort() throws Throwable {
+        AprsPacket p = packet("LA7ECA", "APRS", "WIDE1-1", ">test");
+        for (int port=0; port<16; port++)
+            assertEquals((byte) (port << 4), kiss(encode(p, port), -1).receiveFrame().get(0));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Kiss k = new Kiss(new ByteArrayInputStream(new byte[0]), os, 5);
+        k.sendPacket(p);
+        k.sendPacket(p, 17);
+        byte[] b = os.toByteArray();
+        int n = encode(p, 0).length;
+        assertEquals(2 * n, b.length);
+        assertEquals((byte) 0x50, b[1]);
+        assertEquals((byte) 0x10, b[n+1]);
+
+        /* Frames for other ports are ignored */
+        AprsPacket p2 = packet("LD9TS", "APRS", "", ">port 3");
+        byte[] in = concat(encode(p, 5), encode(p2, 3), encode(p, 0));
+        k = kiss(in, 3);
+        assertPacket(p2, k.receivePacket());
+        assertEquals(3, k.lastPort());
+        Kiss k2 = k;
+        assertThrows(Kiss.Timeout.class, () -> k2.receivePacket());
+
+        k = kiss(in, -1);
+        assertPacket(p, k.receivePacket());
+        assertEquals(5, k.lastPort());
+        assertPacket(p2, k.receivePacket());
+        assertEquals(3, k.lastPort());
+        assertPacket(p, k.receivePacket());
+        assertEquals(0, k.lastPort());
+    }
+
+
+
+    /* A frame longer than MAX_FRAME is dropped. The next frame is received */
+    @Test
+    public void testOversize() throws Throwable {
+        AprsPacket big = packet("LA7ECA", "APRS", "", ">" + "x".repeat(Kiss.MAX_FRAME));
+        AprsPacket p = packet("LD9TS", "APRS", "WIDE1-1", ">after");
+        assertNull(encode(packet("LA7ECA", "APRS", "", ">" + "\u06c0".repeat(Kiss.MAX_FRAME)), 0));
+
+        byte[] b = encode(big, 0);
+        assertTrue(b.length > Kiss.MAX_FRAME + 2);
+        Kiss k = kiss(concat(b, b, encode(p, 0)), 0);
+        assertPacket(p, k.receivePacket());
+        assertThrows(Kiss.Timeout.class, () -> k.receivePacket());
+
+        /* A frame of MAX_FRAME bytes (unescaped) is received, one more byte is too much */
+        int hdr = 1 + 7 * 2 + 2;
+        AprsPacket max = packet("LA7ECA", "APRS", "", "x".repeat(Kiss.MAX_FRAME - hdr));
+        assertPacket(max, kiss(encode(max, 0), 0).receivePacket());
+        max.report += "x";
+        Kiss k2 = kiss(concat(encode(max, 0), encode(p, 0)), 0);
+        assertPacket(p, k2.receivePacket());
+        assertThrows(Kiss.Timeout.class, () -> k2.receivePacket());
+    }
+
+
+
+    /* Empty elements of the path are not encoded as addresses */
+    @Test
+    public void testEmptyVia() throws Throwable {
+        AprsPacket p = packet("LA7ECA", "APRS", "WIDE1-1,WIDE2-1", ">test");
+        byte[] b = encode(p, 0);
+        for (String via : new String[] {"WIDE1-1,WIDE2-1,", ",WIDE1-1,WIDE2-1", "WIDE1-1,,WIDE2-1", "WIDE1-1,WIDE2-1,,"})
+            assertArrayEquals(b, encode(packet("LA7ECA", "APRS", via, ">test"), 0), via);
+
+        AprsPacket p0 = packet("LA7ECA", "APRS", "", ">test");
+        b = encode(p0, 0);
+        assertArrayEquals(b, encode(packet("LA7ECA", "APRS", ",", ">test"), 0));
+        assertArrayEquals(b, encode(packet("LA7ECA", "APRS", null, ">test"), 0));
+        assertPacket(p0, kiss(encode(packet("LA7ECA", "APRS", ",,", ">test"), 0), 0).receivePacket());
+        assertPacket(p, kiss(encode(packet("LA7ECA", "APRS", "WIDE1-1,WIDE2-1,", ">test"), 0), 0).receivePacket());
+    }
+
+
+
+    /* Addresses that do not fit in the AX.25 address field are rejected */
+    @Test
+    public void testBadAddress() throws Throwable {
+        assertNotNull(encode(packet("LA7ECA-15", "APRS", "LD9TS*", ">"), 0));
+        String[][] bad = {
+            {"LA7ECAX", "APRS", ""},
+            {"LA7ECA", "APRSXYZ-1", ""},
+            {"LA7ECA", "APRS", "WIDE1-1,T2NORWAY*"},
+            {"LA7ECA", "APRS", "T2NORWAY"},
+            {"LA7ECA-16", "APRS", ""},
+            {"LA7ECA-", "APRS", ""},
+            {"LA7ECA-X", "APRS", ""},
+            {"LA7ECA", "APRS", "WIDE1--1"},
+        };
+        for (String[] x : bad)
+            assertNull(encode(packet(x[0], x[1], x[2], ">"), 0), Arrays.toString(x));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Kiss k = new Kiss(new ByteArrayInputStream(new byte[0]), os, 0);
+        assertThrows(IOException.class, () -> k.sendPacket(packet("LA7ECA", "APRS", "WIDE1-1,T2NORWAY", ">")));
+        assertEquals(0, os.size());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Lanes as used by AprsParser: packets sharded on sender callsign.
+ */
+public class PipelineLanesTest
+{
+    private record Pkt(String from, int seq) {}
+
+
+    /*
+     * Packets from each sender are handled in the order they are put, and
+     * on the same thread, while different senders are handled in parallel.
+     */
+    @Test
+    public void testOrderPerKey() throws Exception {
+        int nstations = 200, npackets = 50;
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<String, List<Integer>>();
+        Map<String, Set<String>> threads = new ConcurrentHashMap<String, Set<String>>();
+        AtomicInteger active = new AtomicInteger(0), maxActive = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(nstations * npackets);
+        Random rnd = new Random(1);
+
+        PipelineLanes<Pkt> lanes = new PipelineLanes<Pkt>(null, "test", 4, 100, x -> x.from(), x -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            seen.computeIfAbsent(x.from(), k -> Collections.synchronizedList(new ArrayList<Integer>())).add(x.seq());
+            threads.computeIfAbsent(x.from(), k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            if (x.seq() % 10 == 0)
+                try { Thread.sleep(1); } catch (InterruptedException e) {}
+            active.decrementAndGet();
+            done.countDown();
+        });
+
+        /* Senders interleaved at random, as from a channel */
+        int[] next = new int[nstations];
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i=0; i<nstations; i++)
+            for (int j=0; j<npackets; j++)
+                order.add(i);
+        Collections.shuffle(order, rnd);
+        for (int i : order)
+            lanes.put(new Pkt("LA"+i+"-"+(i % 16), next[i]++));
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        lanes.shutdown();
+
+        assertEquals(nstations, seen.size());
+        for (Map.Entry<String, List<Integer>> e : seen.entrySet()) {
+            List<Integer> s = e.getValue();
+            assertEquals(npackets, s.size(), e.getKey());
+            for (int j=0; j<npackets; j++)
+                assertEquals(j, s.get(j), e.getKey());
+            assertEquals(1, threads.get(e.getKey()).size(), e.getKey());
+        }
+        assertTrue(maxActive.get() > 1, "lanes run in parallel");
+
+        long n = 0;
+        for (PipelineStage.Stats s : lanes.getStats()) {
+            assertTrue(s.processed() > 0, s.name());
+            assertEquals(0, s.dropped());
+            n += s.processed();
+        }
+        assertEquals(nstations * npackets, n);
+    }
+
+
+    @Test
+    public void testLane() {
+        PipelineLanes<Pkt> lanes = new PipelineLanes<Pkt>(null, "test", 3, 10, x -> x.from(), x -> {});
+        assertEquals(3, lanes.size());
+        assertEquals(0, lanes.lane(null));
+        for (String s : new String[] {"LA7ECA", "LD9TS", "", "Ø"}) {
+            int l = lanes.lane(s);
+            assertTrue(l >= 0 && l < 3);
+            assertEquals(l, lanes.lane(new String(s)));
+        }
+        lanes.shutdown();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 by LA7ECA, Øyvind Hanssen (ohanssen@acm.org)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ */
+
+package no.polaric.aprsd.channel;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Send queues as used by InetSrvClient: one per APRS-IS client, written
+ * by a writer thread per client.
+ */
+public class SendQueueTest
+{
+    /* Client that reads everything */
+    private static class FastStream extends OutputStream {
+        final AtomicLong lines = new AtomicLong(0);
+        public void write(int b) {
+            if (b == '\n')
+                lines.incrementAndGet();
+        }
+    }
+
+
+    /* Client that does not read. Writes block until the writer is interrupted */
+    private static class StuckStream extends OutputStream {
+        public void write(int b) throws IOException {
+            try {
+                new CountDownLatch(1).await();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+
+    private static Thread startWriter(SendQueue q, OutputStream out) {
+        Thread t = new Thread(() -> q.write(out));
+        t.start();
+        return t;
+    }
+
+
+    private static void await(BooleanSupplier cond) throws InterruptedException {
+        long t = System.currentTimeMillis() + 10000;
+        while (!cond.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < t, "timeout");
+            Thread.sleep(1);
+        }
+    }
+
+
+
+    /*
+     * A client that does not read is disconnected when its queue is full.
+     * Putting packets never blocks, and other clients get all packets.
+     */
+    @Test
+    public void testSlowConsumer() throws Exception {
+        int nclients = 50, capacity = 200, rounds = 20, perRound = 100;
+        byte[] line = "LA7ECA>APRS,TCPIP*,qAC,T2NORWAY:!6324.21N/01025.37E-Test\r\n".getBytes(StandardCharsets.UTF_8);
+
+        List<SendQueue> fast = new ArrayList<SendQueue>();
+        List<FastStream> streams = new ArrayList<FastStream>();
+        List<Thread> writers = new ArrayList<Thread>();
+        AtomicInteger full = new AtomicInteger(0);
+        for (int i=0; i<nclients; i++) {
+            SendQueue q = new SendQueue(capacity, () -> fail("fast client disconnected"));
+            FastStream s = new FastStream();
+            fast.add(q);
+            streams.add(s);
+            writers.add(startWriter(q, s));
+        }
+        SendQueue slow = new SendQueue(capacity, () -> full.incrementAndGet());
+        Thread slowWriter = startWriter(slow, new StuckStream());
+
+        /* Send packets to all clients, as InetSrvChannel does, in rounds */
+        int sent = 0, slowAccepted = 0;
+        for (int r=0; r<rounds; r++) {
+            long t = System.nanoTime();
+            for (int i=0; i<perRound; i++) {
+                for (SendQueue q : fast)
+                    assertTrue(q.offer(line));
+                if (slow.offer(line))
+                    slowAccepted++;
+                sent++;
+            }
+            assertTrue(System.nanoTime() - t < 5_000_000_000L, "offer does not block");
+            await(() -> fast.stream().allMatch(q -> q.size() == 0));
+        }
+
+        /* The slow client got what fits on its queue, and one batch taken by the writer */
+        assertTrue(slow.isClosed());
+        assertEquals(1, full.get());
+        assertTrue(slowAccepted >= capacity && slowAccepted <= capacity + 256, "accepted: "+slowAccepted);
+        assertFalse(slow.offer(line));
+        slowWriter.join(10000);
+        assertFalse(slowWriter.isAlive());
+
+        int n = sent;
+        await(() -> streams.stream().allMatch(s -> s.lines.get() == n));
+        for (SendQueue q : fast) {
+            assertFalse(q.isClosed());
+            q.close();
+        }
+        for (Thread t : writers) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+    }
+
+
+
+    /* A write error closes the queue */
+    @Test
+    public void testWriteError() throws Exception {
+        SendQueue q = new SendQueue(10, null);
+        Thread t = startWriter(q, new OutputStream() {
+            public void write(int b) throws IOException { throw new IOException("closed"); }
+        });
+        q.offer(new byte[] {'x', '\n'});
+        t.join(10000);
+        assertTrue(q.isClosed());
+        assertFalse(q.offer(new byte[] {'y'}));
+    }
+}